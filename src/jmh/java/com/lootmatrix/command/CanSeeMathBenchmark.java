@@ -0,0 +1,79 @@
+package com.lootmatrix.command;
+
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CanSeeCommand 的视野角度与碰撞箱计算（不含方块射线检测）
+ *
+ * 每次调用检查一个观察者对 targets 个随机分布在 64 格范围内的碰撞箱：
+ * 普通模式检查中心点和 8 个角点，严格模式只检查中心点
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CanSeeMathBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int targets;
+
+    private final Vec3 eyePos = new Vec3(0.0, 64.0, 0.0);
+    private Vec3 lookDir;
+    private double cosHalfFov;
+    private AABB[] boxes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        lookDir = new Vec3(1.0, 0.0, 0.5).normalize();
+        cosHalfFov = Math.cos(Math.toRadians(70.0 / 2.0));
+
+        boxes = new AABB[targets];
+        for (int i = 0; i < targets; i++) {
+            double x = random.nextDouble(-64.0, 64.0);
+            double y = random.nextDouble(48.0, 80.0);
+            double z = random.nextDouble(-64.0, 64.0);
+            boxes[i] = new AABB(x - 0.3, y, z - 0.3, x + 0.3, y + 1.8, z + 0.3);
+        }
+    }
+
+    @Benchmark
+    public void normal(Blackhole blackhole) {
+        for (AABB box : boxes) {
+            boolean inFov = false;
+            for (Vec3 point : CanSeeCommand.checkPoints(box)) {
+                if (CanSeeCommand.isPointInFov(eyePos, lookDir, point, cosHalfFov)) {
+                    inFov = true;
+                    break;
+                }
+            }
+            blackhole.consume(inFov);
+        }
+    }
+
+    @Benchmark
+    public void strict(Blackhole blackhole) {
+        for (AABB box : boxes) {
+            blackhole.consume(CanSeeCommand.isPointInFov(eyePos, lookDir, box.getCenter(), cosHalfFov));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.lootmatrix.display;
+
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DisplayVisibilityManager.canPlayerSee 在维度分片上的查找
+ *
+ * 直接填充 DisplayVisibilityShard，不需要创建实体（分片只按实体ID读取）：
+ * 一半的实体受限，受限实体对 1/4 的观察者可见；查询在预先生成的随机（实体, 观察者）序列上循环
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayVisibilityBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int QUERY_MASK = QUERIES - 1;
+
+    @Param({"10", "1000", "10000"})
+    public int entities;
+
+    @Param({"1", "50", "500"})
+    public int viewers;
+
+    private DisplayVisibilityShard shard;
+    private final int[] queryEntities = new int[QUERIES];
+    private final UUID[] queryViewers = new UUID[QUERIES];
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        shard = new DisplayVisibilityShard(null);
+        SplittableRandom random = new SplittableRandom(42);
+
+        UUID[] viewerIds = new UUID[viewers];
+        for (int v = 0; v < viewers; v++) {
+            viewerIds[v] = new UUID(random.nextLong(), random.nextLong());
+        }
+
+        for (int e = 0; e < entities; e += 2) {
+            Set<UUID> allowed = new ObjectOpenHashSet<>();
+            for (int v = (e >> 1) & 3; v < viewers; v += 4) {
+                allowed.add(viewerIds[v]);
+            }
+            shard.entities.put(e, null);
+            shard.visibility.put(e, allowed);
+        }
+
+        for (int i = 0; i < QUERIES; i++) {
+            queryEntities[i] = random.nextInt(entities);
+            queryViewers[i] = viewerIds[random.nextInt(viewers)];
+        }
+    }
+
+    @Benchmark
+    public boolean canPlayerSee() {
+        int i = cursor++ & QUERY_MASK;
+        return shard.canSee(queryEntities[i], queryViewers[i]);
+    }
+
+    @Benchmark
+    public boolean hasVisibilityRestriction() {
+        return shard.isRestricted(queryEntities[cursor++ & QUERY_MASK]);
+    }
+}
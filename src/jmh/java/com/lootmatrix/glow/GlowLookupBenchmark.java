@@ -0,0 +1,93 @@
+package com.lootmatrix.glow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GlowManager.hasGlowForViewer / hasGlowForAnyViewer 背后的查找
+ *
+ * 直接填充 GlowStateStore，不需要创建实体：每个观察者对 1/4 的实体有发光记录，
+ * 其中客户端已加入发光队伍的实体进入名称索引；查询在预先生成的随机（观察者, 实体）序列上循环，
+ * 命中和未命中大致各占一半
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlowLookupBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int QUERY_MASK = QUERIES - 1;
+
+    @Param({"10", "1000", "10000"})
+    public int entities;
+
+    @Param({"1", "50", "500"})
+    public int viewers;
+
+    private GlowStateStore store;
+    private final UUID[] queryViewers = new UUID[QUERIES];
+    private final int[] queryEntities = new int[QUERIES];
+    private final String[] queryNames = new String[QUERIES];
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        store = new GlowStateStore();
+        SplittableRandom random = new SplittableRandom(42);
+
+        UUID[] viewerIds = new UUID[viewers];
+        for (int v = 0; v < viewers; v++) {
+            viewerIds[v] = new UUID(random.nextLong(), random.nextLong());
+        }
+        String[] names = new String[entities];
+        for (int e = 0; e < entities; e++) {
+            names[e] = new UUID(random.nextLong(), random.nextLong()).toString();
+            store.cacheName(e, names[e]);
+        }
+
+        for (int v = 0; v < viewers; v++) {
+            for (int e = (v & 3); e < entities; e += 4) {
+                byte color = (byte) (e % GlowColor.values().length);
+                store.put(viewerIds[v], e, color);
+                store.putTeam(viewerIds[v], e, color);
+            }
+        }
+
+        for (int i = 0; i < QUERIES; i++) {
+            int entity = random.nextInt(entities);
+            queryViewers[i] = viewerIds[random.nextInt(viewers)];
+            queryEntities[i] = entity;
+            // 一半查询使用不存在的名称
+            queryNames[i] = random.nextBoolean() ? names[entity] : "missing-" + i;
+        }
+    }
+
+    @Benchmark
+    public boolean hasGlowForViewer() {
+        int i = cursor++ & QUERY_MASK;
+        return store.contains(queryViewers[i], queryEntities[i]);
+    }
+
+    @Benchmark
+    public boolean hasGlowForAnyViewer() {
+        int i = cursor++ & QUERY_MASK;
+        return store.isGlowedName(queryNames[i]);
+    }
+}
@@ -0,0 +1,71 @@
+package com.lootmatrix.glow;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.network.protocol.game.ClientboundSetEntityDataPacket;
+import net.minecraft.network.syncher.SynchedEntityData;
+import net.minecraft.server.Bootstrap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sendGlowingPacket 中的数据包构建
+ *
+ * 每次调用为 entities 个实体各构建一个发光 flags 包，对比复用预先构建的数据列表（当前实现）
+ * 与每个包新建数据列表；配合 -prof gc 查看每次调用的分配量（gc.alloc.rate.norm）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlowPacketBenchmark {
+
+    private static final byte GLOWING_FLAG = 0x40;
+
+    @Param({"10", "1000", "10000"})
+    public int entities;
+
+    private byte[] flags;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // 数据包和实体数据序列化器依赖原版注册表
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+
+        flags = new byte[entities];
+        for (int i = 0; i < entities; i++) {
+            flags[i] = (byte) (i & 0x3F);
+        }
+    }
+
+    @Benchmark
+    public void sharedFlagsValues(Blackhole blackhole) {
+        for (int i = 0; i < entities; i++) {
+            blackhole.consume(GlowPackets.flagsPacket(i, (byte) (flags[i] | GLOWING_FLAG)));
+        }
+    }
+
+    @Benchmark
+    public void freshFlagsValues(Blackhole blackhole) {
+        for (int i = 0; i < entities; i++) {
+            blackhole.consume(new ClientboundSetEntityDataPacket(i,
+                    List.of(SynchedEntityData.DataValue.create(GlowPackets.SHARED_FLAGS, (byte) (flags[i] | GLOWING_FLAG)))));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.lootmatrix.glow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GlowTeamPacketMixin.onSend 对真实队伍成员变更包的判断
+ *
+ * 与 Mixin 一样先检查是否有发光实体，再调用共用的 GlowPackets.filterTeamMembers
+ * 名称索引中有 entities / 4 个实体，队伍包的成员中约 1/8 是发光实体
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlowTeamFilterBenchmark {
+
+    private static final int PACKETS = 256;
+
+    @Param({"10", "1000", "10000"})
+    public int entities;
+
+    @Param({"1", "8", "64"})
+    public int members;
+
+    private GlowStateStore store;
+    private final List<List<String>> packets = new ArrayList<>(PACKETS);
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        store = new GlowStateStore();
+        SplittableRandom random = new SplittableRandom(42);
+        UUID viewerId = new UUID(random.nextLong(), random.nextLong());
+
+        String[] names = new String[entities];
+        for (int e = 0; e < entities; e++) {
+            names[e] = new UUID(random.nextLong(), random.nextLong()).toString();
+            store.cacheName(e, names[e]);
+            if ((e & 3) == 0) {
+                store.putTeam(viewerId, e, (byte) 0);
+            }
+        }
+
+        for (int p = 0; p < PACKETS; p++) {
+            List<String> players = new ArrayList<>(members);
+            for (int m = 0; m < members; m++) {
+                // 从全部实体中抽取时约 1/4 在名称索引中，再混入一半的非实体名称
+                players.add(random.nextBoolean() ? names[random.nextInt(entities)] : "player" + random.nextInt(1000));
+            }
+            packets.add(players);
+        }
+    }
+
+    @Benchmark
+    public int filterTeamPacket() {
+        List<String> players = packets.get(cursor++ & (PACKETS - 1));
+
+        if (!store.hasGlowedNames()) {
+            return 0;
+        }
+        return GlowPackets.filterTeamMembers(store, "real_team", players);
+    }
+}
@@ -4,6 +4,8 @@ import com.lootmatrix.command.CalculateDistance;
 import com.lootmatrix.command.CommandRegister;
 import com.lootmatrix.display.DisplayVisibilityEventHandler;
 import com.lootmatrix.glow.GlowEventHandler;
+import com.lootmatrix.loadtest.LoadTestHarness;
+import com.lootmatrix.util.DpeMetricsExporter;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import net.fabricmc.api.ModInitializer;
 
@@ -41,6 +43,14 @@ public class DatapackExtension implements ModInitializer {
         // 注册展示实体可见性事件处理器
         DisplayVisibilityEventHandler.register();
 
+        // 注册指标导出
+        DpeMetricsExporter.register();
+
+        // 注册负载测试（通过 /dpe_loadtest 或 -Ddpe.loadtest 启动），只在开发环境或设置了 -Ddpe.loadtest 时注册
+        if (LoadTestHarness.isEnabled()) {
+            LoadTestHarness.register();
+        }
+
         // LOGGER.info("Hello Fabric world!");
 	}
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.lootmatrix.command;
 
+import com.lootmatrix.util.DpeEvents;
+import com.lootmatrix.util.DpeMetrics;
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.arguments.DoubleArgumentType;
 import com.mojang.brigadier.context.CommandContext;
@@ -75,6 +77,16 @@ public class CanSeeCommand {
 
     private static int canSee(CommandContext<CommandSourceStack> ctx, double fovDegrees, boolean strict)
             throws CommandSyntaxException {
+        long start = DpeMetrics.start();
+        try {
+            return evaluate(ctx, fovDegrees, strict);
+        } finally {
+            DpeMetrics.record(DpeMetrics.Timer.CANSEE, start);
+        }
+    }
+
+    private static int evaluate(CommandContext<CommandSourceStack> ctx, double fovDegrees, boolean strict)
+            throws CommandSyntaxException {
         CommandSourceStack source = ctx.getSource();
         Entity viewer = EntityArgument.getEntity(ctx, "viewer");
         Collection<? extends Entity> targets = EntityArgument.getEntities(ctx, "targets");
@@ -100,12 +112,22 @@ public class CanSeeCommand {
                 continue;
             }
 
+            DpeMetrics.increment(DpeMetrics.Counter.CANSEE_EVALUATIONS);
+            DpeEvents.CanSee event = new DpeEvents.CanSee();
+            event.begin();
             boolean canSeeTarget;
             if (strict) {
                 canSeeTarget = canSeeStrict(eyePos, lookDir, target, cosHalfFov);
             } else {
                 canSeeTarget = canSeeNormal(viewer, eyePos, lookDir, target, cosHalfFov);
             }
+            if (event.shouldCommit()) {
+                event.viewerEntityId = viewer.getId();
+                event.targetEntityId = target.getId();
+                event.strict = strict;
+                event.visible = canSeeTarget;
+                event.commit();
+            }
 
             if (canSeeTarget) {
                 visibleCount++;
@@ -140,12 +162,24 @@ public class CanSeeCommand {
             return false;
         }
 
-        // 获取目标实体的碰撞箱
-        AABB targetBox = target.getBoundingBox();
-
         // 检查碰撞箱的多个点是否在视野内
-        // 检查中心点和8个角点
-        Vec3[] checkPoints = {
+        for (Vec3 point : checkPoints(target.getBoundingBox())) {
+            if (isPointInFov(eyePos, lookDir, point, cosHalfFov)) {
+                // 检查是否有方块遮挡（可选的射线检测）
+                if (hasLineOfSight(viewer, eyePos, point)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 碰撞箱上需要检查的点：中心点和8个角点
+     */
+    static Vec3[] checkPoints(AABB targetBox) {
+        return new Vec3[] {
             targetBox.getCenter(),
             new Vec3(targetBox.minX, targetBox.minY, targetBox.minZ),
             new Vec3(targetBox.maxX, targetBox.minY, targetBox.minZ),
@@ -156,17 +190,6 @@ public class CanSeeCommand {
             new Vec3(targetBox.minX, targetBox.maxY, targetBox.maxZ),
             new Vec3(targetBox.maxX, targetBox.maxY, targetBox.maxZ)
         };
-
-        for (Vec3 point : checkPoints) {
-            if (isPointInFov(eyePos, lookDir, point, cosHalfFov)) {
-                // 检查是否有方块遮挡（可选的射线检测）
-                if (hasLineOfSight(viewer, eyePos, point)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
     }
 
     /**
@@ -188,7 +211,7 @@ public class CanSeeCommand {
     /**
      * 检查一个点是否在视野角度内
      */
-    private static boolean isPointInFov(Vec3 eyePos, Vec3 lookDir, Vec3 targetPoint, double cosHalfFov) {
+    static boolean isPointInFov(Vec3 eyePos, Vec3 lookDir, Vec3 targetPoint, double cosHalfFov) {
         // 计算从眼睛到目标点的方向向量
         Vec3 toTarget = targetPoint.subtract(eyePos).normalize();
 
@@ -205,6 +228,7 @@ public class CanSeeCommand {
     private static boolean hasLineOfSight(Entity viewer, Vec3 eyePos, Vec3 targetPoint) {
         // 使用射线检测判断是否有方块遮挡
         // ClipContext 用于射线追踪
+        DpeMetrics.increment(DpeMetrics.Counter.CANSEE_RAYCASTS);
         var level = viewer.level();
         var clipResult = level.clip(new net.minecraft.world.level.ClipContext(
             eyePos,
@@ -1,5 +1,7 @@
 package com.lootmatrix.command;
 
+import com.lootmatrix.loadtest.LoadTestHarness;
+
 public class CommandRegister {
 
     public static void register() {
@@ -7,5 +9,9 @@ public class CommandRegister {
         GlowCommand.register();
         DisplayVisibilityCommand.register();
         CanSeeCommand.register();
+        StatsCommand.register();
+        if (LoadTestHarness.isEnabled()) {
+            LoadTestCommand.register();
+        }
     }
 }
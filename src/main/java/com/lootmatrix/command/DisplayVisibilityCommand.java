@@ -2,35 +2,55 @@ package com.lootmatrix.command;
 
 import com.lootmatrix.display.DisplayVisibilityManager;
 import com.mojang.brigadier.Command;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
+import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.commands.arguments.EntityArgument;
+import net.minecraft.commands.arguments.TeamArgument;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.server.permissions.Permissions;
-import net.minecraft.world.entity.Display;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.player.Player;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
 /**
- * 展示实体可见性控制指令
+ * 实体可见性控制指令
  *
  * 用法：
- * /dpe_display show <展示实体> <玩家...>     - 设置展示实体只对指定玩家可见
- * /dpe_display add <展示实体> <玩家...>      - 添加可以看到展示实体的玩家
- * /dpe_display remove <展示实体> <玩家...>   - 移除可以看到展示实体的玩家
- * /dpe_display hide <展示实体>               - 隐藏展示实体（对所有人不可见）
- * /dpe_display clear <展示实体>              - 清除可见性限制（对所有人可见）
- * /dpe_display list <展示实体>               - 列出可以看到展示实体的玩家
+ * /dpe_display show <实体> <玩家...>         - 设置实体只对指定玩家可见
+ * /dpe_display add <实体> <玩家...>          - 添加可以看到实体的玩家
+ * /dpe_display remove <实体> <玩家...>       - 移除可以看到实体的玩家
+ * /dpe_display hide <实体>                   - 隐藏实体（对所有人不可见）
+ * /dpe_display clear <实体>                  - 清除可见性限制（对所有人可见）
+ * /dpe_display list <实体>                   - 列出可以看到实体的玩家
+ * /dpe_display bind <实体...> <组>           - 让实体引用观察者组，组成员即可见玩家
+ * /dpe_display radius <实体...> <距离>       - 设置可见距离，只有水平距离在范围内的可见玩家能看到（0 表示取消）
+ * /dpe_display group create <组> explicit    - 创建显式成员的观察者组
+ * /dpe_display group create <组> team <队伍> - 创建由记分板队伍在线成员组成的观察者组
+ * /dpe_display group create <组> tag <标签>  - 创建由带标签的在线玩家组成的观察者组
+ * /dpe_display group remove <组>             - 删除观察者组，引用它的实体保留当前成员作为可见玩家
+ * /dpe_display group join <组> <玩家...>     - 将玩家加入显式观察者组
+ * /dpe_display group leave <组> <玩家...>    - 将玩家移出显式观察者组
+ * /dpe_display group list                    - 列出所有观察者组
  */
 public class DisplayVisibilityCommand {
 
+    // 观察者组名称建议提供器
+    private static final SuggestionProvider<CommandSourceStack> GROUP_SUGGESTIONS = (context, builder) ->
+            SharedSuggestionProvider.suggest(DisplayVisibilityManager.getGroupNames(), builder);
+
     private DisplayVisibilityCommand() {}
 
     public static void register() {
@@ -38,56 +58,100 @@ public class DisplayVisibilityCommand {
             dispatcher.register(Commands.literal("dpe_display")
                 .requires(source -> source.permissions().hasPermission(Permissions.COMMANDS_GAMEMASTER))
 
-                // /dpe_display show <display> <players>
+                // /dpe_display show <entity> <players>
                 .then(Commands.literal("show")
-                    .then(Commands.argument("display", EntityArgument.entity())
+                    .then(Commands.argument("entity", EntityArgument.entity())
                         .then(Commands.argument("players", EntityArgument.players())
                             .executes(DisplayVisibilityCommand::showToPlayers))))
 
-                // /dpe_display add <display> <players>
+                // /dpe_display add <entity> <players>
                 .then(Commands.literal("add")
-                    .then(Commands.argument("display", EntityArgument.entity())
+                    .then(Commands.argument("entity", EntityArgument.entity())
                         .then(Commands.argument("players", EntityArgument.players())
                             .executes(DisplayVisibilityCommand::addPlayers))))
 
-                // /dpe_display remove <display> <players>
+                // /dpe_display remove <entity> <players>
                 .then(Commands.literal("remove")
-                    .then(Commands.argument("display", EntityArgument.entity())
+                    .then(Commands.argument("entity", EntityArgument.entity())
                         .then(Commands.argument("players", EntityArgument.players())
                             .executes(DisplayVisibilityCommand::removePlayers))))
 
-                // /dpe_display hide <display>
+                // /dpe_display hide <entity>
                 .then(Commands.literal("hide")
-                    .then(Commands.argument("display", EntityArgument.entity())
+                    .then(Commands.argument("entity", EntityArgument.entity())
                         .executes(DisplayVisibilityCommand::hideFromAll)))
 
-                // /dpe_display clear <display>
+                // /dpe_display clear <entity>
                 .then(Commands.literal("clear")
-                    .then(Commands.argument("display", EntityArgument.entity())
+                    .then(Commands.argument("entity", EntityArgument.entity())
                         .executes(DisplayVisibilityCommand::clearVisibility)))
 
-                // /dpe_display list <display>
+                // /dpe_display list <entity>
                 .then(Commands.literal("list")
-                    .then(Commands.argument("display", EntityArgument.entity())
+                    .then(Commands.argument("entity", EntityArgument.entity())
                         .executes(DisplayVisibilityCommand::listViewers)))
+
+                // /dpe_display bind <entities> <group>
+                .then(Commands.literal("bind")
+                    .then(Commands.argument("entities", EntityArgument.entities())
+                        .then(Commands.argument("group", StringArgumentType.word())
+                            .suggests(GROUP_SUGGESTIONS)
+                            .executes(DisplayVisibilityCommand::bindGroup))))
+
+                // /dpe_display radius <entities> <radius>
+                .then(Commands.literal("radius")
+                    .then(Commands.argument("entities", EntityArgument.entities())
+                        .then(Commands.argument("radius", DoubleArgumentType.doubleArg(0, 1024))
+                            .executes(DisplayVisibilityCommand::setViewRadius))))
+
+                // /dpe_display group ...
+                .then(Commands.literal("group")
+                    .then(Commands.literal("create")
+                        .then(Commands.argument("group", StringArgumentType.word())
+                            .then(Commands.literal("explicit")
+                                .executes(context -> createGroup(context, "explicit", null)))
+                            .then(Commands.literal("team")
+                                .then(Commands.argument("team", TeamArgument.team())
+                                    .executes(context -> createGroup(context, "team",
+                                        TeamArgument.getTeam(context, "team").getName()))))
+                            .then(Commands.literal("tag")
+                                .then(Commands.argument("tag", StringArgumentType.word())
+                                    .executes(context -> createGroup(context, "tag",
+                                        StringArgumentType.getString(context, "tag")))))))
+                    .then(Commands.literal("remove")
+                        .then(Commands.argument("group", StringArgumentType.word())
+                            .suggests(GROUP_SUGGESTIONS)
+                            .executes(DisplayVisibilityCommand::removeGroup)))
+                    .then(Commands.literal("join")
+                        .then(Commands.argument("group", StringArgumentType.word())
+                            .suggests(GROUP_SUGGESTIONS)
+                            .then(Commands.argument("players", EntityArgument.players())
+                                .executes(context -> changeMembers(context, true)))))
+                    .then(Commands.literal("leave")
+                        .then(Commands.argument("group", StringArgumentType.word())
+                            .suggests(GROUP_SUGGESTIONS)
+                            .then(Commands.argument("players", EntityArgument.players())
+                                .executes(context -> changeMembers(context, false)))))
+                    .then(Commands.literal("list")
+                        .executes(DisplayVisibilityCommand::listGroups)))
             ));
     }
 
     private static int showToPlayers(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
-        Entity entity = EntityArgument.getEntity(context, "display");
+        Entity entity = EntityArgument.getEntity(context, "entity");
         Collection<ServerPlayer> players = EntityArgument.getPlayers(context, "players");
 
-        if (!(entity instanceof Display display)) {
-            source.sendFailure(Component.literal("目标实体不是展示实体（Display）"));
+        if (entity instanceof Player) {
+            source.sendFailure(Component.literal("不能限制玩家的可见性"));
             return 0;
         }
 
-        DisplayVisibilityManager.setVisibleTo(display, players);
+        DisplayVisibilityManager.setVisibleTo(entity, players);
 
         int count = players.size();
         source.sendSuccess(() -> Component.literal(
-            String.format("已设置展示实体只对 %d 名玩家可见", count)
+            String.format("已设置实体只对 %d 名玩家可见", count)
         ), true);
 
         return count;
@@ -95,23 +159,23 @@ public class DisplayVisibilityCommand {
 
     private static int addPlayers(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
-        Entity entity = EntityArgument.getEntity(context, "display");
+        Entity entity = EntityArgument.getEntity(context, "entity");
         Collection<ServerPlayer> players = EntityArgument.getPlayers(context, "players");
 
-        if (!(entity instanceof Display display)) {
-            source.sendFailure(Component.literal("目标实体不是展示实体（Display）"));
+        if (entity instanceof Player) {
+            source.sendFailure(Component.literal("不能限制玩家的可见性"));
             return 0;
         }
 
         int count = 0;
         for (ServerPlayer player : players) {
-            DisplayVisibilityManager.addViewer(display, player);
+            DisplayVisibilityManager.addViewer(entity, player);
             count++;
         }
 
         final int finalCount = count;
         source.sendSuccess(() -> Component.literal(
-            String.format("已添加 %d 名玩家可以看到展示实体", finalCount)
+            String.format("已添加 %d 名玩家可以看到实体", finalCount)
         ), true);
 
         return count;
@@ -119,23 +183,23 @@ public class DisplayVisibilityCommand {
 
     private static int removePlayers(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
-        Entity entity = EntityArgument.getEntity(context, "display");
+        Entity entity = EntityArgument.getEntity(context, "entity");
         Collection<ServerPlayer> players = EntityArgument.getPlayers(context, "players");
 
-        if (!(entity instanceof Display display)) {
-            source.sendFailure(Component.literal("目标实体不是展示实体（Display）"));
+        if (entity instanceof Player) {
+            source.sendFailure(Component.literal("不能限制玩家的可见性"));
             return 0;
         }
 
         int count = 0;
         for (ServerPlayer player : players) {
-            DisplayVisibilityManager.removeViewer(display, player);
+            DisplayVisibilityManager.removeViewer(entity, player);
             count++;
         }
 
         final int finalCount = count;
         source.sendSuccess(() -> Component.literal(
-            String.format("已移除 %d 名玩家对展示实体的可见性", finalCount)
+            String.format("已移除 %d 名玩家对实体的可见性", finalCount)
         ), true);
 
         return count;
@@ -143,58 +207,58 @@ public class DisplayVisibilityCommand {
 
     private static int hideFromAll(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
-        Entity entity = EntityArgument.getEntity(context, "display");
+        Entity entity = EntityArgument.getEntity(context, "entity");
 
-        if (!(entity instanceof Display display)) {
-            source.sendFailure(Component.literal("目标实体不是展示实体（Display）"));
+        if (entity instanceof Player) {
+            source.sendFailure(Component.literal("不能限制玩家的可见性"));
             return 0;
         }
 
-        DisplayVisibilityManager.hideFromAll(display);
+        DisplayVisibilityManager.hideFromAll(entity);
 
-        source.sendSuccess(() -> Component.literal("已隐藏展示实体（对所有人不可见）"), true);
+        source.sendSuccess(() -> Component.literal("已隐藏实体（对所有人不可见）"), true);
 
         return Command.SINGLE_SUCCESS;
     }
 
     private static int clearVisibility(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
-        Entity entity = EntityArgument.getEntity(context, "display");
+        Entity entity = EntityArgument.getEntity(context, "entity");
 
-        if (!(entity instanceof Display display)) {
-            source.sendFailure(Component.literal("目标实体不是展示实体（Display）"));
+        if (entity instanceof Player) {
+            source.sendFailure(Component.literal("不能限制玩家的可见性"));
             return 0;
         }
 
-        DisplayVisibilityManager.clearVisibility(display);
+        DisplayVisibilityManager.clearVisibility(entity);
 
-        source.sendSuccess(() -> Component.literal("已清除展示实体的可见性限制（对所有人可见）"), true);
+        source.sendSuccess(() -> Component.literal("已清除实体的可见性限制（对所有人可见）"), true);
 
         return Command.SINGLE_SUCCESS;
     }
 
     private static int listViewers(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
-        Entity entity = EntityArgument.getEntity(context, "display");
+        Entity entity = EntityArgument.getEntity(context, "entity");
 
-        if (!(entity instanceof Display display)) {
-            source.sendFailure(Component.literal("目标实体不是展示实体（Display）"));
+        if (entity instanceof Player) {
+            source.sendFailure(Component.literal("不能限制玩家的可见性"));
             return 0;
         }
 
-        Set<UUID> viewers = DisplayVisibilityManager.getViewers(display);
+        Set<UUID> viewers = DisplayVisibilityManager.getViewers(entity);
 
         if (viewers == null) {
-            source.sendSuccess(() -> Component.literal("该展示实体对所有人可见（无限制）"), false);
+            source.sendSuccess(() -> Component.literal("该实体对所有人可见（无限制）"), false);
             return 0;
         }
 
         if (viewers.isEmpty()) {
-            source.sendSuccess(() -> Component.literal("该展示实体对所有人隐藏"), false);
+            source.sendSuccess(() -> Component.literal("该实体对所有人隐藏"), false);
             return 0;
         }
 
-        StringBuilder sb = new StringBuilder("可以看到该展示实体的玩家：\n");
+        StringBuilder sb = new StringBuilder("可以看到该实体的玩家：\n");
         for (UUID uuid : viewers) {
             ServerPlayer player = source.getServer().getPlayerList().getPlayer(uuid);
             if (player != null) {
@@ -209,4 +273,129 @@ public class DisplayVisibilityCommand {
 
         return viewers.size();
     }
+
+    private static int bindGroup(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        CommandSourceStack source = context.getSource();
+        Collection<? extends Entity> entities = EntityArgument.getEntities(context, "entities");
+        String name = StringArgumentType.getString(context, "group");
+
+        List<Entity> targets = restrictable(entities);
+        if (targets.isEmpty()) {
+            source.sendFailure(Component.literal("目标实体中没有可以限制可见性的实体（玩家除外）"));
+            return 0;
+        }
+
+        int count = DisplayVisibilityManager.bindGroup(targets, name);
+        if (count < 0) {
+            source.sendFailure(Component.literal("观察者组不存在: " + name));
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.literal(
+            String.format("已让 %d 个实体引用观察者组 %s", count, name)
+        ), true);
+
+        return count;
+    }
+
+    private static int setViewRadius(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        CommandSourceStack source = context.getSource();
+        Collection<? extends Entity> entities = EntityArgument.getEntities(context, "entities");
+        double radius = DoubleArgumentType.getDouble(context, "radius");
+
+        List<Entity> targets = restrictable(entities);
+        if (targets.isEmpty()) {
+            source.sendFailure(Component.literal("目标实体中没有可以限制可见性的实体（玩家除外）"));
+            return 0;
+        }
+
+        int count = DisplayVisibilityManager.setViewRadius(targets, radius);
+        source.sendSuccess(() -> Component.literal(radius > 0
+            ? String.format("已设置 %d 个实体的可见距离为 %.1f 格", count, radius)
+            : String.format("已取消 %d 个实体的可见距离", count)
+        ), true);
+
+        return count;
+    }
+
+    private static int createGroup(CommandContext<CommandSourceStack> context, String kind, String value) {
+        CommandSourceStack source = context.getSource();
+        String name = StringArgumentType.getString(context, "group");
+
+        if (!DisplayVisibilityManager.createGroup(source.getServer(), name, kind, value)) {
+            source.sendFailure(Component.literal("观察者组已存在: " + name));
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.literal("已创建观察者组 " + name), true);
+
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int removeGroup(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        String name = StringArgumentType.getString(context, "group");
+
+        if (!DisplayVisibilityManager.removeGroup(name)) {
+            source.sendFailure(Component.literal("观察者组不存在: " + name));
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.literal("已删除观察者组 " + name), true);
+
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int changeMembers(CommandContext<CommandSourceStack> context, boolean join) throws CommandSyntaxException {
+        CommandSourceStack source = context.getSource();
+        String name = StringArgumentType.getString(context, "group");
+        Collection<ServerPlayer> players = EntityArgument.getPlayers(context, "players");
+
+        int count = join
+            ? DisplayVisibilityManager.joinGroup(name, players)
+            : DisplayVisibilityManager.leaveGroup(name, players);
+        if (count < 0) {
+            source.sendFailure(Component.literal("观察者组不存在或不是显式组: " + name));
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.literal(
+            String.format(join ? "已将 %d 名玩家加入观察者组 %s" : "已将 %d 名玩家移出观察者组 %s", count, name)
+        ), true);
+
+        return count;
+    }
+
+    private static int listGroups(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        List<String> groups = DisplayVisibilityManager.describeGroups();
+
+        if (groups.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("没有观察者组"), false);
+            return 0;
+        }
+
+        StringBuilder sb = new StringBuilder("观察者组：\n");
+        for (String group : groups) {
+            sb.append("- ").append(group).append("\n");
+        }
+
+        final String message = sb.toString();
+        source.sendSuccess(() -> Component.literal(message), false);
+
+        return groups.size();
+    }
+
+    /**
+     * 过滤出可以限制可见性的实体（玩家除外）
+     */
+    private static List<Entity> restrictable(Collection<? extends Entity> entities) {
+        List<Entity> targets = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            if (!(entity instanceof Player)) {
+                targets.add(entity);
+            }
+        }
+        return targets;
+    }
 }
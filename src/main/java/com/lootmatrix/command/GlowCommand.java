@@ -1,8 +1,14 @@
 package com.lootmatrix.command;
 
+import com.lootmatrix.glow.GlowAnimation;
 import com.lootmatrix.glow.GlowColor;
+import com.lootmatrix.glow.GlowEventHandler;
 import com.lootmatrix.glow.GlowManager;
+import com.lootmatrix.glow.GlowResyncMode;
+import com.lootmatrix.glow.GlowRule;
 import com.mojang.brigadier.Command;
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
@@ -12,24 +18,37 @@ import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.commands.arguments.EntityArgument;
+import net.minecraft.commands.arguments.UuidArgument;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.server.permissions.Permissions;
 import net.minecraft.world.entity.Entity;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
  * 发光效果指令
  *
  * 用法：
- * /dpe_glow add <目标实体> <颜色> [观察者玩家]  - 为观察者添加对目标的发光效果
- * /dpe_glow remove <目标实体> [观察者玩家]     - 移除观察者对目标的发光效果
+ * /dpe_glow add <目标实体...> <颜色> [观察者玩家...] [for <tick数>]  - 为所有观察者添加对所有目标的发光效果（批量），可指定持续时间
+ * /dpe_glow remove <目标实体...> [观察者玩家...]     - 移除所有观察者对所有目标的发光效果（批量）
+ * /dpe_glow pending add <UUID> <颜色> [观察者玩家...]  - 按UUID添加发光效果，目标尚未加载时在其进入观察者视野时生效
+ * /dpe_glow pending remove <UUID> [观察者玩家...]      - 按UUID移除发光效果，包括尚未生效的记录
+ * /dpe_glow animate <目标实体...> <观察者玩家...> <周期> <颜色...>  - 添加按周期循环切换颜色的动画发光效果
  * /dpe_glow clear [观察者玩家]                  - 清除观察者看到的所有发光效果
  * /dpe_glow clearall <目标实体>                 - 清除所有玩家对目标的发光效果
  * /dpe_glow init                                - 初始化发光队伍
+ * /dpe_glow resync <full|incremental> [间隔]     - 设置重新同步模式及增量模式下的保险刷新间隔（tick，0 关闭）
+ * /dpe_glow rewrite <true|false>                - 是否在原版实体数据包中直接并入发光位（否则补发发光包）
+ * /dpe_glow rule add <名称> <颜色> <team|tag> <观察者条件值> <team|tag|type> <目标条件值>  - 添加或替换发光规则
+ * /dpe_glow rule remove <名称>                   - 移除发光规则
+ * /dpe_glow rule list                            - 列出所有发光规则
+ * /dpe_glow rule clear                           - 移除所有发光规则
  */
 public class GlowCommand {
 
@@ -45,6 +64,31 @@ public class GlowCommand {
         );
     };
 
+    // 重新同步模式建议提供器
+    private static final SuggestionProvider<CommandSourceStack> RESYNC_MODE_SUGGESTIONS = (context, builder) ->
+            SharedSuggestionProvider.suggest(
+                    Arrays.stream(GlowResyncMode.values())
+                            .map(m -> m.name().toLowerCase())
+                            .collect(Collectors.toList()),
+                    builder
+            );
+
+    // 规则条件类型建议提供器
+    private static final SuggestionProvider<CommandSourceStack> VIEWER_KIND_SUGGESTIONS = (context, builder) ->
+            SharedSuggestionProvider.suggest(List.of("team", "tag"), builder);
+
+    private static final SuggestionProvider<CommandSourceStack> TARGET_KIND_SUGGESTIONS = (context, builder) ->
+            SharedSuggestionProvider.suggest(List.of("team", "tag", "type"), builder);
+
+    // 规则名称建议提供器
+    private static final SuggestionProvider<CommandSourceStack> RULE_SUGGESTIONS = (context, builder) ->
+            SharedSuggestionProvider.suggest(
+                    GlowManager.getRules().stream()
+                            .map(GlowRule::name)
+                            .collect(Collectors.toList()),
+                    builder
+            );
+
     public static void register() {
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
             dispatcher.register(Commands.literal("dpe_glow")
@@ -54,24 +98,55 @@ public class GlowCommand {
                     .then(Commands.literal("init")
                             .executes(GlowCommand::initTeams))
 
-                    // /dpe_glow add <target> <color> [viewer]
+                    // /dpe_glow add <targets> <color> [viewer]
                     .then(Commands.literal("add")
-                            .then(Commands.argument("target", EntityArgument.entity())
+                            .then(Commands.argument("targets", EntityArgument.entities())
                                     .then(Commands.argument("color", StringArgumentType.word())
                                             .suggests(COLOR_SUGGESTIONS)
                                             // 不指定观察者，使用执行者
-                                            .executes(GlowCommand::addGlowSelf)
+                                            .executes(ctx -> addGlowSelf(ctx, 0))
+                                            .then(Commands.literal("for")
+                                                    .then(Commands.argument("ticks", IntegerArgumentType.integer(1))
+                                                            .executes(ctx -> addGlowSelf(ctx, IntegerArgumentType.getInteger(ctx, "ticks")))))
                                             // 指定观察者
                                             .then(Commands.argument("viewer", EntityArgument.players())
-                                                    .executes(GlowCommand::addGlow)))))
+                                                    .executes(ctx -> addGlow(ctx, 0))
+                                                    .then(Commands.literal("for")
+                                                            .then(Commands.argument("ticks", IntegerArgumentType.integer(1))
+                                                                    .executes(ctx -> addGlow(ctx, IntegerArgumentType.getInteger(ctx, "ticks")))))))))
+
+                    // /dpe_glow animate <targets> <viewer> <period> <colors>
+                    .then(Commands.literal("animate")
+                            .then(Commands.argument("targets", EntityArgument.entities())
+                                    .then(Commands.argument("viewer", EntityArgument.players())
+                                            .then(Commands.argument("period", IntegerArgumentType.integer(1))
+                                                    // 以空格或逗号分隔的颜色序列
+                                                    .then(Commands.argument("colors", StringArgumentType.greedyString())
+                                                            .suggests(COLOR_SUGGESTIONS)
+                                                            .executes(GlowCommand::addAnimatedGlow))))))
 
-                    // /dpe_glow remove <target> [viewer]
+                    // /dpe_glow remove <targets> [viewer]
                     .then(Commands.literal("remove")
-                            .then(Commands.argument("target", EntityArgument.entity())
+                            .then(Commands.argument("targets", EntityArgument.entities())
                                     .executes(GlowCommand::removeGlowSelf)
                                     .then(Commands.argument("viewer", EntityArgument.players())
                                             .executes(GlowCommand::removeGlow))))
 
+                    // /dpe_glow pending <add|remove> <uuid> ...
+                    .then(Commands.literal("pending")
+                            .then(Commands.literal("add")
+                                    .then(Commands.argument("uuid", UuidArgument.uuid())
+                                            .then(Commands.argument("color", StringArgumentType.word())
+                                                    .suggests(COLOR_SUGGESTIONS)
+                                                    .executes(ctx -> addPendingGlow(ctx, List.of(ctx.getSource().getPlayerOrException())))
+                                                    .then(Commands.argument("viewer", EntityArgument.players())
+                                                            .executes(ctx -> addPendingGlow(ctx, EntityArgument.getPlayers(ctx, "viewer")))))))
+                            .then(Commands.literal("remove")
+                                    .then(Commands.argument("uuid", UuidArgument.uuid())
+                                            .executes(ctx -> removePendingGlow(ctx, List.of(ctx.getSource().getPlayerOrException())))
+                                            .then(Commands.argument("viewer", EntityArgument.players())
+                                                    .executes(ctx -> removePendingGlow(ctx, EntityArgument.getPlayers(ctx, "viewer")))))))
+
                     // /dpe_glow clear [viewer]
                     .then(Commands.literal("clear")
                             .executes(GlowCommand::clearGlowSelf)
@@ -82,6 +157,42 @@ public class GlowCommand {
                     .then(Commands.literal("clearall")
                             .then(Commands.argument("target", EntityArgument.entity())
                                     .executes(GlowCommand::clearAllGlowForEntity)))
+
+                    // /dpe_glow resync <mode> [interval]
+                    .then(Commands.literal("resync")
+                            .then(Commands.argument("mode", StringArgumentType.word())
+                                    .suggests(RESYNC_MODE_SUGGESTIONS)
+                                    .executes(ctx -> setResyncMode(ctx, GlowEventHandler.getSafetyRefreshInterval()))
+                                    .then(Commands.argument("interval", IntegerArgumentType.integer(0))
+                                            .executes(ctx -> setResyncMode(ctx, IntegerArgumentType.getInteger(ctx, "interval"))))))
+
+                    // /dpe_glow rewrite <enabled>
+                    .then(Commands.literal("rewrite")
+                            .then(Commands.argument("enabled", BoolArgumentType.bool())
+                                    .executes(GlowCommand::setEntityDataRewrite)))
+
+                    // /dpe_glow rule <add|remove|list|clear>
+                    .then(Commands.literal("rule")
+                            .then(Commands.literal("add")
+                                    .then(Commands.argument("name", StringArgumentType.word())
+                                            .then(Commands.argument("color", StringArgumentType.word())
+                                                    .suggests(COLOR_SUGGESTIONS)
+                                                    .then(Commands.argument("viewerKind", StringArgumentType.word())
+                                                            .suggests(VIEWER_KIND_SUGGESTIONS)
+                                                            .then(Commands.argument("viewerValue", StringArgumentType.string())
+                                                                    .then(Commands.argument("targetKind", StringArgumentType.word())
+                                                                            .suggests(TARGET_KIND_SUGGESTIONS)
+                                                                            // 实体类型ID包含冒号，使用贪婪字符串
+                                                                            .then(Commands.argument("targetValue", StringArgumentType.greedyString())
+                                                                                    .executes(GlowCommand::addRule))))))))
+                            .then(Commands.literal("remove")
+                                    .then(Commands.argument("name", StringArgumentType.word())
+                                            .suggests(RULE_SUGGESTIONS)
+                                            .executes(GlowCommand::removeRule)))
+                            .then(Commands.literal("list")
+                                    .executes(GlowCommand::listRules))
+                            .then(Commands.literal("clear")
+                                    .executes(GlowCommand::clearRules)))
             );
         });
     }
@@ -95,10 +206,10 @@ public class GlowCommand {
         return Command.SINGLE_SUCCESS;
     }
 
-    private static int addGlowSelf(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+    private static int addGlowSelf(CommandContext<CommandSourceStack> context, int ttlTicks) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
         ServerPlayer viewer = source.getPlayerOrException();
-        Entity target = EntityArgument.getEntity(context, "target");
+        Collection<? extends Entity> targets = EntityArgument.getEntities(context, "targets");
         String colorName = StringArgumentType.getString(context, "color");
 
         GlowColor color = parseColor(colorName);
@@ -107,19 +218,20 @@ public class GlowCommand {
             return 0;
         }
 
-        GlowManager.addGlow(viewer, target, color);
+        GlowManager.addGlow(targets, List.of(viewer), color, ttlTicks);
 
+        String targetDesc = describeTargets(targets);
         source.sendSuccess(() -> Component.literal(
-                String.format("已为你添加对 %s 的 %s 发光效果",
-                        target.getName().getString(), color.name().toLowerCase())
+                String.format("已为你添加对 %s 的 %s 发光效果%s",
+                        targetDesc, color.name().toLowerCase(), describeDuration(ttlTicks))
         ), false);
 
-        return Command.SINGLE_SUCCESS;
+        return targets.size();
     }
 
-    private static int addGlow(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+    private static int addGlow(CommandContext<CommandSourceStack> context, int ttlTicks) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
-        Entity target = EntityArgument.getEntity(context, "target");
+        Collection<? extends Entity> targets = EntityArgument.getEntities(context, "targets");
         String colorName = StringArgumentType.getString(context, "color");
         Collection<ServerPlayer> viewers = EntityArgument.getPlayers(context, "viewer");
 
@@ -129,16 +241,47 @@ public class GlowCommand {
             return 0;
         }
 
-        int count = 0;
-        for (ServerPlayer viewer : viewers) {
-            GlowManager.addGlow(viewer, target, color);
-            count++;
+        // 一次性处理 目标 x 观察者 的所有组合
+        int count = GlowManager.addGlow(targets, viewers, color, ttlTicks);
+
+        String targetDesc = describeTargets(targets);
+        int viewerCount = viewers.size();
+        source.sendSuccess(() -> Component.literal(
+                String.format("已为 %d 名玩家添加对 %s 的 %s 发光效果%s",
+                        viewerCount, targetDesc, color.name().toLowerCase(), describeDuration(ttlTicks))
+        ), true);
+
+        return count;
+    }
+
+    private static int addAnimatedGlow(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        CommandSourceStack source = context.getSource();
+        Collection<? extends Entity> targets = EntityArgument.getEntities(context, "targets");
+        Collection<ServerPlayer> viewers = EntityArgument.getPlayers(context, "viewer");
+        int period = IntegerArgumentType.getInteger(context, "period");
+
+        List<GlowColor> colors = new ArrayList<>();
+        for (String colorName : StringArgumentType.getString(context, "colors").split("[\\s,]+")) {
+            if (colorName.isEmpty()) continue;
+            GlowColor color = parseColor(colorName);
+            if (color == null) {
+                source.sendFailure(Component.literal("无效的颜色: " + colorName));
+                return 0;
+            }
+            colors.add(color);
+        }
+        if (colors.isEmpty()) {
+            source.sendFailure(Component.literal("至少需要一种颜色"));
+            return 0;
         }
 
-        final int finalCount = count;
+        int count = GlowManager.addAnimatedGlow(targets, viewers, new GlowAnimation(colors, period), 0);
+
+        String targetDesc = describeTargets(targets);
+        int viewerCount = viewers.size();
         source.sendSuccess(() -> Component.literal(
-                String.format("已为 %d 名玩家添加对 %s 的 %s 发光效果",
-                        finalCount, target.getName().getString(), color.name().toLowerCase())
+                String.format("已为 %d 名玩家添加对 %s 的动画发光效果（%d 种颜色，每 %d tick 切换）",
+                        viewerCount, targetDesc, colors.size(), period)
         ), true);
 
         return count;
@@ -147,37 +290,93 @@ public class GlowCommand {
     private static int removeGlowSelf(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
         ServerPlayer viewer = source.getPlayerOrException();
-        Entity target = EntityArgument.getEntity(context, "target");
+        Collection<? extends Entity> targets = EntityArgument.getEntities(context, "targets");
 
-        GlowManager.removeGlow(viewer, target);
+        int count = GlowManager.removeGlow(targets, List.of(viewer));
 
+        String targetDesc = describeTargets(targets);
+        if (count == 0) {
+            source.sendFailure(Component.literal(String.format("你对 %s 没有发光效果", targetDesc)));
+            return 0;
+        }
         source.sendSuccess(() -> Component.literal(
-                String.format("已移除你对 %s 的发光效果", target.getName().getString())
+                String.format("已移除你对 %s 的发光效果", targetDesc)
         ), false);
 
-        return Command.SINGLE_SUCCESS;
+        return count;
     }
 
     private static int removeGlow(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
-        Entity target = EntityArgument.getEntity(context, "target");
+        Collection<? extends Entity> targets = EntityArgument.getEntities(context, "targets");
         Collection<ServerPlayer> viewers = EntityArgument.getPlayers(context, "viewer");
 
-        int count = 0;
-        for (ServerPlayer viewer : viewers) {
-            GlowManager.removeGlow(viewer, target);
-            count++;
-        }
+        int count = GlowManager.removeGlow(targets, viewers);
 
-        final int finalCount = count;
+        String targetDesc = describeTargets(targets);
+        if (count == 0) {
+            source.sendFailure(Component.literal(String.format("指定的玩家对 %s 没有发光效果", targetDesc)));
+            return 0;
+        }
+        int viewerCount = viewers.size();
         source.sendSuccess(() -> Component.literal(
                 String.format("已为 %d 名玩家移除对 %s 的发光效果",
-                        finalCount, target.getName().getString())
+                        viewerCount, targetDesc)
+        ), true);
+
+        return count;
+    }
+
+    private static int addPendingGlow(CommandContext<CommandSourceStack> context, Collection<ServerPlayer> viewers) {
+        CommandSourceStack source = context.getSource();
+        UUID targetId = UuidArgument.getUuid(context, "uuid");
+        String colorName = StringArgumentType.getString(context, "color");
+
+        GlowColor color = parseColor(colorName);
+        if (color == null) {
+            source.sendFailure(Component.literal("无效的颜色: " + colorName));
+            return 0;
+        }
+
+        int count = GlowManager.addPendingGlow(source.getServer(), targetId, viewers, color);
+
+        int viewerCount = viewers.size();
+        source.sendSuccess(() -> Component.literal(
+                String.format("已为 %d 名玩家添加对 %s 的 %s 发光效果",
+                        viewerCount, targetId, color.name().toLowerCase())
+        ), true);
+
+        return count;
+    }
+
+    private static int removePendingGlow(CommandContext<CommandSourceStack> context, Collection<ServerPlayer> viewers) {
+        CommandSourceStack source = context.getSource();
+        UUID targetId = UuidArgument.getUuid(context, "uuid");
+
+        int count = GlowManager.removePendingGlow(source.getServer(), targetId, viewers);
+
+        int viewerCount = viewers.size();
+        source.sendSuccess(() -> Component.literal(
+                String.format("已为 %d 名玩家移除对 %s 的发光效果", viewerCount, targetId)
         ), true);
 
         return count;
     }
 
+    /**
+     * 单个目标显示名称，多个目标显示数量
+     */
+    private static String describeTargets(Collection<? extends Entity> targets) {
+        if (targets.size() == 1) {
+            return targets.iterator().next().getName().getString();
+        }
+        return targets.size() + " 个实体";
+    }
+
+    private static String describeDuration(int ttlTicks) {
+        return ttlTicks > 0 ? String.format("（持续 %d tick）", ttlTicks) : "";
+    }
+
     private static int clearGlowSelf(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         CommandSourceStack source = context.getSource();
         ServerPlayer viewer = source.getPlayerOrException();
@@ -220,6 +419,127 @@ public class GlowCommand {
         return Command.SINGLE_SUCCESS;
     }
 
+    private static int setResyncMode(CommandContext<CommandSourceStack> context, int interval) {
+        CommandSourceStack source = context.getSource();
+        String modeName = StringArgumentType.getString(context, "mode");
+
+        GlowResyncMode mode = GlowResyncMode.fromName(modeName);
+        if (mode == null) {
+            source.sendFailure(Component.literal("无效的同步模式: " + modeName));
+            return 0;
+        }
+
+        GlowManager.setResyncMode(mode);
+        GlowEventHandler.setSafetyRefreshInterval(interval);
+
+        source.sendSuccess(() -> Component.literal(
+                String.format("发光同步模式已设置为 %s（保险全量刷新间隔: %d tick）",
+                        mode.name().toLowerCase(), GlowEventHandler.getSafetyRefreshInterval())
+        ), true);
+
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int setEntityDataRewrite(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        boolean enabled = BoolArgumentType.getBool(context, "enabled");
+
+        GlowManager.setEntityDataRewrite(enabled);
+
+        source.sendSuccess(() -> Component.literal(
+                enabled ? "已启用实体数据包发光位改写" : "已关闭实体数据包发光位改写（改为补发发光包）"
+        ), true);
+
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int addRule(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        String name = StringArgumentType.getString(context, "name");
+        String colorName = StringArgumentType.getString(context, "color");
+
+        GlowColor color = parseColor(colorName);
+        if (color == null) {
+            source.sendFailure(Component.literal("无效的颜色: " + colorName));
+            return 0;
+        }
+
+        String viewerKindName = StringArgumentType.getString(context, "viewerKind");
+        GlowRule.Kind viewerKind = GlowRule.Kind.fromName(viewerKindName);
+        // 观察者都是玩家，按类型匹配没有意义
+        if (viewerKind == null || viewerKind == GlowRule.Kind.TYPE) {
+            source.sendFailure(Component.literal("无效的观察者条件类型: " + viewerKindName));
+            return 0;
+        }
+
+        String targetKindName = StringArgumentType.getString(context, "targetKind");
+        GlowRule.Kind targetKind = GlowRule.Kind.fromName(targetKindName);
+        if (targetKind == null) {
+            source.sendFailure(Component.literal("无效的目标条件类型: " + targetKindName));
+            return 0;
+        }
+
+        String targetValue = StringArgumentType.getString(context, "targetValue").trim();
+        GlowRule.Selector target = GlowRule.Selector.of(targetKind, targetValue);
+        if (target == null) {
+            source.sendFailure(Component.literal("未知的实体类型: " + targetValue));
+            return 0;
+        }
+
+        GlowRule.Selector viewer = GlowRule.Selector.of(viewerKind, StringArgumentType.getString(context, "viewerValue"));
+        GlowRule rule = new GlowRule(name, viewer, target, color);
+        GlowManager.addRule(source.getServer(), rule);
+
+        source.sendSuccess(() -> Component.literal(
+                String.format("已添加发光规则 %s：%s 看到 %s 发 %s 光",
+                        name, viewer, target, color.name().toLowerCase())
+        ), true);
+
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int removeRule(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        String name = StringArgumentType.getString(context, "name");
+
+        if (!GlowManager.removeRule(source.getServer(), name)) {
+            source.sendFailure(Component.literal("发光规则不存在: " + name));
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.literal("已移除发光规则 " + name), true);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int listRules(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        Collection<GlowRule> rules = GlowManager.getRules();
+
+        if (rules.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("没有发光规则"), false);
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.literal(String.format("共 %d 条发光规则（后添加的优先）：", rules.size())), false);
+        for (GlowRule rule : rules) {
+            source.sendSuccess(() -> Component.literal(
+                    String.format("- %s：%s 看到 %s 发 %s 光",
+                            rule.name(), rule.viewer(), rule.target(), rule.color().name().toLowerCase())
+            ), false);
+        }
+
+        return rules.size();
+    }
+
+    private static int clearRules(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+
+        GlowManager.clearRules(source.getServer());
+
+        source.sendSuccess(() -> Component.literal("已移除所有发光规则"), true);
+        return Command.SINGLE_SUCCESS;
+    }
+
     private static GlowColor parseColor(String name) {
         try {
             return GlowColor.valueOf(name.toUpperCase());
@@ -0,0 +1,70 @@
+package com.lootmatrix.command;
+
+import com.lootmatrix.loadtest.LoadTestHarness;
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.permissions.Permissions;
+
+import java.util.List;
+
+/**
+ * 负载测试指令
+ *
+ * 用法：
+ * /dpe_loadtest start <players> <displays> <ticks>   - 连接假玩家、生成展示实体并运行随机命令，结束后报告 MSPT、数据包和内存
+ * /dpe_loadtest stop                                  - 中止正在运行的负载测试并清理
+ *
+ * 会在世界中生成并最后删除带 dpe_load 标签的实体，不要在正式服务器上使用
+ * 只在开发环境或设置了 -Ddpe.loadtest 时注册
+ */
+public class LoadTestCommand {
+
+    private LoadTestCommand() {}
+
+    public static void register() {
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) ->
+            dispatcher.register(Commands.literal("dpe_loadtest")
+                .requires(source -> source.permissions().hasPermission(Permissions.COMMANDS_GAMEMASTER))
+
+                // /dpe_loadtest start <players> <displays> <ticks>
+                .then(Commands.literal("start")
+                    .then(Commands.argument("players", IntegerArgumentType.integer(1, 1000))
+                        .then(Commands.argument("displays", IntegerArgumentType.integer(1, 10000))
+                            .then(Commands.argument("ticks", IntegerArgumentType.integer(1))
+                                .executes(LoadTestCommand::start)))))
+
+                // /dpe_loadtest stop
+                .then(Commands.literal("stop")
+                    .executes(LoadTestCommand::stop))
+            ));
+    }
+
+    private static int start(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        LoadTestHarness.Config config = new LoadTestHarness.Config(
+                IntegerArgumentType.getInteger(context, "players"),
+                IntegerArgumentType.getInteger(context, "displays"),
+                IntegerArgumentType.getInteger(context, "ticks"),
+                List.of());
+
+        if (!LoadTestHarness.start(source.getServer(), config, LoadTestHarness.feedback(source), false)) {
+            source.sendFailure(Component.literal("已有负载测试在运行"));
+            return 0;
+        }
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int stop(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        if (!LoadTestHarness.stop(source.getServer())) {
+            source.sendFailure(Component.literal("没有正在运行的负载测试"));
+            return 0;
+        }
+        return Command.SINGLE_SUCCESS;
+    }
+}
@@ -0,0 +1,81 @@
+package com.lootmatrix.command;
+
+import com.lootmatrix.util.DpeMetrics;
+import com.lootmatrix.util.DpeMetricsExporter;
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.permissions.Permissions;
+
+import java.util.List;
+
+/**
+ * 指标查看指令
+ *
+ * 用法：
+ * /dpe_stats                        - 显示数据包计数、计数器、各钩子和刷新的耗时以及状态大小
+ * /dpe_stats reset                  - 清零计数器和耗时（状态大小不受影响）
+ * /dpe_stats export <true|false>    - 是否定期将指标以 Prometheus 文本格式写入服务器目录下的 dpe_metrics.prom
+ */
+public class StatsCommand {
+
+    private StatsCommand() {}
+
+    public static void register() {
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) ->
+            dispatcher.register(Commands.literal("dpe_stats")
+                .requires(source -> source.permissions().hasPermission(Permissions.COMMANDS_GAMEMASTER))
+                .executes(StatsCommand::showStats)
+
+                // /dpe_stats reset
+                .then(Commands.literal("reset")
+                    .executes(StatsCommand::resetStats))
+
+                // /dpe_stats export <enabled>
+                .then(Commands.literal("export")
+                    .then(Commands.argument("enabled", BoolArgumentType.bool())
+                        .executes(StatsCommand::setExport)))
+            ));
+    }
+
+    private static int showStats(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        List<String> lines = DpeMetrics.describe();
+
+        if (lines.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("暂无指标数据"), false);
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.literal(String.join("\n", lines)), false);
+        return lines.size();
+    }
+
+    private static int resetStats(CommandContext<CommandSourceStack> context) {
+        DpeMetrics.reset();
+        context.getSource().sendSuccess(() -> Component.literal("已清零所有计数器和耗时"), true);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int setExport(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        boolean enabled = BoolArgumentType.getBool(context, "enabled");
+
+        DpeMetricsExporter.setEnabled(enabled);
+        if (enabled) {
+            // 立即导出一次，不需要等待下一个导出周期
+            DpeMetricsExporter.export(source.getServer());
+        }
+
+        source.sendSuccess(() -> Component.literal(enabled
+                ? "已启用指标导出: " + DpeMetricsExporter.file(source.getServer())
+                : "已关闭指标导出"
+        ), true);
+
+        return Command.SINGLE_SUCCESS;
+    }
+}
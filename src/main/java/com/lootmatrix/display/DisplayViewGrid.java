@@ -0,0 +1,175 @@
+package com.lootmatrix.display;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.minecraft.util.Mth;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.ChunkPos;
+
+import java.util.UUID;
+
+/**
+ * 单个维度中设置了可见距离的实体的均匀网格索引
+ *
+ * 水平面按 CELL_SIZE 划分为单元格，每个实体登记到与其可见距离圆相交的所有单元格中，
+ * 玩家所在单元格登记了该实体即视为在可见距离内（精度为一个单元格，只比较水平距离）
+ * 玩家只有跨越单元格时才需要比较新旧两个单元格登记的实体，不需要每 tick 对所有实体计算距离
+ * 非线程安全，只应在服务器主线程访问
+ */
+final class DisplayViewGrid {
+
+    static final int CELL_SHIFT = 3;
+    static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    // 玩家还没有登记单元格
+    static final long NO_CELL = Long.MIN_VALUE;
+
+    /**
+     * 实体的登记信息，用于取消登记和检测实体是否移动到了其他单元格
+     */
+    private record Registration(long cell, double x, double z, double radius) {
+    }
+
+    // 单元格 -> 登记在该单元格的实体ID
+    private final Long2ObjectOpenHashMap<IntOpenHashSet> cells = new Long2ObjectOpenHashMap<>();
+
+    // 实体ID -> 登记信息
+    private final Int2ObjectOpenHashMap<Registration> registrations = new Int2ObjectOpenHashMap<>();
+
+    // 玩家UUID -> 上次登记的单元格
+    private final Object2LongOpenHashMap<UUID> viewerCells = new Object2LongOpenHashMap<>();
+
+    DisplayViewGrid() {
+        viewerCells.defaultReturnValue(NO_CELL);
+    }
+
+    static long cellOf(Entity entity) {
+        return ChunkPos.asLong(Mth.floor(entity.getX()) >> CELL_SHIFT, Mth.floor(entity.getZ()) >> CELL_SHIFT);
+    }
+
+    /**
+     * 登记实体的可见距离，已经登记时按新的位置和距离重新登记
+     */
+    void add(Entity entity, double radius) {
+        int entityId = entity.getId();
+        remove(entityId);
+
+        double x = entity.getX();
+        double z = entity.getZ();
+        registrations.put(entityId, new Registration(cellOf(entity), x, z, radius));
+
+        int minX = Mth.floor(x - radius) >> CELL_SHIFT;
+        int maxX = Mth.floor(x + radius) >> CELL_SHIFT;
+        int minZ = Mth.floor(z - radius) >> CELL_SHIFT;
+        int maxZ = Mth.floor(z + radius) >> CELL_SHIFT;
+        double radiusSqr = radius * radius;
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cz = minZ; cz <= maxZ; cz++) {
+                // 单元格内离实体最近的点在可见距离内才登记
+                double dx = x - Mth.clamp(x, cx << CELL_SHIFT, (cx + 1) << CELL_SHIFT);
+                double dz = z - Mth.clamp(z, cz << CELL_SHIFT, (cz + 1) << CELL_SHIFT);
+                if (dx * dx + dz * dz <= radiusSqr) {
+                    cells.computeIfAbsent(ChunkPos.asLong(cx, cz), k -> new IntOpenHashSet()).add(entityId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 取消登记实体
+     *
+     * @return 实体之前是否设置了可见距离
+     */
+    boolean remove(int entityId) {
+        Registration registration = registrations.remove(entityId);
+        if (registration == null) {
+            return false;
+        }
+
+        double x = registration.x;
+        double z = registration.z;
+        double radius = registration.radius;
+        int minX = Mth.floor(x - radius) >> CELL_SHIFT;
+        int maxX = Mth.floor(x + radius) >> CELL_SHIFT;
+        int minZ = Mth.floor(z - radius) >> CELL_SHIFT;
+        int maxZ = Mth.floor(z + radius) >> CELL_SHIFT;
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cz = minZ; cz <= maxZ; cz++) {
+                long cell = ChunkPos.asLong(cx, cz);
+                IntOpenHashSet ids = cells.get(cell);
+                if (ids != null && ids.remove(entityId) && ids.isEmpty()) {
+                    cells.remove(cell);
+                }
+            }
+        }
+        return true;
+    }
+
+    boolean hasRadius(int entityId) {
+        return registrations.containsKey(entityId);
+    }
+
+    /**
+     * 实体的可见距离，没有设置时返回 0
+     */
+    double radius(int entityId) {
+        Registration registration = registrations.get(entityId);
+        return registration != null ? registration.radius : 0;
+    }
+
+    /**
+     * 实体是否已经移动到登记时以外的单元格
+     */
+    boolean hasMoved(Entity entity) {
+        Registration registration = registrations.get(entity.getId());
+        return registration != null && registration.cell != cellOf(entity);
+    }
+
+    /**
+     * 观察者所在单元格是否在实体的可见距离内（没有设置可见距离的实体始终为 true）
+     */
+    boolean inRange(int entityId, Entity viewer) {
+        if (!registrations.containsKey(entityId)) {
+            return true;
+        }
+        IntOpenHashSet ids = cells.get(cellOf(viewer));
+        return ids != null && ids.contains(entityId);
+    }
+
+    /**
+     * 单元格中登记的实体（只读）
+     */
+    IntSet entitiesIn(long cell) {
+        IntOpenHashSet ids = cells.get(cell);
+        return ids != null ? ids : IntSets.EMPTY_SET;
+    }
+
+    /**
+     * 登记观察者当前所在的单元格
+     *
+     * @return 之前登记的单元格，没有登记时返回 NO_CELL
+     */
+    long moveViewer(UUID viewerId, long cell) {
+        return viewerCells.put(viewerId, cell);
+    }
+
+    void removeViewer(UUID viewerId) {
+        viewerCells.removeLong(viewerId);
+    }
+
+    IntSet registeredIds() {
+        return registrations.keySet();
+    }
+
+    boolean isEmpty() {
+        return registrations.isEmpty();
+    }
+
+    int size() {
+        return registrations.size();
+    }
+}
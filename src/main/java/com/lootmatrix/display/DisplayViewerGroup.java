@@ -0,0 +1,102 @@
+package com.lootmatrix.display;
+
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.scores.PlayerTeam;
+import net.minecraft.world.entity.Entity;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 共享的实体观察者组
+ *
+ * 引用该组的实体在分片中直接使用组的成员集合作为可见玩家集合，
+ * 2000 个实体引用同一个组时只有一份成员集合，成员变化时对该组的所有实体一次性批量更新
+ * 成员可以显式指定，也可以绑定到记分板队伍或实体标签（只包含在线玩家，由队伍和标签变化增量维护）
+ * 只在服务器主线程访问
+ */
+final class DisplayViewerGroup {
+
+    /**
+     * 成员来源
+     */
+    enum Kind {
+        // 通过命令显式加入和移出，玩家断开连接后仍然保留
+        EXPLICIT,
+        // 记分板队伍的在线成员
+        TEAM,
+        // 带有指定标签的在线玩家
+        TAG;
+
+        static Kind fromName(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    final String name;
+    final Kind kind;
+    // 队伍名或标签（显式组为 null）
+    final String value;
+
+    // 成员UUID，同时是引用该组的实体的可见玩家集合
+    final Set<UUID> members = new ObjectOpenHashSet<>();
+
+    // 引用该组的实体
+    final Set<Entity> entities = new ReferenceOpenHashSet<>();
+
+    // 显式组成员最后一次变化时主世界的游戏时间，随实体保存，重新加载时用于判断哪份成员更新
+    long revision;
+
+    // 打包的显式组成员，成员变化时失效；引用该组的所有实体共用一份
+    private long[] packedMembers;
+
+    DisplayViewerGroup(String name, Kind kind, String value) {
+        this.name = name;
+        this.kind = kind;
+        this.value = value;
+    }
+
+    /**
+     * 玩家当前是否满足队伍或标签条件（显式组始终为 false）
+     */
+    boolean matches(ServerPlayer player) {
+        return switch (kind) {
+            case EXPLICIT -> false;
+            case TEAM -> {
+                PlayerTeam team = player.getTeam();
+                yield team != null && team.getName().equals(value);
+            }
+            case TAG -> player.getTags().contains(value);
+        };
+    }
+
+    /**
+     * 显式组的成员发生变化后调用
+     */
+    void markChanged(long revision) {
+        this.revision = revision;
+        this.packedMembers = null;
+    }
+
+    /**
+     * 打包的成员UUID，每个UUID依次为高 64 位和低 64 位（只有显式组需要保存成员）
+     */
+    long[] packedMembers() {
+        if (packedMembers == null) {
+            packedMembers = DisplayVisibilityAttachment.pack(members);
+        }
+        return packedMembers;
+    }
+
+    String describe() {
+        String source = kind == Kind.EXPLICIT ? "explicit" : kind.name().toLowerCase(Locale.ROOT) + " " + value;
+        return String.format("%s (%s): %d 名成员, %d 个实体", name, source, members.size(), entities.size());
+    }
+}
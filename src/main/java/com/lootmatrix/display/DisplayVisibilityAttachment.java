@@ -0,0 +1,103 @@
+package com.lootmatrix.display;
+
+import com.lootmatrix.DatapackExtension;
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.codecs.RecordCodecBuilder;
+import net.fabricmc.fabric.api.attachment.v1.AttachmentRegistry;
+import net.fabricmc.fabric.api.attachment.v1.AttachmentType;
+import net.minecraft.resources.Identifier;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+/**
+ * 随实体一起保存的可见性规则
+ *
+ * 区块卸载后实体的内存状态被清除，重新加载时从该附加数据恢复，受限的实体不会变成对所有人可见
+ * 规则是对观察者组的引用（组名以及重建组所需的成员来源，显式组还包括成员），或是可见玩家的UUID，另外可以包含可见距离；
+ * UUID 打包为 long 数组（每个 16 字节），保存为 NBT 的 LongArray，不使用字符串标签
+ * 只在实体开始被追踪时读取一次，可见性检查仍然只查找内存中的分片
+ */
+final class DisplayVisibilityAttachment {
+
+    private static final Codec<long[]> PACKED_UUIDS = Codec.LONG_STREAM.xmap(LongStream::toArray, LongStream::of);
+
+    /**
+     * 可见性规则
+     *
+     * @param group      引用的观察者组名，为 null 时使用 viewers
+     * @param groupKind  观察者组的成员来源，组不存在时用于重建
+     * @param groupValue 观察者组的队伍名或标签
+     * @param viewers    可见玩家UUID，每个UUID依次为高 64 位和低 64 位；引用显式组时为组的成员；
+     *                   与 group 都为 null 时不限制可见玩家
+     * @param radius     可见距离，0 表示没有设置
+     * @param revision   显式组成员最后一次变化时的游戏时间
+     */
+    record Rule(String group, String groupKind, String groupValue, long[] viewers, double radius, long revision) {
+
+        static final Codec<Rule> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+                Codec.STRING.optionalFieldOf("group").forGetter(rule -> Optional.ofNullable(rule.group)),
+                Codec.STRING.optionalFieldOf("kind").forGetter(rule -> Optional.ofNullable(rule.groupKind)),
+                Codec.STRING.optionalFieldOf("value").forGetter(rule -> Optional.ofNullable(rule.groupValue)),
+                PACKED_UUIDS.optionalFieldOf("viewers").forGetter(rule -> Optional.ofNullable(rule.viewers)),
+                Codec.DOUBLE.optionalFieldOf("radius", 0.0).forGetter(Rule::radius),
+                Codec.LONG.optionalFieldOf("revision", 0L).forGetter(Rule::revision)
+        ).apply(instance, (group, kind, value, viewers, radius, revision) ->
+                new Rule(group.orElse(null), kind.orElse(null), value.orElse(null), viewers.orElse(null), radius, revision)));
+
+        static Rule ofGroup(DisplayViewerGroup group, double radius) {
+            if (group.kind == DisplayViewerGroup.Kind.EXPLICIT) {
+                // 显式组的成员无法从其他来源重建，随实体一起保存
+                return new Rule(group.name, group.kind.name(), null, group.packedMembers(), radius, group.revision);
+            }
+            return new Rule(group.name, group.kind.name(), group.value, null, radius, 0);
+        }
+
+        static Rule ofViewers(Collection<UUID> viewers, double radius) {
+            return new Rule(null, null, null, pack(viewers), radius, 0);
+        }
+
+        static Rule ofRadius(double radius) {
+            return new Rule(null, null, null, null, radius, 0);
+        }
+
+        /**
+         * 将打包的可见玩家UUID解包到集合中
+         */
+        void unpackViewers(Set<UUID> into) {
+            for (int i = 0; i + 1 < viewers.length; i += 2) {
+                into.add(new UUID(viewers[i], viewers[i + 1]));
+            }
+        }
+    }
+
+    /**
+     * 将UUID打包为 long 数组，每个UUID依次为高 64 位和低 64 位
+     */
+    static long[] pack(Collection<UUID> uuids) {
+        long[] packed = new long[uuids.size() * 2];
+        int i = 0;
+        for (UUID uuid : uuids) {
+            packed[i++] = uuid.getMostSignificantBits();
+            packed[i++] = uuid.getLeastSignificantBits();
+        }
+        return packed;
+    }
+
+    static final AttachmentType<Rule> RULE = AttachmentRegistry.create(
+            Identifier.fromNamespaceAndPath(DatapackExtension.MOD_ID, "display_visibility"),
+            builder -> builder.persistent(Rule.CODEC));
+
+    private DisplayVisibilityAttachment() {}
+
+    /**
+     * 在模组初始化时调用，保证附加数据类型在读取世界之前注册
+     */
+    static void register() {
+        // 访问 RULE 触发类初始化
+        DatapackExtension.LOGGER.debug("Registered attachment {}", RULE.identifier());
+    }
+}
@@ -1,25 +1,43 @@
 package com.lootmatrix.display;
 
+import com.lootmatrix.util.DpeMetrics;
+import net.fabricmc.fabric.api.entity.event.v1.ServerEntityWorldChangeEvents;
+import net.fabricmc.fabric.api.entity.event.v1.ServerPlayerEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.server.MinecraftServer;
 
 /**
- * 展示实体可见性事件处理器
+ * 实体可见性事件处理器
  *
  * 处理以下场景：
  * 1. 玩家断开连接 - 清理可见性数据
- * 2. 实体被移除 - 清理可见性数据
- * 3. 定期刷新可见性 - 确保效果持续
+ * 2. 实体被移除或所在区块卸载 - 清理内存中的可见性数据（规则保存在实体中，重新加载时恢复）
+ * 3. 维度卸载 - 移除该维度的分片
+ * 4. 重生、切换维度 - 客户端清空了所有实体，清除该玩家的客户端状态
+ * 5. 定期检查可见性与客户端状态是否一致 - 只发送不一致的部分
+ * 6. 玩家加入 - 计算其所在的队伍和标签观察者组
+ * 7. 每 tick 检查玩家是否跨越了可见距离网格的单元格 - 只比较新旧单元格中的实体
  */
 public class DisplayVisibilityEventHandler {
 
-    // 刷新间隔（tick）- 每2秒刷新一次
+    // 一致性检查间隔（tick）- 每2秒检查一次
     private static final int REFRESH_INTERVAL = 40;
     private static int tickCounter = 0;
 
     public static void register() {
+        // 注册随实体保存的规则附加数据，必须在读取世界之前完成
+        DisplayVisibilityAttachment.register();
+
+        // 注册状态大小指标
+        DisplayVisibilityManager.registerMetrics();
+
+        // 玩家加入时计算队伍和标签观察者组
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) ->
+            DisplayVisibilityManager.onPlayerJoin(handler.getPlayer()));
+
         // 玩家断开连接时清理
         ServerPlayConnectionEvents.DISCONNECT.register((handler, server) ->
             DisplayVisibilityManager.onPlayerDisconnect(handler.getPlayer()));
@@ -28,15 +46,31 @@ public class DisplayVisibilityEventHandler {
         ServerEntityEvents.ENTITY_UNLOAD.register((entity, world) ->
             DisplayVisibilityManager.onEntityRemoved(entity));
 
-        // 定期刷新可见性
+        // 维度卸载时移除分片
+        ServerWorldEvents.UNLOAD.register((server, world) ->
+            DisplayVisibilityManager.onLevelUnload(world));
+
+        // 重生、切换维度后客户端清空了所有实体，只保留原版追踪重新建立的记录
+        ServerPlayerEvents.AFTER_RESPAWN.register((oldPlayer, newPlayer, alive) ->
+            DisplayVisibilityManager.forgetClientState(newPlayer));
+        ServerEntityWorldChangeEvents.AFTER_PLAYER_CHANGE_WORLD.register((player, origin, destination) ->
+            DisplayVisibilityManager.forgetClientState(player));
+
+        // 定期检查可见性与客户端状态是否一致
         ServerTickEvents.END_SERVER_TICK.register(DisplayVisibilityEventHandler::onServerTick);
     }
 
     private static void onServerTick(MinecraftServer server) {
+        long rangeStart = DpeMetrics.start();
+        DisplayVisibilityManager.updateViewRanges(server);
+        DpeMetrics.record(DpeMetrics.Timer.DISPLAY_VIEW_RANGE, rangeStart);
+
         tickCounter++;
         if (tickCounter >= REFRESH_INTERVAL) {
             tickCounter = 0;
+            long start = DpeMetrics.start();
             DisplayVisibilityManager.refreshAllVisibility(server);
+            DpeMetrics.record(DpeMetrics.Timer.DISPLAY_REFRESH, start);
         }
     }
 }
@@ -1,262 +1,691 @@
 package com.lootmatrix.display;
 
-import net.minecraft.network.protocol.game.ClientboundAddEntityPacket;
+import com.lootmatrix.mixin.TrackedEntityAccessor;
+import com.lootmatrix.util.DpeEvents;
+import com.lootmatrix.util.DpeMetrics;
+import com.lootmatrix.util.EntityTracking;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
 import net.minecraft.network.protocol.game.ClientboundRemoveEntitiesPacket;
-import net.minecraft.network.protocol.game.ClientboundSetEntityDataPacket;
-import net.minecraft.network.syncher.SynchedEntityData;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.world.entity.Display;
+import net.minecraft.server.network.ServerPlayerConnection;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.Level;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * 展示实体可见性管理器
+ * 实体可见性管理器
+ *
+ * 可以限制除玩家以外的任何实体（展示实体、盔甲架、交互实体、掉落物、生物等）对哪些玩家可见，
+ * 同一个实体对不同玩家呈现不同的可见性，不需要为每个玩家生成一份副本
  *
  * 实现原理：
- * 1. 使用 ClientboundRemoveEntitiesPacket 对不应看到实体的玩家隐藏实体
- * 2. 使用 ClientboundAddEntityPacket + ClientboundSetEntityDataPacket 对应看到的玩家显示实体
- * 3. 通过 Mixin 拦截实体追踪，阻止向未授权玩家发送实体数据
+ * 1. 通过 Mixin 拦截实体追踪（addPairing），阻止向未授权玩家发送实体数据；
+ *    受限实体带有一个标记位，没有限制的实体在追踪时只检查该标记位，不查找分片
+ * 2. 可见性变化时通过所在维度区块管理器的实体追踪记录，对追踪范围内的玩家调用 addPairing/removePairing，
+ *    由原版发送完整的生成数据，之后的移动、变换和插值更新也照常发送；追踪范围外的玩家在进入范围时由原版按可见性处理
+ * 3. 状态按维度分片，每个分片只保存该维度的受限实体；定期检查只遍历有玩家的分片，
+ *    比较和状态转换都在服务器主线程上执行（需要读取原版的实体追踪记录和实体位置）
+ * 4. 记录每个受限实体当前在哪些玩家的客户端上存在，可见性变化时只处理状态发生转换的玩家；
+ *    定期检查只是一致性检查，状态一致时不发送任何包，不会重新生成客户端上已有的实体
+ * 5. 实体可以引用共享的观察者组（显式成员、记分板队伍或标签），组成员变化时对该组的所有实体批量更新，
+ *    仍然逐个调用 addPairing/removePairing，期间由 Mixin 收集发往该玩家的包，
+ *    每个玩家只收到一个合并的移除实体包和一批生成数据
+ * 6. 规则随实体保存在附加数据中，区块重新加载时在建立追踪之前恢复
+ * 7. 实体可以设置可见距离，由每个维度的均匀网格索引；玩家跨越网格单元格时只比较新旧单元格登记的实体，
+ *    状态转换按玩家合并发送
  *
  * 这是纯服务端实现，客户端不需要安装任何模组
  */
 public class DisplayVisibilityManager {
 
-    // 存储每个展示实体的可见玩家列表: 实体ID -> 可见玩家UUID集合
-    // 如果实体不在此 Map 中，表示对所有人可见（默认行为）
-    // 如果实体在 Map 中但集合为空，表示对所有人不可见
-    private static final Map<Integer, Set<UUID>> visibilityMap = new ConcurrentHashMap<>();
+    // 维度 -> 该维度的可见性状态
+    // 每个分片保存实体的可见玩家列表: 实体ID -> 可见玩家UUID集合
+    // 如果实体不在分片中，表示对所有人可见（默认行为）
+    // 如果实体在分片中但集合为空，表示对所有人不可见
+    private static final Map<Level, DisplayVisibilityShard> shards = new ConcurrentHashMap<>();
+
+    // 组名 -> 观察者组
+    private static final Map<String, DisplayViewerGroup> groups = new LinkedHashMap<>();
+
+    // 单个捆绑包允许的最大子包数量
+    private static final int MAX_BUNDLE_SIZE = 4096;
+
+    // 批量执行状态转换期间正在收集数据包的玩家，为 null 时不收集（只在服务器主线程上使用）
+    private static ServerPlayer capturingPlayer;
+
+    // 收集到的数据包（捆绑包已展开）和需要移除的实体ID
+    private static final List<Packet<? super ClientGamePacketListener>> capturedPackets = new ArrayList<>();
+    private static final IntArrayList capturedRemovals = new IntArrayList();
 
-    // 存储被限制可见性的实体原始状态
-    private static final Set<Integer> restrictedEntities = ConcurrentHashMap.newKeySet();
+    /**
+     * 获取实体所在维度的分片，不存在时创建
+     */
+    private static DisplayVisibilityShard shardOf(Entity entity) {
+        return shards.computeIfAbsent(entity.level(), level -> new DisplayVisibilityShard((ServerLevel) level));
+    }
 
     /**
-     * 设置展示实体只对指定玩家可见
+     * 设置实体只对指定玩家可见
      *
-     * @param display 展示实体
+     * @param entity 实体
      * @param viewers 可以看到的玩家列表
      */
-    public static void setVisibleTo(Display display, Collection<ServerPlayer> viewers) {
-        int entityId = display.getId();
-
-        Set<UUID> visiblePlayers = visibilityMap.computeIfAbsent(entityId, k -> ConcurrentHashMap.newKeySet());
+    public static void setVisibleTo(Entity entity, Collection<ServerPlayer> viewers) {
+        DisplayVisibilityShard shard = shardOf(entity);
+        Set<UUID> visiblePlayers = shard.restrict(entity);
         visiblePlayers.clear();
 
         for (ServerPlayer viewer : viewers) {
             visiblePlayers.add(viewer.getUUID());
         }
+        persist(shard, entity);
 
-        restrictedEntities.add(entityId);
-
-        // 更新所有玩家的可见性
-        if (display.level() instanceof ServerLevel serverLevel) {
-            updateVisibilityForAllPlayers(display, serverLevel);
-        }
+        // 只向可见性发生变化的玩家发送
+        syncAllPlayers(shard, entity);
     }
 
     /**
-     * 添加可以看到展示实体的玩家
+     * 添加可以看到实体的玩家
      *
-     * @param display 展示实体
+     * @param entity 实体
      * @param viewer  要添加的玩家
      */
-    public static void addViewer(Display display, ServerPlayer viewer) {
-        int entityId = display.getId();
-
-        Set<UUID> visiblePlayers = visibilityMap.computeIfAbsent(entityId, k -> ConcurrentHashMap.newKeySet());
-        visiblePlayers.add(viewer.getUUID());
-        restrictedEntities.add(entityId);
+    public static void addViewer(Entity entity, ServerPlayer viewer) {
+        DisplayVisibilityShard shard = shardOf(entity);
+        shard.restrict(entity).add(viewer.getUUID());
+        persist(shard, entity);
 
-        // 向该玩家显示实体
-        showEntityToPlayer(display, viewer);
+        // 客户端上还没有该实体时向该玩家显示
+        syncPlayer(shard, entity, viewer);
     }
 
     /**
-     * 移除可以看到展示实体的玩家
+     * 移除可以看到实体的玩家
      *
-     * @param display 展示实体
+     * @param entity 实体
      * @param viewer  要移除的玩家
      */
-    public static void removeViewer(Display display, ServerPlayer viewer) {
-        int entityId = display.getId();
+    public static void removeViewer(Entity entity, ServerPlayer viewer) {
+        DisplayVisibilityShard shard = shards.get(entity.level());
+        if (shard == null || !shard.visibility.containsKey(entity.getId())) {
+            return;
+        }
+        // 引用观察者组时解除引用，不修改组的成员
+        Set<UUID> visiblePlayers = shard.restrict(entity);
+        boolean removed = visiblePlayers.remove(viewer.getUUID());
+        persist(shard, entity);
+        if (removed) {
+            // 客户端上有该实体时向该玩家隐藏
+            syncPlayer(shard, entity, viewer);
+        }
+    }
 
-        Set<UUID> visiblePlayers = visibilityMap.get(entityId);
-        if (visiblePlayers != null) {
-            visiblePlayers.remove(viewer.getUUID());
+    /**
+     * 清除实体的可见性限制，恢复对所有人可见
+     *
+     * @param entity 实体
+     */
+    public static void clearVisibility(Entity entity) {
+        DisplayVisibilityShard shard = shards.get(entity.level());
+        if (shard == null || !shard.isRestricted(entity.getId())) {
+            return;
         }
 
-        // 向该玩家隐藏实体
-        hideEntityFromPlayer(display, viewer);
+        int entityId = entity.getId();
+        if (shard.grid.hasRadius(entityId)) {
+            // 保留可见距离，只解除可见玩家限制
+            shard.clearViewers(entity);
+            persist(shard, entity);
+            syncAllPlayers(shard, entity);
+            return;
+        }
+
+        // 先解除限制，之后对追踪范围内、客户端上还没有该实体的玩家重新建立追踪；
+        // 追踪范围外的玩家在进入范围时由原版追踪照常发送
+        Set<UUID> clients = new HashSet<>(shard.shown.get(entityId));
+        shard.remove(entityId);
+        entity.removeAttached(DisplayVisibilityAttachment.RULE);
+
+        TrackedEntityAccessor tracked = EntityTracking.getTrackedEntity(entity);
+        if (tracked == null) {
+            return;
+        }
+        for (ServerPlayerConnection connection : tracked.getSeenBy()) {
+            ServerPlayer player = connection.getPlayer();
+            if (!clients.contains(player.getUUID())) {
+                show(tracked, player);
+            }
+        }
     }
 
     /**
-     * 清除展示实体的可见性限制，恢复对所有人可见
+     * 设置实体对所有人隐藏
      *
-     * @param display 展示实体
+     * @param entity 实体
      */
-    public static void clearVisibility(Display display) {
-        int entityId = display.getId();
+    public static void hideFromAll(Entity entity) {
+        DisplayVisibilityShard shard = shardOf(entity);
+        shard.restrict(entity).clear();
+        persist(shard, entity);
 
-        visibilityMap.remove(entityId);
-        restrictedEntities.remove(entityId);
+        // 只向客户端上有该实体的玩家隐藏
+        syncAllPlayers(shard, entity);
+    }
 
-        // 向所有玩家显示实体
-        if (display.level() instanceof ServerLevel serverLevel) {
-            for (ServerPlayer player : serverLevel.players()) {
-                showEntityToPlayer(display, player);
+    // ==================== 观察者组 ====================
+
+    /**
+     * 创建观察者组，队伍和标签组立即包含满足条件的在线玩家
+     *
+     * @param kindName 成员来源：explicit、team 或 tag
+     * @param value    队伍名或标签（显式组忽略）
+     * @return 是否创建成功（同名的组已存在或成员来源无效时返回 false）
+     */
+    public static boolean createGroup(MinecraftServer server, String name, String kindName, String value) {
+        DisplayViewerGroup.Kind kind = DisplayViewerGroup.Kind.fromName(kindName);
+        if (kind == null || groups.containsKey(name)) {
+            return false;
+        }
+        DisplayViewerGroup group = new DisplayViewerGroup(name, kind, kind == DisplayViewerGroup.Kind.EXPLICIT ? null : value);
+        if (kind != DisplayViewerGroup.Kind.EXPLICIT) {
+            for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+                if (group.matches(player)) {
+                    group.members.add(player.getUUID());
+                }
             }
         }
+        groups.put(name, group);
+        return true;
     }
 
     /**
-     * 设置展示实体对所有人隐藏
+     * 删除观察者组，引用该组的实体以组的当前成员作为自己的可见玩家，客户端上的状态不变
      *
-     * @param display 展示实体
+     * @return 是否存在该组
      */
-    public static void hideFromAll(Display display) {
-        int entityId = display.getId();
+    public static boolean removeGroup(String name) {
+        DisplayViewerGroup group = groups.remove(name);
+        if (group == null) {
+            return false;
+        }
+        for (Entity entity : new ArrayList<>(group.entities)) {
+            DisplayVisibilityShard shard = shards.get(entity.level());
+            if (shard != null) {
+                shard.restrict(entity);
+                persist(shard, entity);
+            }
+        }
+        return true;
+    }
+
+    public static Collection<String> getGroupNames() {
+        return groups.keySet();
+    }
 
-        visibilityMap.put(entityId, ConcurrentHashMap.newKeySet());
-        restrictedEntities.add(entityId);
+    /**
+     * 所有观察者组的描述
+     */
+    public static List<String> describeGroups() {
+        List<String> lines = new ArrayList<>(groups.size());
+        for (DisplayViewerGroup group : groups.values()) {
+            lines.add(group.describe());
+        }
+        return lines;
+    }
 
-        // 向所有玩家隐藏实体
-        if (display.level() instanceof ServerLevel serverLevel) {
-            for (ServerPlayer player : serverLevel.players()) {
-                hideEntityFromPlayer(display, player);
+    /**
+     * 让实体引用观察者组，所有实体的状态转换按玩家合并发送
+     *
+     * @return 引用成功的实体数量，组不存在时返回 -1
+     */
+    public static int bindGroup(Collection<Entity> entities, String name) {
+        DisplayViewerGroup group = groups.get(name);
+        if (group == null) {
+            return -1;
+        }
+
+        Map<ServerPlayer, List<Transition>> batches = new HashMap<>();
+        for (Entity entity : entities) {
+            DisplayVisibilityShard shard = shardOf(entity);
+            shard.bind(entity, group);
+            persist(shard, entity);
+            collectTransitions(shard, entity, null, batches);
+        }
+        applyBatches(batches);
+        return entities.size();
+    }
+
+    /**
+     * 将玩家显式加入观察者组，该组所有实体的可见性一次性更新
+     *
+     * @return 加入的玩家数量，组不存在或不是显式组时返回 -1
+     */
+    public static int joinGroup(String name, Collection<ServerPlayer> players) {
+        DisplayViewerGroup group = groups.get(name);
+        if (group == null || group.kind != DisplayViewerGroup.Kind.EXPLICIT) {
+            return -1;
+        }
+        int count = 0;
+        for (ServerPlayer player : players) {
+            if (group.members.add(player.getUUID())) {
+                updateGroupEntities(List.of(group), player);
+                count++;
             }
         }
+        if (count > 0) {
+            persistMembers(group, players.iterator().next());
+        }
+        return count;
     }
 
     /**
-     * 检查玩家是否可以看到展示实体
+     * 将玩家移出显式观察者组，该组所有实体的可见性一次性更新
      *
-     * @param display 展示实体
-     * @param player  玩家
-     * @return 是否可见
+     * @return 移出的玩家数量，组不存在或不是显式组时返回 -1
      */
-    public static boolean canPlayerSee(Display display, ServerPlayer player) {
-        int entityId = display.getId();
+    public static int leaveGroup(String name, Collection<ServerPlayer> players) {
+        DisplayViewerGroup group = groups.get(name);
+        if (group == null || group.kind != DisplayViewerGroup.Kind.EXPLICIT) {
+            return -1;
+        }
+        int count = 0;
+        for (ServerPlayer player : players) {
+            if (group.members.remove(player.getUUID())) {
+                updateGroupEntities(List.of(group), player);
+                count++;
+            }
+        }
+        if (count > 0) {
+            persistMembers(group, players.iterator().next());
+        }
+        return count;
+    }
 
-        // 如果不在限制列表中，对所有人可见
-        if (!restrictedEntities.contains(entityId)) {
-            return true;
+    /**
+     * 显式组的成员变化后，将新的成员写入引用该组的所有已加载实体
+     * 未加载的实体保留旧的成员和游戏时间，重新加载时只采用比内存中更新的成员
+     */
+    private static void persistMembers(DisplayViewerGroup group, ServerPlayer source) {
+        group.markChanged(source.level().getServer().overworld().getGameTime());
+        for (Entity entity : group.entities) {
+            DisplayVisibilityShard shard = shards.get(entity.level());
+            if (shard != null) {
+                persist(shard, entity);
+            }
         }
+    }
 
-        Set<UUID> visiblePlayers = visibilityMap.get(entityId);
-        if (visiblePlayers == null) {
-            return true; // 默认可见
+    /**
+     * 重新判断玩家在队伍和标签组中的成员资格，只对成员资格发生变化的组更新
+     */
+    private static void reevaluateGroups(ServerPlayer player) {
+        if (groups.isEmpty()) {
+            return;
         }
+        UUID playerId = player.getUUID();
+        List<DisplayViewerGroup> changed = null;
+        for (DisplayViewerGroup group : groups.values()) {
+            if (group.kind == DisplayViewerGroup.Kind.EXPLICIT) continue;
+            boolean member = group.matches(player);
+            if (member ? group.members.add(playerId) : group.members.remove(playerId)) {
+                if (changed == null) {
+                    changed = new ArrayList<>();
+                }
+                changed.add(group);
+            }
+        }
+        if (changed != null) {
+            updateGroupEntities(changed, player);
+        }
+    }
 
-        return visiblePlayers.contains(player.getUUID());
+    /**
+     * 对一个玩家更新若干组的所有实体，状态转换合并为一个捆绑包发送
+     */
+    private static void updateGroupEntities(List<DisplayViewerGroup> changed, ServerPlayer player) {
+        Map<ServerPlayer, List<Transition>> batches = new HashMap<>();
+        for (DisplayViewerGroup group : changed) {
+            for (Entity entity : group.entities) {
+                DisplayVisibilityShard shard = shards.get(entity.level());
+                if (shard != null) {
+                    collectTransitions(shard, entity, player, batches);
+                }
+            }
+        }
+        applyBatches(batches);
     }
 
     /**
-     * 检查实体是否有可见性限制
+     * 玩家加入服务器时计算其所在的队伍和标签组
      */
-    public static boolean hasVisibilityRestriction(Entity entity) {
-        return restrictedEntities.contains(entity.getId());
+    public static void onPlayerJoin(ServerPlayer player) {
+        reevaluateGroups(player);
     }
 
     /**
-     * 检查实体是否是 Display 类型且有可见性限制
+     * 记分板队伍成员发生变化时调用（供 Mixin 调用）
+     *
+     * @param entityName 实体在队伍系统中的名称，只处理在线玩家
      */
-    public static boolean isRestrictedDisplay(Entity entity) {
-        return entity instanceof Display && restrictedEntities.contains(entity.getId());
+    public static void onTeamMembershipChanged(MinecraftServer server, String entityName) {
+        if (groups.isEmpty()) {
+            return;
+        }
+        ServerPlayer player = server.getPlayerList().getPlayerByName(entityName);
+        if (player != null) {
+            reevaluateGroups(player);
+        }
     }
 
     /**
-     * 检查玩家是否可以看到指定实体（供 Mixin 调用）
+     * 实体的标签发生变化时调用（供 Mixin 调用），只处理玩家
      */
-    public static boolean canPlayerSeeEntity(int entityId, UUID playerId) {
-        if (!restrictedEntities.contains(entityId)) {
-            return true;
+    public static void onTagChanged(Entity entity) {
+        if (entity instanceof ServerPlayer player) {
+            reevaluateGroups(player);
         }
+    }
 
-        Set<UUID> visiblePlayers = visibilityMap.get(entityId);
-        if (visiblePlayers == null) {
-            return true;
+    // ==================== 可见距离 ====================
+
+    /**
+     * 设置实体的可见距离：只有水平距离在可见距离内（精度为一个网格单元格）的可见玩家才能看到
+     * 所有实体的状态转换按玩家合并发送
+     *
+     * @param radius 可见距离（格），不大于 0 时取消可见距离
+     * @return 可见距离发生变化的实体数量
+     */
+    public static int setViewRadius(Collection<Entity> entities, double radius) {
+        Map<ServerPlayer, List<Transition>> batches = new HashMap<>();
+        List<Entity> released = new ArrayList<>();
+        int count = 0;
+
+        for (Entity entity : entities) {
+            int entityId = entity.getId();
+            DisplayVisibilityShard shard;
+            if (radius > 0) {
+                shard = shardOf(entity);
+                shard.track(entity);
+                shard.grid.add(entity, radius);
+            } else {
+                shard = shards.get(entity.level());
+                if (shard == null || !shard.grid.remove(entityId)) continue;
+                if (!shard.visibility.containsKey(entityId)) {
+                    // 没有其他限制，状态转换完成后恢复为不受限
+                    released.add(entity);
+                }
+            }
+            persist(shard, entity);
+            collectTransitions(shard, entity, null, batches);
+            count++;
         }
+        applyBatches(batches);
 
-        return visiblePlayers.contains(playerId);
+        for (Entity entity : released) {
+            DisplayVisibilityShard shard = shards.get(entity.level());
+            if (shard != null) {
+                shard.remove(entity.getId());
+            }
+        }
+        return count;
     }
 
     /**
-     * 获取展示实体的可见玩家列表
+     * 实体的可见距离，没有设置时返回 0
      */
-    public static Set<UUID> getViewers(Display display) {
-        Set<UUID> viewers = visibilityMap.get(display.getId());
-        return viewers != null ? new HashSet<>(viewers) : null;
+    public static double getViewRadius(Entity entity) {
+        DisplayVisibilityShard shard = shards.get(entity.level());
+        return shard != null ? shard.grid.radius(entity.getId()) : 0;
     }
 
     /**
-     * 向玩家显示实体
+     * 每 tick 检查玩家是否跨越了网格单元格，只对新旧单元格中登记的实体比较状态
+     *
+     * 开销与玩家数量成正比；只有跨越单元格的玩家才需要访问实体，状态转换按玩家合并发送
      */
-    private static void showEntityToPlayer(Display display, ServerPlayer player) {
-        // 检查玩家连接是否有效
-        if (player.connection == null || player.hasDisconnected()) {
-            return;
+    public static void updateViewRanges(MinecraftServer server) {
+        Map<ServerPlayer, List<Transition>> batches = null;
+        for (DisplayVisibilityShard shard : shards.values()) {
+            DisplayViewGrid grid = shard.grid;
+            if (grid.isEmpty()) continue;
+
+            for (ServerPlayer player : shard.level.players()) {
+                long cell = DisplayViewGrid.cellOf(player);
+                long previous = grid.moveViewer(player.getUUID(), cell);
+                if (previous == cell) continue;
+
+                if (batches == null) {
+                    batches = new HashMap<>();
+                }
+                // 只在一个单元格中登记的实体的可见距离状态发生了变化
+                IntSet before = grid.entitiesIn(previous);
+                IntSet after = grid.entitiesIn(cell);
+                collectRangeTransitions(shard, before, after, player, batches);
+                collectRangeTransitions(shard, after, before, player, batches);
+            }
         }
+        if (batches != null) {
+            applyBatches(batches);
+        }
+    }
 
-        try {
-            // 创建并发送添加实体包
-            // 使用 ClientboundAddEntityPacket 的静态工厂方法
-            ClientboundAddEntityPacket addPacket = new ClientboundAddEntityPacket(
-                    display.getId(),
-                    display.getUUID(),
-                    display.getX(),
-                    display.getY(),
-                    display.getZ(),
-                    display.getXRot(),
-                    display.getYRot(),
-                    display.getType(),
-                    0, // 额外数据
-                    display.getDeltaMovement(),
-                    display.getYHeadRot()
-            );
-            player.connection.send(addPacket);
-
-            // 发送实体数据包
-            List<SynchedEntityData.DataValue<?>> entityData = display.getEntityData().getNonDefaultValues();
-            if (entityData != null && !entityData.isEmpty()) {
-                ClientboundSetEntityDataPacket dataPacket = new ClientboundSetEntityDataPacket(
-                        display.getId(), entityData
-                );
-                player.connection.send(dataPacket);
+    private static void collectRangeTransitions(DisplayVisibilityShard shard, IntSet ids, IntSet exclude, ServerPlayer player,
+                                                Map<ServerPlayer, List<Transition>> batches) {
+        IntIterator iterator = ids.iterator();
+        while (iterator.hasNext()) {
+            int entityId = iterator.nextInt();
+            if (exclude.contains(entityId)) continue;
+            Entity entity = shard.entities.get(entityId);
+            if (entity != null) {
+                collectTransitions(shard, entity, player, batches);
             }
-        } catch (Exception e) {
-            // 忽略发送失败的情况（玩家可能已断开连接）
         }
     }
 
     /**
-     * 向玩家隐藏实体
+     * 移动到其他单元格的实体按新位置重新登记（在一致性检查前调用，之后的比较使用新位置）
      */
-    private static void hideEntityFromPlayer(Display display, ServerPlayer player) {
-        // 检查玩家连接是否有效
-        if (player.connection == null || player.hasDisconnected()) {
+    private static void relocateMovedDisplays(DisplayVisibilityShard shard) {
+        DisplayViewGrid grid = shard.grid;
+        if (grid.isEmpty()) {
             return;
         }
+        List<Entity> moved = null;
+        IntIterator iterator = grid.registeredIds().iterator();
+        while (iterator.hasNext()) {
+            Entity entity = shard.entities.get(iterator.nextInt());
+            if (entity != null && grid.hasMoved(entity)) {
+                if (moved == null) {
+                    moved = new ArrayList<>();
+                }
+                moved.add(entity);
+            }
+        }
+        if (moved != null) {
+            for (Entity entity : moved) {
+                grid.add(entity, grid.radius(entity.getId()));
+            }
+        }
+    }
 
-        try {
-            ClientboundRemoveEntitiesPacket removePacket = new ClientboundRemoveEntitiesPacket(display.getId());
-            player.connection.send(removePacket);
-        } catch (Exception e) {
-            // 忽略发送失败的情况（玩家可能已断开连接）
+    // ==================== 持久化 ====================
+
+    /**
+     * 将实体当前的规则写入随实体保存的附加数据
+     */
+    private static void persist(DisplayVisibilityShard shard, Entity entity) {
+        int entityId = entity.getId();
+        DisplayViewerGroup group = shard.groups.get(entityId);
+        Set<UUID> viewers = shard.visibility.get(entityId);
+        double radius = shard.grid.radius(entityId);
+        if (group != null) {
+            entity.setAttached(DisplayVisibilityAttachment.RULE, DisplayVisibilityAttachment.Rule.ofGroup(group, radius));
+        } else if (viewers != null) {
+            entity.setAttached(DisplayVisibilityAttachment.RULE, DisplayVisibilityAttachment.Rule.ofViewers(viewers, radius));
+        } else if (radius > 0) {
+            entity.setAttached(DisplayVisibilityAttachment.RULE, DisplayVisibilityAttachment.Rule.ofRadius(radius));
+        } else {
+            entity.removeAttached(DisplayVisibilityAttachment.RULE);
         }
     }
 
     /**
-     * 更新所有玩家对某实体的可见性
+     * 实体开始被追踪前调用（供 Mixin 调用），从附加数据恢复区块卸载前的规则
+     *
+     * 在区块管理器建立追踪之前执行，第一次 addPairing 时分片中已经有该实体的规则；
+     * 引用的观察者组不存在时（例如服务器重启后）按保存的成员来源重新创建，显式组同时恢复保存的成员；
+     * 实体保存的显式组成员比内存中的更新时采用保存的成员，其他实体的客户端状态由定期检查修正
      */
-    private static void updateVisibilityForAllPlayers(Display display, ServerLevel level) {
-        for (ServerPlayer player : level.players()) {
-            if (canPlayerSee(display, player)) {
-                showEntityToPlayer(display, player);
+    public static void onEntityLoad(Entity entity) {
+        DisplayVisibilityAttachment.Rule rule = entity.getAttached(DisplayVisibilityAttachment.RULE);
+        if (rule == null) {
+            return;
+        }
+
+        DisplayVisibilityShard shard = shardOf(entity);
+        if (rule.group() != null) {
+            DisplayViewerGroup group = groups.get(rule.group());
+            if (group == null) {
+                String kind = rule.groupKind() != null ? rule.groupKind() : DisplayViewerGroup.Kind.EXPLICIT.name();
+                if (createGroup(entity.level().getServer(), rule.group(), kind, rule.groupValue())) {
+                    group = groups.get(rule.group());
+                }
+            }
+            if (group != null) {
+                if (group.kind == DisplayViewerGroup.Kind.EXPLICIT && rule.viewers() != null
+                        && rule.revision() > group.revision) {
+                    group.members.clear();
+                    rule.unpackViewers(group.members);
+                    group.markChanged(rule.revision());
+                }
+                shard.bind(entity, group);
+                if (rule.revision() != group.revision) {
+                    // 保存的成员已经过时
+                    persist(shard, entity);
+                }
             } else {
-                hideEntityFromPlayer(display, player);
+                // 保存的成员来源无效，保持隐藏
+                shard.restrict(entity).clear();
             }
+        } else if (rule.viewers() != null) {
+            Set<UUID> viewers = shard.restrict(entity);
+            viewers.clear();
+            rule.unpackViewers(viewers);
+        }
+        if (rule.radius() > 0) {
+            shard.track(entity);
+            shard.grid.add(entity, rule.radius());
+        }
+    }
+
+    // ==================== 查询 ====================
+
+    /**
+     * 检查玩家是否可以看到实体
+     *
+     * @param entity 实体
+     * @param player  玩家
+     * @return 是否可见
+     */
+    public static boolean canPlayerSee(Entity entity, ServerPlayer player) {
+        // 没有限制的实体只检查一个标记位
+        if (!((VisibilityFlag) entity).dpe$isVisibilityRestricted()) {
+            return true;
+        }
+        DisplayVisibilityShard shard = shards.get(entity.level());
+        return shard == null || shard.canSee(entity.getId(), player);
+    }
+
+    /**
+     * 检查实体是否有可见性限制
+     */
+    public static boolean hasVisibilityRestriction(Entity entity) {
+        return ((VisibilityFlag) entity).dpe$isVisibilityRestricted();
+    }
+
+    /**
+     * 检查玩家是否可以看到指定实体（供 Mixin 调用）
+     * 不知道实体所在维度时需要检查所有分片，已知实体时应使用 canPlayerSee
+     */
+    public static boolean canPlayerSeeEntity(int entityId, UUID playerId) {
+        for (DisplayVisibilityShard shard : shards.values()) {
+            if (shard.isRestricted(entityId)) {
+                return shard.canSee(entityId, playerId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取实体的可见玩家列表
+     */
+    public static Set<UUID> getViewers(Entity entity) {
+        DisplayVisibilityShard shard = shards.get(entity.level());
+        Set<UUID> viewers = shard != null ? shard.visibility.get(entity.getId()) : null;
+        return viewers != null ? new HashSet<>(viewers) : null;
+    }
+
+    /**
+     * 对追踪范围内的玩家重新建立追踪，由原版发送生成数据（Mixin 中记录客户端状态）
+     */
+    private static void show(TrackedEntityAccessor tracked, ServerPlayer player) {
+        tracked.getServerEntity().addPairing(player);
+        DpeMetrics.increment(DpeMetrics.Counter.DISPLAY_SHOWN);
+    }
+
+    /**
+     * 对追踪范围内的玩家取消追踪，由原版发送移除实体的包（Mixin 中记录客户端状态）
+     * 玩家仍在追踪记录的 seenBy 中，原版不会在其留在范围内时重新建立追踪
+     */
+    private static void hide(TrackedEntityAccessor tracked, ServerPlayer player) {
+        tracked.getServerEntity().removePairing(player);
+        DpeMetrics.increment(DpeMetrics.Counter.DISPLAY_HIDDEN);
+    }
+
+    /**
+     * 将玩家客户端上的状态与可见性对齐，只处理追踪范围内且状态不一致的玩家
+     */
+    private static void syncPlayer(DisplayVisibilityShard shard, Entity entity, ServerPlayer player) {
+        TrackedEntityAccessor tracked = EntityTracking.getTrackedEntity(entity);
+        if (tracked != null && tracked.getSeenBy().contains(player.connection)) {
+            syncTracked(shard, tracked, entity.getId(), player);
+        }
+    }
+
+    /**
+     * 将所有正在追踪该实体的玩家客户端上的状态与可见性对齐，开销与附近的玩家数量成正比
+     */
+    private static void syncAllPlayers(DisplayVisibilityShard shard, Entity entity) {
+        TrackedEntityAccessor tracked = EntityTracking.getTrackedEntity(entity);
+        if (tracked == null) {
+            return;
+        }
+        int entityId = entity.getId();
+        for (ServerPlayerConnection connection : tracked.getSeenBy()) {
+            syncTracked(shard, tracked, entityId, connection.getPlayer());
+        }
+    }
+
+    private static void syncTracked(DisplayVisibilityShard shard, TrackedEntityAccessor tracked, int entityId, ServerPlayer player) {
+        UUID playerId = player.getUUID();
+        boolean visible = shard.canSee(entityId, player);
+        if (visible == shard.isShown(entityId, playerId)) {
+            return;
+        }
+        if (visible) {
+            show(tracked, player);
+        } else {
+            hide(tracked, player);
         }
     }
 
@@ -265,19 +694,76 @@ public class DisplayVisibilityManager {
      */
     public static void onPlayerDisconnect(ServerPlayer player) {
         UUID playerId = player.getUUID();
-        // 从所有可见性列表中移除该玩家
-        for (Set<UUID> viewers : visibilityMap.values()) {
-            viewers.remove(playerId);
+        // 可见玩家列表与随实体保存的规则一致，保留到重新连接；
+        // 显式组的成员同样保留，队伍和标签组在重新连接时重新计算
+        for (DisplayViewerGroup group : groups.values()) {
+            if (group.kind != DisplayViewerGroup.Kind.EXPLICIT) {
+                group.members.remove(playerId);
+            }
+        }
+        for (DisplayVisibilityShard shard : shards.values()) {
+            shard.grid.removeViewer(playerId);
+        }
+        forgetClientState(player);
+    }
+
+    /**
+     * 玩家的客户端清空了所有实体（重生、切换维度）或断开连接，清除该玩家的客户端状态
+     *
+     * 原版追踪在事件触发前已经重新建立了新位置附近的追踪，这些记录保留；
+     * 其余记录（其他维度、追踪范围外由本模组显示的实体）在客户端上已不存在
+     */
+    public static void forgetClientState(ServerPlayer player) {
+        UUID playerId = player.getUUID();
+        for (DisplayVisibilityShard shard : shards.values()) {
+            boolean sameLevel = shard.level == player.level() && !player.hasDisconnected();
+            for (Int2ObjectMap.Entry<Set<UUID>> entry : shard.shown.int2ObjectEntrySet()) {
+                Set<UUID> clients = entry.getValue();
+                if (!clients.contains(playerId)) continue;
+                Entity entity = shard.entities.get(entry.getIntKey());
+                if (!sameLevel || entity == null || !EntityTracking.isTrackedBy(entity, player)) {
+                    clients.remove(playerId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 实体追踪建立或取消后记录客户端状态（供 Mixin 调用）
+     *
+     * @param present 客户端上是否存在该实体（建立追踪且未被阻止时为 true）
+     */
+    public static void onPairingChanged(Entity entity, ServerPlayer player, boolean present) {
+        DisplayVisibilityShard shard = shards.get(entity.level());
+        if (shard != null) {
+            shard.setShown(entity.getId(), player.getUUID(), present);
         }
     }
 
     /**
-     * 当实体被移除时清理数据
+     * 当实体被移除或所在区块卸载时清理数据，只访问实体所在维度的分片
+     * 规则保存在实体的附加数据中，重新加载时由 onEntityLoad 恢复
      */
     public static void onEntityRemoved(Entity entity) {
-        int entityId = entity.getId();
-        visibilityMap.remove(entityId);
-        restrictedEntities.remove(entityId);
+        if (!((VisibilityFlag) entity).dpe$isVisibilityRestricted()) {
+            return;
+        }
+        DisplayVisibilityShard shard = shards.get(entity.level());
+        if (shard != null) {
+            shard.remove(entity.getId());
+        }
+    }
+
+    /**
+     * 当维度卸载时移除该维度的分片
+     */
+    public static void onLevelUnload(ServerLevel level) {
+        DisplayVisibilityShard shard = shards.remove(level);
+        if (shard != null) {
+            for (DisplayViewerGroup group : shard.groups.values()) {
+                group.entities.removeIf(entity -> entity.level() == level);
+            }
+        }
     }
 
     /**
@@ -285,24 +771,230 @@ public class DisplayVisibilityManager {
      * 返回 true 表示应该阻止默认的追踪行为
      */
     public static boolean shouldBlockTracking(Entity entity, ServerPlayer player) {
-        if (!(entity instanceof Display display)) {
-            return false;
+        return !canPlayerSee(entity, player);
+    }
+
+    /**
+     * 检查所有受限实体的可见性与玩家客户端上的状态是否一致
+     *
+     * 逐个分片比较追踪范围内玩家的可见性与客户端状态，全部比较完成后通过实体追踪执行状态转换；
+     * 原版的追踪记录、实体位置和分片状态都不是线程安全的，因此全部在服务器主线程上执行；状态一致时不发送任何包
+     */
+    public static void refreshAllVisibility(MinecraftServer server) {
+        List<DisplayVisibilityShard> active = new ArrayList<>(shards.size());
+        for (DisplayVisibilityShard shard : shards.values()) {
+            if (!shard.isEmpty() && !shard.level.players().isEmpty()) {
+                relocateMovedDisplays(shard);
+                active.add(shard);
+            }
+        }
+        if (active.isEmpty()) {
+            return;
         }
 
-        return !canPlayerSee(display, player);
+        DpeEvents.Refresh event = new DpeEvents.Refresh();
+        event.begin();
+
+        // 合并各分片的结果，每个玩家的所有状态转换只发送一个捆绑包
+        Map<ServerPlayer, List<Transition>> batches = new HashMap<>();
+        for (DisplayVisibilityShard shard : active) {
+            buildRefresh(shard, batches);
+        }
+        int packetCount = applyBatches(batches);
+
+        if (event.shouldCommit()) {
+            event.pass = "display";
+            event.viewerCount = batches.size();
+            event.packetCount = packetCount;
+            event.commit();
+        }
+    }
+
+    /**
+     * 一个（实体, 玩家）需要执行的状态转换
+     */
+    private record Transition(TrackedEntityAccessor tracked, boolean visible) {
+    }
+
+    /**
+     * 为一个分片比较可见性与客户端状态：应看到但客户端上没有的玩家重新建立追踪，
+     * 不应看到但客户端上有的玩家取消追踪；只比较正在追踪该实体的玩家
+     */
+    private static void buildRefresh(DisplayVisibilityShard shard, Map<ServerPlayer, List<Transition>> batches) {
+        for (Entity entity : shard.entities.values()) {
+            if (!entity.isRemoved()) {
+                collectTransitions(shard, entity, null, batches);
+            }
+        }
+    }
+
+    /**
+     * 比较实体对追踪范围内玩家的可见性与客户端状态，按玩家收集状态转换（只读取状态）
+     *
+     * @param only 只比较该玩家，为 null 时比较所有正在追踪该实体的玩家
+     */
+    private static void collectTransitions(DisplayVisibilityShard shard, Entity entity, ServerPlayer only,
+                                           Map<ServerPlayer, List<Transition>> batches) {
+        TrackedEntityAccessor tracked = EntityTracking.getTrackedEntity(entity);
+        if (tracked == null) {
+            return;
+        }
+
+        int entityId = entity.getId();
+        if (only != null) {
+            if (tracked.getSeenBy().contains(only.connection)) {
+                collectTransition(shard, tracked, entityId, only, batches);
+            }
+            return;
+        }
+        for (ServerPlayerConnection connection : tracked.getSeenBy()) {
+            collectTransition(shard, tracked, entityId, connection.getPlayer(), batches);
+        }
+    }
+
+    private static void collectTransition(DisplayVisibilityShard shard, TrackedEntityAccessor tracked, int entityId,
+                                          ServerPlayer player, Map<ServerPlayer, List<Transition>> batches) {
+        UUID playerId = player.getUUID();
+        boolean visible = shard.canSee(entityId, player);
+        if (visible != shard.isShown(entityId, playerId)) {
+            batches.computeIfAbsent(player, k -> new ArrayList<>()).add(new Transition(tracked, visible));
+        }
     }
 
     /**
-     * 刷新所有受限展示实体的可见性
+     * 对每个玩家执行收集到的状态转换
+     *
+     * @return 发送的数据包数量
+     */
+    private static int applyBatches(Map<ServerPlayer, List<Transition>> batches) {
+        int packetCount = 0;
+        for (Map.Entry<ServerPlayer, List<Transition>> entry : batches.entrySet()) {
+            packetCount += applyTransitions(entry.getKey(), entry.getValue());
+        }
+        return packetCount;
+    }
+
+    /**
+     * 对一个玩家执行一批状态转换
+     *
+     * 逐个调用原版的 addPairing/removePairing（客户端状态和其他模块的追踪钩子照常更新），
+     * 期间发往该玩家的包由 Mixin 交给 capturePacket 收集，结束后所有需要隐藏的实体合并为一个移除实体包，
+     * 与需要显示的实体的生成数据一起合并为捆绑包发送
+     *
+     * @return 发送的数据包数量
      */
-    public static void refreshAllVisibility(net.minecraft.server.MinecraftServer server) {
-        for (ServerLevel level : server.getAllLevels()) {
-            for (Integer entityId : restrictedEntities) {
-                Entity entity = level.getEntity(entityId);
-                if (entity instanceof Display display) {
-                    updateVisibilityForAllPlayers(display, level);
+    private static int applyTransitions(ServerPlayer player, List<Transition> transitions) {
+        if (player.connection == null || player.hasDisconnected()) {
+            return 0;
+        }
+
+        capturedPackets.clear();
+        capturedRemovals.clear();
+        capturingPlayer = player;
+        try {
+            for (Transition transition : transitions) {
+                if (transition.visible) {
+                    show(transition.tracked, player);
+                } else {
+                    hide(transition.tracked, player);
                 }
             }
+        } finally {
+            capturingPlayer = null;
+        }
+
+        // 先移除再生成，同一实体不会同时出现在两者中
+        List<Packet<? super ClientGamePacketListener>> packets = new ArrayList<>(capturedPackets.size() + 1);
+        if (!capturedRemovals.isEmpty()) {
+            packets.add(new ClientboundRemoveEntitiesPacket(new IntArrayList(capturedRemovals)));
+        }
+        packets.addAll(capturedPackets);
+        capturedPackets.clear();
+        capturedRemovals.clear();
+
+        sendBatch(player, packets);
+        return packets.size();
+    }
+
+    /**
+     * 批量执行状态转换期间收集发往该玩家的数据包（供 Mixin 调用）
+     * addPairing 发送的捆绑包展开为子包，removePairing 发送的移除实体包合并实体ID
+     *
+     * @return 是否已收集，已收集时调用方应取消原来的发送
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean capturePacket(ServerPlayer player, Packet<?> packet) {
+        if (player != capturingPlayer || !player.level().getServer().isSameThread()) {
+            return false;
+        }
+        if (packet instanceof ClientboundRemoveEntitiesPacket remove) {
+            capturedRemovals.addAll(remove.getEntityIds());
+        } else if (packet instanceof ClientboundBundlePacket bundle) {
+            for (Packet<? super ClientGamePacketListener> subPacket : bundle.subPackets()) {
+                capturedPackets.add(subPacket);
+            }
+        } else {
+            capturedPackets.add((Packet<? super ClientGamePacketListener>) packet);
+        }
+        return true;
+    }
+
+    /**
+     * 是否正在收集数据包（供 Mixin 调用），为 false 时发送数据包不需要任何额外处理
+     */
+    public static boolean isCapturingPackets() {
+        return capturingPlayer != null;
+    }
+
+    /**
+     * 将一组包合并为捆绑包发送给玩家
+     */
+    private static void sendBatch(ServerPlayer player, List<Packet<? super ClientGamePacketListener>> packets) {
+        if (packets.isEmpty()) {
+            return;
+        }
+        DpeMetrics.packets(DpeMetrics.Source.DISPLAY, packets);
+        if (packets.size() == 1) {
+            player.connection.send(packets.get(0));
+            return;
         }
+        // 单个捆绑包的子包数量有上限，超出时分批发送
+        for (int from = 0; from < packets.size(); from += MAX_BUNDLE_SIZE) {
+            int to = Math.min(from + MAX_BUNDLE_SIZE, packets.size());
+            ClientboundBundlePacket bundle = new ClientboundBundlePacket(packets.subList(from, to));
+            player.connection.send(bundle);
+            DpeMetrics.packet(DpeMetrics.Source.DISPLAY, bundle);
+        }
+    }
+
+    /**
+     * 注册可见性状态大小指标，回调只在读取指标时于服务器主线程上调用
+     */
+    public static void registerMetrics() {
+        DpeMetrics.gauge("dpe_display_restricted", "Entities with a visibility restriction", () -> {
+            long count = 0;
+            for (DisplayVisibilityShard shard : shards.values()) {
+                count += shard.entities.size();
+            }
+            return count;
+        });
+        DpeMetrics.gauge("dpe_display_viewer_entries", "Allowed (entity, viewer) entries", () -> {
+            long count = 0;
+            for (DisplayVisibilityShard shard : shards.values()) {
+                for (Set<UUID> viewers : shard.visibility.values()) {
+                    count += viewers.size();
+                }
+            }
+            return count;
+        });
+        DpeMetrics.gauge("dpe_display_level_shards", "Dimensions with restricted entities", shards::size);
+        DpeMetrics.gauge("dpe_display_viewer_groups", "Visibility viewer groups", groups::size);
+        DpeMetrics.gauge("dpe_display_view_radius", "Entities with a view radius", () -> {
+            long count = 0;
+            for (DisplayVisibilityShard shard : shards.values()) {
+                count += shard.grid.size();
+            }
+            return count;
+        });
     }
 }
@@ -0,0 +1,173 @@
+package com.lootmatrix.display;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import com.lootmatrix.util.EntityTracking;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.ServerPlayerConnection;
+import net.minecraft.world.entity.Entity;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 单个维度的实体可见性状态
+ *
+ * 只保存该维度中的受限实体，刷新和清理只需要遍历对应维度的分片，
+ * 不需要对其他维度的实体ID调用 level.getEntity
+ * 同时记录每个受限实体当前在哪些玩家的客户端上存在，可见性变化时只发送状态转换（隐藏->显示、显示->隐藏）
+ * 受限包括限制可见玩家和设置可见距离，两者可以同时存在
+ * 非线程安全，只应在服务器主线程访问
+ */
+final class DisplayVisibilityShard {
+
+    final ServerLevel level;
+
+    // 实体ID -> 受限实体（不在此表中表示对所有人可见，在任何距离可见）
+    final Int2ObjectOpenHashMap<Entity> entities = new Int2ObjectOpenHashMap<>();
+
+    // 实体ID -> 可见玩家UUID集合（集合为空表示对所有人不可见，没有条目表示不限制可见玩家）
+    // 引用观察者组的实体直接使用组的成员集合，不复制
+    final Int2ObjectOpenHashMap<Set<UUID>> visibility = new Int2ObjectOpenHashMap<>();
+
+    // 实体ID -> 引用的观察者组
+    final Int2ObjectOpenHashMap<DisplayViewerGroup> groups = new Int2ObjectOpenHashMap<>();
+
+    // 实体ID -> 客户端上当前存在该实体的玩家UUID集合
+    // 由实体追踪（addPairing/removePairing）维护
+    final Int2ObjectOpenHashMap<Set<UUID>> shown = new Int2ObjectOpenHashMap<>();
+
+    // 设置了可见距离的实体
+    final DisplayViewGrid grid = new DisplayViewGrid();
+
+    DisplayVisibilityShard(ServerLevel level) {
+        this.level = level;
+    }
+
+    /**
+     * 将实体标记为受限，返回其自己的可见玩家集合（可以修改）
+     * 第一次受限时，正在追踪该实体的玩家的客户端上已经存在该实体；
+     * 引用观察者组时解除引用，以组的当前成员作为自己的可见玩家
+     */
+    Set<UUID> restrict(Entity entity) {
+        int entityId = entity.getId();
+        DisplayViewerGroup group = groups.remove(entityId);
+        if (group != null) {
+            group.entities.remove(entity);
+            Set<UUID> copy = new ObjectOpenHashSet<>(group.members);
+            visibility.put(entityId, copy);
+            return copy;
+        }
+
+        Set<UUID> viewers = visibility.get(entityId);
+        if (viewers == null) {
+            track(entity);
+            viewers = new ObjectOpenHashSet<>();
+            visibility.put(entityId, viewers);
+        }
+        return viewers;
+    }
+
+    /**
+     * 将实体加入分片并开始记录客户端状态，不改变可见玩家限制
+     * 第一次加入时，正在追踪该实体的玩家的客户端上已经存在该实体
+     */
+    void track(Entity entity) {
+        int entityId = entity.getId();
+        if (entities.containsKey(entityId)) {
+            return;
+        }
+        entities.put(entityId, entity);
+        ((VisibilityFlag) entity).dpe$setVisibilityRestricted(true);
+
+        Set<UUID> clients = new ObjectOpenHashSet<>();
+        for (ServerPlayerConnection connection : EntityTracking.getSeenBy(entity)) {
+            clients.add(connection.getPlayer().getUUID());
+        }
+        shown.put(entityId, clients);
+    }
+
+    /**
+     * 解除可见玩家限制（包括对观察者组的引用），保留可见距离
+     */
+    void clearViewers(Entity entity) {
+        int entityId = entity.getId();
+        DisplayViewerGroup group = groups.remove(entityId);
+        if (group != null) {
+            group.entities.remove(entity);
+        }
+        visibility.remove(entityId);
+    }
+
+    /**
+     * 让实体引用观察者组，可见玩家即为组的成员
+     */
+    void bind(Entity entity, DisplayViewerGroup group) {
+        restrict(entity);
+        int entityId = entity.getId();
+        groups.put(entityId, group);
+        visibility.put(entityId, group.members);
+        group.entities.add(entity);
+    }
+
+    void remove(int entityId) {
+        DisplayViewerGroup group = groups.remove(entityId);
+        Entity entity = entities.remove(entityId);
+        if (entity != null) {
+            ((VisibilityFlag) entity).dpe$setVisibilityRestricted(false);
+        }
+        if (group != null) {
+            group.entities.remove(entity);
+        }
+        visibility.remove(entityId);
+        shown.remove(entityId);
+        grid.remove(entityId);
+    }
+
+    /**
+     * 玩家的客户端上当前是否存在该受限实体
+     */
+    boolean isShown(int entityId, UUID playerId) {
+        Set<UUID> clients = shown.get(entityId);
+        return clients != null && clients.contains(playerId);
+    }
+
+    /**
+     * 记录受限实体在玩家客户端上的状态，未受限的实体不记录
+     */
+    void setShown(int entityId, UUID playerId, boolean present) {
+        Set<UUID> clients = shown.get(entityId);
+        if (clients == null) {
+            return;
+        }
+        if (present) {
+            clients.add(playerId);
+        } else {
+            clients.remove(playerId);
+        }
+    }
+
+    boolean isRestricted(int entityId) {
+        return entities.containsKey(entityId);
+    }
+
+    /**
+     * 玩家是否在可见玩家中（不考虑可见距离）
+     */
+    boolean canSee(int entityId, UUID playerId) {
+        Set<UUID> viewers = visibility.get(entityId);
+        return viewers == null || viewers.contains(playerId);
+    }
+
+    /**
+     * 玩家是否在可见玩家中，且所在位置在可见距离内
+     */
+    boolean canSee(int entityId, ServerPlayer player) {
+        return canSee(entityId, player.getUUID()) && grid.inRange(entityId, player);
+    }
+
+    boolean isEmpty() {
+        return entities.isEmpty();
+    }
+}
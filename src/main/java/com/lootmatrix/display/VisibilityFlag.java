@@ -0,0 +1,14 @@
+package com.lootmatrix.display;
+
+/**
+ * 实体上的可见性限制标记位，由 EntityVisibilityFlagMixin 添加到所有实体上
+ *
+ * 标记位与分片同步维护：实体加入分片时置位，从分片移除时清除
+ * 实体追踪的热路径先检查该标记位，没有限制的实体不需要查找维度分片和实体ID
+ */
+public interface VisibilityFlag {
+
+    boolean dpe$isVisibilityRestricted();
+
+    void dpe$setVisibilityRestricted(boolean restricted);
+}
@@ -0,0 +1,39 @@
+package com.lootmatrix.glow;
+
+import java.util.List;
+
+/**
+ * 发光颜色动画：按固定周期循环切换颜色
+ *
+ * 所有动画都对齐到同一个全局动画时钟，相同的动画（颜色序列和周期都相同）的所有发光对处于同一相位，
+ * 每一步只需要为每个观察者的每种颜色发送一个多成员的队伍包
+ *
+ * @param colors 颜色序列
+ * @param period 每种颜色持续的 tick 数
+ */
+public record GlowAnimation(List<GlowColor> colors, int period) {
+
+    public GlowAnimation {
+        if (colors.isEmpty()) {
+            throw new IllegalArgumentException("Animation needs at least one color");
+        }
+        if (period < 1) {
+            throw new IllegalArgumentException("Animation period must be positive");
+        }
+        colors = List.copyOf(colors);
+    }
+
+    /**
+     * 获取动画时钟为 clock 时的颜色
+     */
+    public GlowColor colorAt(long clock) {
+        return colors.get((int) ((clock / period) % colors.size()));
+    }
+
+    /**
+     * 动画时钟为 clock 时是否切换到下一种颜色（只有一种颜色时颜色不变，只清理失效的成员）
+     */
+    boolean stepsAt(long clock) {
+        return clock % period == 0;
+    }
+}
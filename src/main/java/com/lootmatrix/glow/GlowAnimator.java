@@ -0,0 +1,116 @@
+package com.lootmatrix.glow;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import net.minecraft.world.entity.Entity;
+
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * 按动画分组的动画发光对
+ *
+ * 相同动画的所有（观察者, 目标）对放在同一组中，每 tick 只检查各组是否需要切换颜色，
+ * 切换时整组一起改变颜色；成员被移除、覆盖时不从组中删除，切换时由调用方判断是否仍属于该动画
+ * 非线程安全，只应在服务器主线程调用
+ */
+final class GlowAnimator {
+
+    /**
+     * 切换颜色时对每个成员调用
+     */
+    @FunctionalInterface
+    interface StepConsumer {
+        /**
+         * @return 成员是否仍属于该动画，返回 false 时从组中移除
+         */
+        boolean step(UUID viewerId, Entity target, GlowAnimation animation, byte color);
+    }
+
+    /**
+     * 使用同一动画的所有发光对
+     */
+    private static final class Group {
+        // 组内共用的动画实例
+        final GlowAnimation animation;
+        // 观察者UUID -> (目标实体ID -> 目标实体)
+        final Object2ObjectOpenHashMap<UUID, Int2ObjectOpenHashMap<Entity>> members = new Object2ObjectOpenHashMap<>();
+
+        Group(GlowAnimation animation) {
+            this.animation = animation;
+        }
+    }
+
+    private final Object2ObjectOpenHashMap<GlowAnimation, Group> groups = new Object2ObjectOpenHashMap<>();
+
+    // 全局动画时钟
+    private long clock;
+
+    long clock() {
+        return clock;
+    }
+
+    boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    int groupCount() {
+        return groups.size();
+    }
+
+    /**
+     * 将发光对加入动画所在的组
+     *
+     * @return 该组使用的动画实例，相同的动画共用一个实例，可以直接按引用比较
+     */
+    GlowAnimation add(GlowAnimation animation, UUID viewerId, Entity target) {
+        Group group = groups.get(animation);
+        if (group == null) {
+            group = new Group(animation);
+            groups.put(animation, group);
+        }
+        group.members.computeIfAbsent(viewerId, k -> new Int2ObjectOpenHashMap<>()).put(target.getId(), target);
+        return group.animation;
+    }
+
+    /**
+     * 推进动画时钟，对需要切换颜色的组中的每个成员调用回调
+     */
+    void advance(StepConsumer consumer) {
+        long now = ++clock;
+        if (groups.isEmpty()) {
+            return;
+        }
+
+        Iterator<Group> groupIterator = groups.values().iterator();
+        while (groupIterator.hasNext()) {
+            Group group = groupIterator.next();
+            GlowAnimation animation = group.animation;
+            if (!animation.stepsAt(now)) {
+                continue;
+            }
+
+            byte color = GlowStateStore.toOrdinal(animation.colorAt(now));
+            Iterator<Object2ObjectMap.Entry<UUID, Int2ObjectOpenHashMap<Entity>>> viewerIterator =
+                    group.members.object2ObjectEntrySet().fastIterator();
+            while (viewerIterator.hasNext()) {
+                Object2ObjectMap.Entry<UUID, Int2ObjectOpenHashMap<Entity>> viewer = viewerIterator.next();
+                UUID viewerId = viewer.getKey();
+                Iterator<Int2ObjectMap.Entry<Entity>> memberIterator = viewer.getValue().int2ObjectEntrySet().fastIterator();
+                while (memberIterator.hasNext()) {
+                    if (!consumer.step(viewerId, memberIterator.next().getValue(), animation, color)) {
+                        memberIterator.remove();
+                    }
+                }
+                if (viewer.getValue().isEmpty()) {
+                    viewerIterator.remove();
+                }
+            }
+            if (group.members.isEmpty()) {
+                groupIterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.lootmatrix.glow;
+
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+import java.util.UUID;
+
+/**
+ * 待重新同步的（观察者, 目标实体ID）集合
+ *
+ * 记录客户端状态可能与服务端不一致的发光对，在 tick 结束时统一重发
+ * 非线程安全，只应在服务器主线程调用
+ */
+final class GlowDirtySet {
+
+    // 观察者UUID -> 待同步的目标实体ID集合
+    private Object2ObjectOpenHashMap<UUID, IntOpenHashSet> pending = new Object2ObjectOpenHashMap<>();
+
+    void mark(UUID viewerId, int entityId) {
+        IntOpenHashSet ids = pending.get(viewerId);
+        if (ids == null) {
+            ids = new IntOpenHashSet();
+            pending.put(viewerId, ids);
+        }
+        ids.add(entityId);
+    }
+
+    void markAll(UUID viewerId, IntCollection entityIds) {
+        IntOpenHashSet ids = pending.get(viewerId);
+        if (ids == null) {
+            pending.put(viewerId, new IntOpenHashSet(entityIds));
+        } else {
+            ids.addAll(entityIds);
+        }
+    }
+
+    void removeViewer(UUID viewerId) {
+        pending.remove(viewerId);
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * 取出当前所有待同步的对并清空（处理期间新标记的对留到下一次）
+     */
+    Object2ObjectOpenHashMap<UUID, IntOpenHashSet> drain() {
+        Object2ObjectOpenHashMap<UUID, IntOpenHashSet> drained = pending;
+        pending = new Object2ObjectOpenHashMap<>();
+        return drained;
+    }
+}
@@ -1,5 +1,8 @@
 package com.lootmatrix.glow;
 
+import com.lootmatrix.util.DpeMetrics;
+import net.fabricmc.fabric.api.entity.event.v1.ServerEntityWorldChangeEvents;
+import net.fabricmc.fabric.api.entity.event.v1.ServerPlayerEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
@@ -12,16 +15,28 @@ import net.minecraft.server.MinecraftServer;
  * 处理以下场景以避免不同步问题：
  * 1. 玩家断开连接 - 清理发光数据
  * 2. 实体被移除 - 清理发光数据
- * 3. 定期刷新发光效果 - 确保效果持续
- * 4. 服务器启动 - 初始化队伍
+ * 3. 重生、切换维度 - 将观察者状态迁移到所在维度的分片，并标记该观察者的发光效果需要重新同步
+ * 4. 每 tick 结束时处理到期和动画切换的发光效果并发送合并后的发光变更，并重发被标记的发光对；全量刷新在增量模式下仅作为可选的保险
+ * 5. 服务器启动 - 初始化队伍
+ * 6. 玩家加入 - 绑定持久化的发光记录或按发光规则解析自己对自己的发光效果
+ * 7. 持久化的发光记录在服务器启动时读取，定期及关闭时在 IO 线程上保存
  */
 public class GlowEventHandler {
 
-    // 刷新间隔（tick）- 每秒刷新一次
+    // 全量模式刷新间隔（tick）- 每秒刷新一次
     private static final int REFRESH_INTERVAL = 20;
+    // 增量模式下的保险全量刷新间隔（tick）- 默认每30秒一次，0 表示关闭
+    private static final int DEFAULT_SAFETY_REFRESH_INTERVAL = 600;
+    private static int safetyRefreshInterval = DEFAULT_SAFETY_REFRESH_INTERVAL;
     private static int tickCounter = 0;
+    // 持久化的发光记录的保存间隔（tick）
+    private static final int SAVE_INTERVAL = 200;
+    private static int saveCounter = 0;
 
     public static void register() {
+        // 注册状态大小指标
+        GlowManager.registerMetrics();
+
         // 玩家断开连接时清理
         ServerPlayConnectionEvents.DISCONNECT.register((handler, server) ->
             GlowManager.onPlayerDisconnect(handler.getPlayer()));
@@ -30,26 +45,90 @@ public class GlowEventHandler {
         ServerEntityEvents.ENTITY_UNLOAD.register((entity, world) ->
             GlowManager.onEntityRemoved(entity));
 
-        // 服务器启动时初始化队伍
-        ServerLifecycleEvents.SERVER_STARTED.register(server ->
-            GlowManager.initializeTeams(server.getScoreboard()));
+        // 重生后客户端重新创建了实体，标记需要重新同步（可能重生在其他维度，同时迁移状态）
+        ServerPlayerEvents.AFTER_RESPAWN.register((oldPlayer, newPlayer, alive) ->
+            GlowManager.onViewerLevelChanged(newPlayer));
+
+        // 切换维度后客户端重新创建了实体，将状态迁移到新维度的分片并标记需要重新同步
+        ServerEntityWorldChangeEvents.AFTER_PLAYER_CHANGE_WORLD.register((player, origin, destination) ->
+            GlowManager.onViewerLevelChanged(player));
+
+        // 服务器启动时初始化队伍，并读取持久化的发光记录
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            GlowManager.initializeTeams(server.getScoreboard());
+            GlowManager.loadPersistentGlow(server);
+        });
+
+        // 服务器关闭时保存持久化的发光记录
+        ServerLifecycleEvents.SERVER_STOPPING.register(server ->
+            GlowManager.closePersistentGlow());
 
-        // 定期刷新发光效果（每秒一次）
+        // 每 tick 重发被标记的发光对，并定期全量刷新
         ServerTickEvents.END_SERVER_TICK.register(GlowEventHandler::onServerTick);
 
         // 玩家加入时刷新（处理重连场景）
         ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
-            // 玩家重新连接后，他们之前设置的发光效果已被清除
-            // 如果需要持久化，可以在这里从存储恢复
+            // 其他目标的持久化记录和规则在建立追踪时惰性处理，这里只处理玩家自己
+            GlowManager.onPlayerJoin(handler.getPlayer());
         });
     }
 
     private static void onServerTick(MinecraftServer server) {
+        // 处理到期的发光效果，移除与本 tick 的其他变更一起发送
+        long start = DpeMetrics.start();
+        GlowManager.tickExpirations(server);
+        DpeMetrics.record(DpeMetrics.Timer.GLOW_EXPIRATIONS, start);
+
+        // 切换动画发光的颜色
+        start = DpeMetrics.start();
+        GlowManager.tickAnimations();
+        DpeMetrics.record(DpeMetrics.Timer.GLOW_ANIMATIONS, start);
+
+        // 发送本 tick 合并后的发光变更
+        start = DpeMetrics.start();
+        GlowManager.flushJournal(server);
+        DpeMetrics.record(DpeMetrics.Timer.GLOW_FLUSH_JOURNAL, start);
+
+        // 只重发客户端状态可能不一致的发光对
+        start = DpeMetrics.start();
+        GlowManager.flushDirty(server);
+        DpeMetrics.record(DpeMetrics.Timer.GLOW_FLUSH_DIRTY, start);
+
+        // 定期保存持久化的发光记录（没有修改时不做任何事）
+        if (++saveCounter >= SAVE_INTERVAL) {
+            saveCounter = 0;
+            GlowManager.savePersistentGlow();
+        }
+
+        int interval = GlowManager.getResyncMode() == GlowResyncMode.FULL
+                ? REFRESH_INTERVAL
+                : safetyRefreshInterval;
+        if (interval <= 0) {
+            tickCounter = 0;
+            return;
+        }
+
         tickCounter++;
-        if (tickCounter >= REFRESH_INTERVAL) {
+        if (tickCounter >= interval) {
             tickCounter = 0;
             // 刷新所有发光效果
+            start = DpeMetrics.start();
             GlowManager.refreshAllGlow(server);
+            DpeMetrics.record(DpeMetrics.Timer.GLOW_REFRESH, start);
         }
     }
+
+    public static int getSafetyRefreshInterval() {
+        return safetyRefreshInterval;
+    }
+
+    /**
+     * 设置增量模式下的保险全量刷新间隔
+     *
+     * @param interval 间隔（tick），0 表示关闭
+     */
+    public static void setSafetyRefreshInterval(int interval) {
+        safetyRefreshInterval = Math.max(0, interval);
+        tickCounter = 0;
+    }
 }
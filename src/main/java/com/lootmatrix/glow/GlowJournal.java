@@ -0,0 +1,48 @@
+package com.lootmatrix.glow;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import net.minecraft.world.entity.Entity;
+
+import java.util.UUID;
+
+/**
+ * 每 tick 的发光操作日志
+ *
+ * 只记录本 tick 内被修改过的（观察者, 目标实体），不记录具体操作：
+ * 目标状态以 GlowStateStore 中的最终记录为准（最后一次写入生效），
+ * 在 tick 结束时与客户端上的队伍状态对比，只发送差异，互相抵消的操作不会产生任何数据包
+ *
+ * 非线程安全，只应在服务器主线程调用
+ */
+final class GlowJournal {
+
+    // 观察者UUID -> (目标实体ID -> 目标实体)
+    private Object2ObjectOpenHashMap<UUID, Int2ObjectOpenHashMap<Entity>> touched = new Object2ObjectOpenHashMap<>();
+
+    void record(UUID viewerId, Entity target) {
+        Int2ObjectOpenHashMap<Entity> targets = touched.get(viewerId);
+        if (targets == null) {
+            targets = new Int2ObjectOpenHashMap<>();
+            touched.put(viewerId, targets);
+        }
+        targets.put(target.getId(), target);
+    }
+
+    void removeViewer(UUID viewerId) {
+        touched.remove(viewerId);
+    }
+
+    boolean isEmpty() {
+        return touched.isEmpty();
+    }
+
+    /**
+     * 取出本 tick 的所有记录并清空
+     */
+    Object2ObjectOpenHashMap<UUID, Int2ObjectOpenHashMap<Entity>> drain() {
+        Object2ObjectOpenHashMap<UUID, Int2ObjectOpenHashMap<Entity>> drained = touched;
+        touched = new Object2ObjectOpenHashMap<>();
+        return drained;
+    }
+}
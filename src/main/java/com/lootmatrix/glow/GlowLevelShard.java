@@ -0,0 +1,37 @@
+package com.lootmatrix.glow;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+
+import java.util.UUID;
+
+/**
+ * 单个维度的发光目标和观察者状态
+ *
+ * 只保存该维度中有发光记录的目标实体，按实体ID查找目标时不需要调用 level.getEntity，
+ * 也不会在观察者所在维度之外的维度中查找；目标的最后一条发光记录被移除时移出分片
+ * 观察者的状态（发光记录、客户端队伍状态、追踪中的目标）归观察者当前所在维度的分片所有，
+ * 观察者切换维度时迁移到新维度的分片；追踪关系只存在于同一维度内，刷新时只需遍历该分片的观察者
+ * GlowStateStore 中按UUID的查找表引用同一个状态对象
+ * 只在服务器主线程访问
+ */
+final class GlowLevelShard {
+
+    final ServerLevel level;
+
+    // 实体ID -> 目标实体
+    final Int2ObjectOpenHashMap<Entity> targets = new Int2ObjectOpenHashMap<>();
+
+    // 该维度中的观察者UUID -> 观察者状态
+    final Object2ObjectOpenHashMap<UUID, GlowStateStore.ViewerState> viewers = new Object2ObjectOpenHashMap<>();
+
+    GlowLevelShard(ServerLevel level) {
+        this.level = level;
+    }
+
+    boolean isEmpty() {
+        return targets.isEmpty() && viewers.isEmpty();
+    }
+}
@@ -1,17 +1,30 @@
 package com.lootmatrix.glow;
 
+import com.lootmatrix.util.DpeEvents;
+import com.lootmatrix.util.DpeMetrics;
+import com.lootmatrix.util.EntityTracking;
+import it.unimi.dsi.fastutil.ints.Int2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.*;
 import net.minecraft.network.syncher.EntityDataAccessor;
-import net.minecraft.network.syncher.EntityDataSerializers;
 import net.minecraft.network.syncher.SynchedEntityData;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.ServerPlayerConnection;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.scores.PlayerTeam;
+import net.minecraft.world.level.storage.LevelResource;
 import net.minecraft.world.scores.Scoreboard;
 
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 服务端发光效果管理器
@@ -21,27 +34,66 @@ import java.util.concurrent.ConcurrentHashMap;
  * 2. 使用 SetPlayerTeamPacket 将实体"虚拟地"加入带颜色的队伍（仅对特定玩家发包）
  * 3. 通过 Mixin 拦截服务器发送的实体数据包，确保发光标志不被覆盖
  * 4. 不同玩家可以看到不同颜色，因为数据包是独立发送的
+ * 5. 添加/移除操作先写入状态并记入当 tick 的操作日志，在 tick 结束时按
+ *    （观察者, 颜色, 动作）合并成多成员的队伍包，每个观察者只发送一个捆绑包
+ * 6. 发光数据只在目标与观察者建立追踪（addPairing）后发送，取消追踪（removePairing）后
+ *    不再参与每 tick 的工作，开销与可见目标数量成正比，而不是与所有已登记的目标成正比
+ * 7. 声明式规则（观察者队伍/标签 × 目标队伍/标签/类型 → 颜色）在建立追踪时按需解析，
+ *    队伍或标签变化时增量重新求值，显式设置的发光效果优先于规则
+ * 8. 显式设置的发光效果同时按（目标UUID, 观察者UUID）持久化，区块卸载、重连和重启后
+ *    在重新建立追踪时惰性绑定到当前的实体ID，文件写入在 IO 线程上进行
+ * 9. 有持续时间的发光效果由分层时间轮到期，每 tick 只处理到期的条目，到期移除与其他变更一起合并发送
+ * 10. 动画发光按动画分组并对齐到全局动画时钟，每一步对每个观察者的每种颜色只发送一个多成员的队伍包
+ * 11. 发光目标和观察者状态按维度分片，按实体ID查找目标只访问分片，观察者切换维度时状态迁移到新维度的分片；
+ *     定期全量刷新按分片只遍历该维度的观察者，在服务器主线程上构建并发送
  *
  * 这是纯服务端实现，客户端不需要安装任何模组
  */
 public class GlowManager {
 
-    // 存储每个玩家看到的发光信息: 观察者UUID -> (目标实体ID -> 发光颜色)
-    private static final Map<UUID, Map<Integer, GlowColor>> playerGlowMap = new ConcurrentHashMap<>();
+    // 发光状态存储：观察者 -> (目标实体ID -> 颜色)、客户端队伍状态、实体 -> 观察者反向索引、实体名称缓存
+    // 所有按实体的操作只需遍历该实体的观察者
+    private static final GlowStateStore store = new GlowStateStore();
 
-    // 存储每个实体原始的发光状态，用于恢复
-    private static final Map<Integer, Byte> originalFlags = new ConcurrentHashMap<>();
+    // 存储每个实体原始的发光状态，用于恢复: 实体ID -> 原始flags
+    private static final Int2ByteOpenHashMap originalFlags = new Int2ByteOpenHashMap();
 
-    // 追踪每个玩家客户端上实体所在的队伍: 观察者UUID -> (目标实体ID -> 队伍颜色)
-    // 用于防止向客户端发送移除不存在的队伍成员的包
-    private static final Map<UUID, Map<Integer, GlowColor>> playerTeamStateMap = new ConcurrentHashMap<>();
+    // 本 tick 内被修改、等待在 tick 结束时统一发送的（观察者, 目标）对
+    private static final GlowJournal journal = new GlowJournal();
 
-    // 缓存实体ID到队伍名称的映射，用于快速查找
-    // 实体ID -> 实体在队伍系统中的名称（玩家名或UUID字符串）
-    private static final Map<Integer, String> entityTeamCache = new ConcurrentHashMap<>();
+    // 客户端状态可能不一致、等待在 tick 结束时重发的（观察者, 目标）对
+    private static final GlowDirtySet dirtyPairs = new GlowDirtySet();
 
-    // 反向缓存：实体名称 -> 实体ID，用于快速反向查找
-    private static final Map<String, Integer> entityNameToIdCache = new ConcurrentHashMap<>();
+    // 真实队伍发生变更、需要在 tick 结束时重新加入发光队伍的（观察者, 目标）对
+    private static final GlowDirtySet teamDirtyPairs = new GlowDirtySet();
+
+    // 声明式发光规则，只保存条件本身
+    private static final GlowRuleSet rules = new GlowRuleSet();
+
+    // 持久化的发光记录：目标UUID -> (观察者UUID -> 颜色)，不随实体卸载或玩家断开而清除
+    private static final GlowPersistence persistence = new GlowPersistence();
+
+    // 有持续时间的发光效果的到期时间轮
+    private static final GlowTimingWheel expirations = new GlowTimingWheel();
+
+    // 按动画分组的动画发光对
+    private static final GlowAnimator animator = new GlowAnimator();
+
+    // 维度 -> 该维度的发光目标和观察者状态
+    private static final Reference2ObjectOpenHashMap<Level, GlowLevelShard> shards = new Reference2ObjectOpenHashMap<>();
+
+    // 记分板成员名称（不区分大小写）-> 真实队伍，用于移除发光时恢复真实队伍
+    private static final GlowTeamIndex teamIndex = new GlowTeamIndex();
+
+    // 持久化文件路径，服务器启动后才确定
+    private static Path persistenceFile;
+    private static final String PERSISTENCE_FILE_NAME = "dpe_glow.dat";
+
+    // 重新同步模式，默认只重发有变化的发光对
+    private static GlowResyncMode resyncMode = GlowResyncMode.INCREMENTAL;
+
+    // 是否在原版广播实体数据包时为观察者改写发光位（否则在原版的包之后补发发光包）
+    private static volatile boolean entityDataRewrite = true;
 
     // 线程局部变量：标记当前线程正在发送内部队伍恢复包
     // 这样 Mixin 可以跳过这些包，避免恢复包被错误拦截
@@ -51,6 +103,9 @@ public class GlowManager {
     private static final int SHARED_FLAGS_INDEX = 0;
     private static final byte GLOWING_FLAG = 0x40;
 
+    // 单个捆绑包允许的最大子包数量
+    private static final int MAX_BUNDLE_SIZE = 4096;
+
     /**
      * 为指定玩家添加对目标实体的发光效果
      *
@@ -59,7 +114,157 @@ public class GlowManager {
      * @param color    发光颜色
      */
     public static void addGlow(ServerPlayer viewer, Entity target, GlowColor color) {
-        UUID viewerId = viewer.getUUID();
+        addGlow(viewer, target, color, 0);
+    }
+
+    /**
+     * 为指定玩家添加对目标实体的发光效果，经过指定的 tick 数后自动移除
+     * 有持续时间的发光效果不会被持久化
+     *
+     * @param viewer   观察者玩家
+     * @param target   目标实体
+     * @param color    发光颜色
+     * @param ttlTicks 持续时间（tick），0 表示永久
+     */
+    public static void addGlow(ServerPlayer viewer, Entity target, GlowColor color, int ttlTicks) {
+        prepareTarget(target);
+        addGlowPair(viewer, target, GlowStateStore.toOrdinal(color), EntityTracking.getSeenBy(target), ttlTicks, null);
+    }
+
+    /**
+     * 批量为多个观察者添加对多个目标实体的发光效果
+     *
+     * 每个目标只解析一次（原始flags、队伍名称、追踪列表），状态批量更新并记入操作日志，
+     * 在 tick 结束时每个观察者只收到一个捆绑包，每种颜色只有一个多成员的队伍包
+     *
+     * @param targets 目标实体
+     * @param viewers 观察者玩家
+     * @param color   发光颜色
+     * @return 添加的（观察者, 目标）对数量
+     */
+    public static int addGlow(Collection<? extends Entity> targets, Collection<ServerPlayer> viewers, GlowColor color) {
+        return addGlow(targets, viewers, color, 0);
+    }
+
+    /**
+     * 批量为多个观察者添加对多个目标实体的发光效果，经过指定的 tick 数后自动移除
+     * 同一批添加的发光效果在同一 tick 到期，到期移除也会合并发送
+     *
+     * @param targets  目标实体
+     * @param viewers  观察者玩家
+     * @param color    发光颜色
+     * @param ttlTicks 持续时间（tick），0 表示永久
+     * @return 添加的（观察者, 目标）对数量
+     */
+    public static int addGlow(Collection<? extends Entity> targets, Collection<ServerPlayer> viewers, GlowColor color, int ttlTicks) {
+        byte colorId = GlowStateStore.toOrdinal(color);
+        int count = 0;
+
+        for (Entity target : targets) {
+            prepareTarget(target);
+            Set<ServerPlayerConnection> seenBy = EntityTracking.getSeenBy(target);
+
+            for (ServerPlayer viewer : viewers) {
+                addGlowPair(viewer, target, colorId, seenBy, ttlTicks, null);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * 为指定玩家添加对目标实体的动画发光效果
+     *
+     * @param viewer    观察者玩家
+     * @param target    目标实体
+     * @param animation 颜色动画
+     */
+    public static void addAnimatedGlow(ServerPlayer viewer, Entity target, GlowAnimation animation) {
+        addAnimatedGlow(List.of(target), List.of(viewer), animation, 0);
+    }
+
+    /**
+     * 批量为多个观察者添加对多个目标实体的动画发光效果
+     *
+     * 相同的动画共用一个组，所有成员同时切换颜色；动画发光不会被持久化
+     *
+     * @param targets   目标实体
+     * @param viewers   观察者玩家
+     * @param animation 颜色动画
+     * @param ttlTicks  持续时间（tick），0 表示永久
+     * @return 添加的（观察者, 目标）对数量
+     */
+    public static int addAnimatedGlow(Collection<? extends Entity> targets, Collection<ServerPlayer> viewers,
+                                      GlowAnimation animation, int ttlTicks) {
+        // 从当前相位开始，与同一动画的其他发光对保持一致
+        byte colorId = GlowStateStore.toOrdinal(animation.colorAt(animator.clock()));
+        int count = 0;
+
+        for (Entity target : targets) {
+            prepareTarget(target);
+            Set<ServerPlayerConnection> seenBy = EntityTracking.getSeenBy(target);
+
+            for (ServerPlayer viewer : viewers) {
+                addGlowPair(viewer, target, colorId, seenBy, ttlTicks, animation);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * 按UUID为可能尚未加载的目标添加发光效果
+     *
+     * 目标已加载时与 addGlow 相同；否则只记入持久化的发光记录，
+     * 目标生成、所在区块加载或玩家加入后与观察者建立追踪时由 onStartTracking 惰性绑定，不需要轮询目标是否存在
+     * 预先登记的发光效果没有持续时间，目标被杀死或清除时随持久化记录一起删除
+     *
+     * @param targetId 目标实体UUID
+     * @param viewers  观察者玩家
+     * @param color    发光颜色
+     * @return 添加的（观察者, 目标）对数量
+     */
+    public static int addPendingGlow(MinecraftServer server, UUID targetId, Collection<ServerPlayer> viewers, GlowColor color) {
+        Entity target = findEntityByUuid(server, targetId);
+        if (target != null) {
+            return addGlow(List.of(target), viewers, color, 0);
+        }
+
+        byte colorId = GlowStateStore.toOrdinal(color);
+        for (ServerPlayer viewer : viewers) {
+            persistence.put(targetId, viewer.getUUID(), colorId);
+        }
+        return viewers.size();
+    }
+
+    /**
+     * 按UUID移除发光效果，目标未加载时只移除预先登记的记录
+     *
+     * @param targetId 目标实体UUID
+     * @param viewers  观察者玩家
+     * @return 移除的（观察者, 目标）对数量
+     */
+    public static int removePendingGlow(MinecraftServer server, UUID targetId, Collection<ServerPlayer> viewers) {
+        Entity target = findEntityByUuid(server, targetId);
+        if (target != null) {
+            return removeGlow(List.of(target), viewers);
+        }
+
+        int count = 0;
+        for (ServerPlayer viewer : viewers) {
+            if (persistence.remove(targetId, viewer.getUUID())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 记录目标的原始flags并缓存其队伍名称（每个目标只需一次）
+     */
+    private static void prepareTarget(Entity target) {
         int targetId = target.getId();
 
         // 记录原始flags
@@ -69,15 +274,109 @@ public class GlowManager {
             ));
         }
 
-        // 更新内存中的发光记录
-        playerGlowMap.computeIfAbsent(viewerId, k -> new ConcurrentHashMap<>())
-                .put(targetId, color);
+        // 缓存实体名称供包拦截使用
+        store.cacheName(targetId, getEntityTeamName(target));
+
+        // 登记到目标所在维度的分片
+        if (target.level() instanceof ServerLevel level) {
+            shardOf(level).targets.put(targetId, target);
+        }
+    }
+
+    /**
+     * 获取维度的分片，不存在时创建
+     */
+    private static GlowLevelShard shardOf(ServerLevel level) {
+        GlowLevelShard shard = shards.get(level);
+        if (shard == null) {
+            shard = new GlowLevelShard(level);
+            shards.put(level, shard);
+        }
+        return shard;
+    }
+
+    /**
+     * 分片中既没有目标也没有观察者时移除
+     */
+    private static void pruneShard(GlowLevelShard shard) {
+        if (shard != null && shard.isEmpty() && shards.get(shard.level) == shard) {
+            shards.remove(shard.level);
+        }
+    }
+
+    /**
+     * 确保观察者的状态在其当前所在维度的分片中（写入发光记录之前调用）
+     */
+    private static void placeViewer(ServerPlayer viewer) {
+        pruneShard(store.placeViewer(viewer.getUUID(), shardOf(viewer.level())));
+    }
+
+    /**
+     * 通过分片按实体ID查找发光目标，先查找指定维度，再查找其他维度
+     */
+    private static Entity findTarget(Level preferred, int entityId) {
+        GlowLevelShard shard = shards.get(preferred);
+        Entity target = shard != null ? shard.targets.get(entityId) : null;
+        if (target != null) {
+            return target;
+        }
+        for (GlowLevelShard other : shards.values()) {
+            if (other != shard && (target = other.targets.get(entityId)) != null) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 目标不再有任何观察者的发光记录时，将其移出所在维度的分片（在移除发光记录并回退到规则之后调用）
+     */
+    private static void releaseTarget(Entity target) {
+        if (!store.hasViewers(target.getId())) {
+            removeFromShard(target);
+        }
+    }
+
+    private static void removeFromShard(Entity target) {
+        GlowLevelShard shard = shards.get(target.level());
+        if (shard != null && shard.targets.remove(target.getId()) != null) {
+            pruneShard(shard);
+        }
+    }
+
+    private static void addGlowPair(ServerPlayer viewer, Entity target, byte color, Set<ServerPlayerConnection> seenBy,
+                                    int ttlTicks, GlowAnimation animation) {
+        UUID viewerId = viewer.getUUID();
+        int targetId = target.getId();
+
+        // 更新内存中的发光记录（覆盖之前的持续时间和动画）
+        placeViewer(viewer);
+        store.put(viewerId, targetId, color);
+
+        if (ttlTicks > 0) {
+            long deadline = expirations.nextTick() + ttlTicks;
+            store.setExpiry(viewerId, targetId, deadline);
+            expirations.schedule(deadline, viewerId, target);
+        }
+        if (animation != null) {
+            store.setAnimation(viewerId, targetId, animator.add(animation, viewerId, target));
+        }
+
+        // 有持续时间或动画的发光效果不持久化，避免重启后残留
+        if (ttlTicks > 0 || animation != null) {
+            persistence.remove(target.getUUID(), viewerId);
+        } else {
+            persistence.put(target.getUUID(), viewerId, color);
+        }
 
-        // 发送发光效果数据包
-        sendGlowingPacket(viewer, target, true);
+        // 观察者的客户端当前正在追踪目标时才需要发送，否则等到建立追踪时再发送
+        // 玩家自己不在自己的追踪列表中，始终视为已追踪
+        if (target == viewer || seenBy.contains(viewer.connection)) {
+            store.pair(viewerId, target);
+        }
 
-        // 发送队伍颜色数据包
-        sendTeamColorPacket(viewer, target, color);
+        // 记入操作日志，在 tick 结束时统一发送
+        journal.record(viewerId, target);
     }
 
     /**
@@ -90,16 +389,43 @@ public class GlowManager {
         UUID viewerId = viewer.getUUID();
         int targetId = target.getId();
 
-        Map<Integer, GlowColor> glowMap = playerGlowMap.get(viewerId);
-        if (glowMap != null) {
-            GlowColor color = glowMap.remove(targetId);
-            if (color != null) {
-                // 发送取消发光效果
-                sendGlowingPacket(viewer, target, false);
-                // 从队伍中移除
-                sendTeamRemovePacket(viewer, target, color);
+        persistence.remove(target.getUUID(), viewerId);
+        if (store.remove(viewerId, targetId) != GlowStateStore.NO_COLOR) {
+            // 记入操作日志，在 tick 结束时统一发送取消发光和移出队伍的包
+            journal.record(viewerId, target);
+            fallBackToRule(viewer, target);
+            releaseTarget(target);
+        }
+    }
+
+    /**
+     * 批量移除多个观察者对多个目标实体的发光效果
+     *
+     * @param targets 目标实体
+     * @param viewers 观察者玩家
+     * @return 移除的（观察者, 目标）对数量
+     */
+    public static int removeGlow(Collection<? extends Entity> targets, Collection<ServerPlayer> viewers) {
+        int count = 0;
+
+        for (Entity target : targets) {
+            int targetId = target.getId();
+            UUID targetUuid = target.getUUID();
+            for (ServerPlayer viewer : viewers) {
+                UUID viewerId = viewer.getUUID();
+                boolean persisted = persistence.remove(targetUuid, viewerId);
+                if (store.remove(viewerId, targetId) != GlowStateStore.NO_COLOR) {
+                    journal.record(viewerId, target);
+                    fallBackToRule(viewer, target);
+                    releaseTarget(target);
+                    count++;
+                } else if (persisted) {
+                    count++;
+                }
             }
         }
+
+        return count;
     }
 
     /**
@@ -109,18 +435,18 @@ public class GlowManager {
      */
     public static void clearAllGlow(ServerPlayer viewer) {
         UUID viewerId = viewer.getUUID();
-        Map<Integer, GlowColor> glowMap = playerGlowMap.remove(viewerId);
+        persistence.removeViewer(viewerId);
+        Int2ByteOpenHashMap glowMap = store.clearViewer(viewerId);
 
         if (glowMap != null) {
-            ServerLevel level = viewer.level();
-            for (Map.Entry<Integer, GlowColor> entry : glowMap.entrySet()) {
-                int entityId = entry.getKey();
-                GlowColor color = entry.getValue();
-
-                Entity target = level.getEntity(entityId);
+            // 目标不一定与观察者在同一维度（例如观察者切换维度之后），通过分片查找
+            Level level = viewer.level();
+            for (int entityId : glowMap.keySet()) {
+                Entity target = findTarget(level, entityId);
                 if (target != null) {
-                    sendGlowingPacket(viewer, target, false);
-                    sendTeamRemovePacket(viewer, target, color);
+                    journal.record(viewerId, target);
+                    fallBackToRule(viewer, target);
+                    releaseTarget(target);
                 }
             }
         }
@@ -133,22 +459,19 @@ public class GlowManager {
      */
     public static void clearGlowForEntity(Entity target) {
         int targetId = target.getId();
+        persistence.removeTarget(target.getUUID());
 
-        for (Map.Entry<UUID, Map<Integer, GlowColor>> entry : playerGlowMap.entrySet()) {
-            Map<Integer, GlowColor> glowMap = entry.getValue();
-            GlowColor color = glowMap.remove(targetId);
-
-            if (color != null && target.level() instanceof net.minecraft.server.level.ServerLevel serverLevel) {
-                ServerPlayer viewer = serverLevel.getServer().getPlayerList()
-                        .getPlayer(entry.getKey());
-                if (viewer != null) {
-                    sendGlowingPacket(viewer, target, false);
-                    sendTeamRemovePacket(viewer, target, color);
-                }
-            }
+        // 通过反向索引只遍历该实体的观察者
+        for (UUID viewerId : new ArrayList<>(store.viewersOf(targetId))) {
+            store.remove(viewerId, targetId);
+            journal.record(viewerId, target);
         }
 
-        originalFlags.remove(targetId);
+        // 追踪该实体的观察者回退到规则颜色
+        if (!rules.isEmpty()) {
+            reevaluateTarget(target);
+        }
+        releaseTarget(target);
     }
 
     /**
@@ -159,11 +482,7 @@ public class GlowManager {
      * @return 发光颜色，如果没有则返回null
      */
     public static GlowColor getGlowColor(ServerPlayer viewer, Entity target) {
-        Map<Integer, GlowColor> glowMap = playerGlowMap.get(viewer.getUUID());
-        if (glowMap != null) {
-            return glowMap.get(target.getId());
-        }
-        return null;
+        return GlowStateStore.fromOrdinal(store.get(viewer.getUUID(), target.getId()));
     }
 
     /**
@@ -182,59 +501,47 @@ public class GlowManager {
      * @return 是否有发光效果
      */
     public static boolean hasGlowForEntityName(ServerPlayer viewer, String entityName) {
-        UUID viewerId = viewer.getUUID();
-        Map<Integer, GlowColor> glowMap = playerGlowMap.get(viewerId);
-        if (glowMap == null || glowMap.isEmpty()) {
-            return false;
-        }
-
-        // 检查entityName是否对应任何有发光效果的实体
-        // entityName可能是玩家名或实体UUID
-        net.minecraft.server.level.ServerLevel level = viewer.level();
-
-        for (int entityId : glowMap.keySet()) {
-            Entity entity = level.getEntity(entityId);
-            if (entity != null) {
-                String name = getEntityTeamName(entity);
-                if (name.equals(entityName)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        // entityName可能是玩家名或实体UUID，通过名称缓存查找实体ID
+        int entityId = store.entityIdByName(entityName);
+        return entityId != -1 && store.contains(viewer.getUUID(), entityId);
     }
 
     /**
-     * 检查是否有任何观察者对某个实体名称有发光效果
-     * 用于 Connection 级别的包拦截（供 Mixin 调用）
+     * 检查是否有任何观察者的客户端上某个实体名称在发光队伍中
+     * 用于 Connection 级别的包拦截（供 Mixin 调用，可在任意线程调用）
+     *
+     * 使用引用计数的名称索引，只需一次哈希查找
      *
      * @param entityName 实体在队伍系统中的名称（玩家名或UUID字符串）
      * @return 是否有任何观察者对该实体有发光效果
      */
     public static boolean hasGlowForAnyViewer(String entityName) {
         // 防止类初始化顺序问题导致的空指针
-        if (entityNameToIdCache == null || playerGlowMap == null) {
+        if (store == null) {
             return false;
         }
 
-        // 首先通过反向缓存快速查找实体ID
-        Integer entityId = entityNameToIdCache.get(entityName);
-
-        if (entityId == null) {
-            // 如果没有在缓存中找到，说明这个实体从未被添加过发光效果
-            return false;
-        }
+        return store.isGlowedName(entityName);
+    }
 
-        // 检查是否有任何观察者对这个实体有发光效果
-        for (Map.Entry<UUID, Map<Integer, GlowColor>> entry : playerGlowMap.entrySet()) {
-            Map<Integer, GlowColor> glowMap = entry.getValue();
-            if (glowMap != null && glowMap.containsKey(entityId)) {
-                return true;
-            }
-        }
+    /**
+     * 检查真实队伍的成员变更包（供 Mixin 调用，可在任意线程调用）
+     * 只读取名称索引，不修改任何状态；重新同步由记分板的成员变更在主线程上标记
+     *
+     * @param teamName 队伍包的队伍名称
+     * @param players  队伍包的成员名称
+     * @return 在发光队伍中的成员数量，大于 0 时应取消该包，避免客户端队伍状态冲突
+     */
+    public static int filterTeamPacket(String teamName, Collection<String> players) {
+        return GlowPackets.filterTeamMembers(store, teamName, players);
+    }
 
-        return false;
+    /**
+     * 是否有任何实体在客户端的发光队伍中（供 Mixin 调用，可在任意线程调用）
+     * 返回 false 时任何队伍包都不会受影响，可以直接跳过
+     */
+    public static boolean hasAnyGlowedEntity() {
+        return store != null && store.hasGlowedNames();
     }
 
     /**
@@ -251,6 +558,16 @@ public class GlowManager {
      * 发送设置发光标志的数据包
      */
     private static void sendGlowingPacket(ServerPlayer viewer, Entity target, boolean glowing) {
+        ClientboundSetEntityDataPacket packet = createGlowingPacket(target, glowing);
+        viewer.connection.send(packet);
+        DpeMetrics.packet(DpeMetrics.Source.GLOW, packet);
+        store.setFlagged(viewer.getUUID(), target.getId(), glowing);
+    }
+
+    /**
+     * 创建设置发光标志的数据包
+     */
+    private static ClientboundSetEntityDataPacket createGlowingPacket(Entity target, boolean glowing) {
         // 获取当前的flags
         byte currentFlags = target.getEntityData().get(getSharedFlagsAccessor());
         byte newFlags;
@@ -259,8 +576,8 @@ public class GlowManager {
             newFlags = (byte) (currentFlags | GLOWING_FLAG);
         } else {
             // 恢复原始状态
-            Byte original = originalFlags.get(target.getId());
-            if (original != null) {
+            if (originalFlags.containsKey(target.getId())) {
+                byte original = originalFlags.get(target.getId());
                 // 检查原始状态是否有发光
                 if ((original & GLOWING_FLAG) != 0) {
                     newFlags = currentFlags; // 保持发光
@@ -272,18 +589,8 @@ public class GlowManager {
             }
         }
 
-        // 创建SynchedEntityData.DataValue
-        List<SynchedEntityData.DataValue<?>> dataValues = List.of(
-                SynchedEntityData.DataValue.create(getSharedFlagsAccessor(), newFlags)
-        );
-
-        // 发送数据包
-        ClientboundSetEntityDataPacket packet = new ClientboundSetEntityDataPacket(
-                target.getId(),
-                dataValues
-        );
-
-        viewer.connection.send(packet);
+        // 复用预先构建的数据列表
+        return GlowPackets.flagsPacket(target.getId(), newFlags);
     }
 
     /**
@@ -293,134 +600,205 @@ public class GlowManager {
     private static void sendTeamColorPacket(ServerPlayer viewer, Entity target, GlowColor color) {
         UUID viewerId = viewer.getUUID();
         int targetId = target.getId();
-        String teamName = color.getTeamName();
         String entityName = getEntityTeamName(target);
 
         // 检查实体是否已经在同一个队伍中，如果是，不需要重新发送
-        Map<Integer, GlowColor> teamState = playerTeamStateMap.get(viewerId);
-        if (teamState != null) {
-            GlowColor oldColor = teamState.get(targetId);
-            if (oldColor == color) {
-                // 已经在同一个队伍中，不需要重新发送
-                return;
-            }
-            // 不需要发送REMOVE包，当实体加入新队伍时，客户端会自动处理
-            // 发送REMOVE包可能导致 "Player is either on another team or not on any team" 错误
+        byte oldColor = store.getTeam(viewerId, targetId);
+        if (oldColor == GlowStateStore.toOrdinal(color)) {
+            // 已经在同一个队伍中，不需要重新发送
+            return;
         }
+        // 不需要发送REMOVE包，当实体加入新队伍时，客户端会自动处理
+        // 发送REMOVE包可能导致 "Player is either on another team or not on any team" 错误
 
         // 不发送从真实队伍移除的包，因为：
         // 1. 客户端在收到ADD包时会自动将实体从旧队伍移到新队伍
         // 2. 发送REMOVE包可能导致客户端状态不同步错误
 
-        // 创建一个临时的Scoreboard用于构建PlayerTeam对象
-        // 这个Scoreboard不会被添加到服务器，只用于构建数据包
-        Scoreboard tempScoreboard = new Scoreboard();
-        PlayerTeam team = new PlayerTeam(tempScoreboard, teamName);
-        team.setColor(color.getColor());
+        PlayerTeam team = GlowPackets.team(color);
 
-        // 发送队伍创建/更新包（包含完整的队伍信息）
-        ClientboundSetPlayerTeamPacket createPacket = ClientboundSetPlayerTeamPacket.createAddOrModifyPacket(team, true);
-        viewer.connection.send(createPacket);
+        // 每个观察者的连接上只创建一次队伍
+        byte colorId = GlowStateStore.toOrdinal(color);
+        if (store.markTeamCreated(viewerId, colorId)) {
+            ClientboundSetPlayerTeamPacket createPacket = GlowPackets.createTeamPacket(colorId);
+            viewer.connection.send(createPacket);
+            DpeMetrics.packet(DpeMetrics.Source.GLOW, createPacket);
+        }
 
         // 发送将实体加入队伍的包
         ClientboundSetPlayerTeamPacket joinPacket = ClientboundSetPlayerTeamPacket.createPlayerPacket(
                 team, entityName, ClientboundSetPlayerTeamPacket.Action.ADD
         );
         viewer.connection.send(joinPacket);
+        DpeMetrics.packet(DpeMetrics.Source.GLOW, joinPacket);
 
-        // 记录队伍状态
-        playerTeamStateMap.computeIfAbsent(viewerId, k -> new ConcurrentHashMap<>())
-                .put(targetId, color);
+        // 缓存实体名称供包拦截使用（必须在记录队伍状态之前）
+        store.cacheName(targetId, entityName);
 
-        // 缓存实体名称供包拦截使用
-        entityTeamCache.put(targetId, entityName);
-        entityNameToIdCache.put(entityName, targetId);
+        // 记录队伍状态
+        store.putTeam(viewerId, targetId, GlowStateStore.toOrdinal(color));
     }
 
     /**
-     * 发送将实体从虚拟发光队伍移除的数据包
-     * 这会让客户端清除实体的队伍颜色，并恢复到真实队伍状态
+     * 发送本 tick 操作日志中的所有变更（在 tick 结束时调用）
+     *
+     * 对每个被修改的（观察者, 目标），将最终记录与客户端上的队伍状态对比：
+     * 1. 需要发光：本次追踪还没有发送过发光标志时发送，队伍不同时加入该颜色队伍
+     * 2. 不需要发光但客户端在发光队伍中：取消发光标志，移出发光队伍，并恢复到真实队伍
+     * 3. 同一 tick 内互相抵消的操作不发送任何包
+     *
+     * 队伍成员变更按（观察者, 颜色, 动作）合并为一个多成员的队伍包，
+     * 每个观察者的所有包合并成一个捆绑包发送
      */
-    private static void sendTeamRemovePacket(ServerPlayer viewer, Entity target, GlowColor color) {
-        UUID viewerId = viewer.getUUID();
-        int targetId = target.getId();
-        String teamName = color.getTeamName();
-        String entityName = getEntityTeamName(target);
-
-        // 清理内部追踪状态
-        Map<Integer, GlowColor> teamState = playerTeamStateMap.get(viewerId);
-        if (teamState != null) {
-            teamState.remove(targetId);
+    @SuppressWarnings("unchecked")
+    public static void flushJournal(MinecraftServer server) {
+        if (journal.isEmpty()) {
+            return;
         }
 
-        // 从缓存中移除（只有当没有其他观察者对这个实体有发光效果时）
-        boolean hasOtherViewers = false;
-        for (Map.Entry<UUID, Map<Integer, GlowColor>> entry : playerGlowMap.entrySet()) {
-            if (!entry.getKey().equals(viewerId)) {
-                Map<Integer, GlowColor> otherGlowMap = entry.getValue();
-                if (otherGlowMap != null && otherGlowMap.containsKey(targetId)) {
-                    hasOtherViewers = true;
-                    break;
-                }
-            }
-        }
-        if (!hasOtherViewers) {
-            entityTeamCache.remove(targetId);
-            entityNameToIdCache.remove(entityName);
-        }
+        Scoreboard serverScoreboard = server.getScoreboard();
 
-        // 创建临时 Scoreboard 和 PlayerTeam 用于构建数据包
-        Scoreboard tempScoreboard = new Scoreboard();
-        PlayerTeam glowTeam = new PlayerTeam(tempScoreboard, teamName);
+        for (Object2ObjectMap.Entry<UUID, Int2ObjectOpenHashMap<Entity>> entry : journal.drain().object2ObjectEntrySet()) {
+            UUID viewerId = entry.getKey();
+            ServerPlayer viewer = server.getPlayerList().getPlayer(viewerId);
+            if (viewer == null) continue;
 
-        // 发送将实体从虚拟发光队伍移除的包
-        ClientboundSetPlayerTeamPacket removePacket = ClientboundSetPlayerTeamPacket.createPlayerPacket(
-                glowTeam, entityName, ClientboundSetPlayerTeamPacket.Action.REMOVE
-        );
-        viewer.connection.send(removePacket);
+            List<Packet<? super ClientGamePacketListener>> packets = new ArrayList<>();
+            // 颜色序号 -> 加入/移出该发光队伍的成员名称
+            List<String>[] joins = new List[GlowColor.values().length];
+            List<String>[] leaves = new List[GlowColor.values().length];
+            // 真实队伍 -> 需要恢复到该队伍的成员名称
+            Map<PlayerTeam, List<String>> restores = new LinkedHashMap<>();
+
+            for (Int2ObjectMap.Entry<Entity> targetEntry : entry.getValue().int2ObjectEntrySet()) {
+                int targetId = targetEntry.getIntKey();
+                Entity target = targetEntry.getValue();
+                if (target.isRemoved()) continue;
+
+                byte desired = store.get(viewerId, targetId);
+                byte onClient = store.getTeam(viewerId, targetId);
+                String entityName = getEntityTeamName(target);
+
+                if (desired != GlowStateStore.NO_COLOR) {
+                    // 客户端没有追踪该目标，等到建立追踪时再发送
+                    if (!store.isPaired(viewerId, targetId)) continue;
+
+                    // 发光标志随客户端上的实体一起消失，队伍成员则按名称保留，不能用队伍状态判断是否已发送；
+                    // 换颜色（包括动画切换）只需要队伍包
+                    if (!store.isFlagged(viewerId, targetId)) {
+                        packets.add(createGlowingPacket(target, true));
+                        store.setFlagged(viewerId, targetId, true);
+                    }
+                    if (onClient != desired) {
+                        // 客户端在收到ADD包时会自动将实体从旧队伍移到新队伍，不需要先发送REMOVE包
+                        addMember(joins, desired, entityName);
+                        store.cacheName(targetId, entityName);
+                        store.putTeam(viewerId, targetId, desired);
+                    }
+                } else if (onClient != GlowStateStore.NO_COLOR) {
+                    // 客户端上的队伍成员按名称记录，即使不再追踪该实体也需要移出发光队伍；
+                    // 发光标志只在本次追踪发送过时取消（玩家自己不在 seenBy 中，不能按追踪状态判断）
+                    if (store.isFlagged(viewerId, targetId)) {
+                        packets.add(createGlowingPacket(target, false));
+                        store.setFlagged(viewerId, targetId, false);
+                    }
+                    addMember(leaves, onClient, entityName);
+                    store.removeTeam(viewerId, targetId);
 
-        // 恢复实体到真实队伍
-        // 获取服务器的真实记分板
-        Scoreboard serverScoreboard = viewer.level().getServer().getScoreboard();
+                    PlayerTeam realTeam = findRealTeam(serverScoreboard, entityName);
+                    if (realTeam != null) {
+                        restores.computeIfAbsent(realTeam, k -> new ArrayList<>()).add(entityName);
+                    }
 
-        // 获取实体所在的真实队伍
-        // 对于玩家，直接使用 getPlayersTeam 方法
-        // 对于其他实体，使用 UUID 字符串
-        PlayerTeam realTeam = serverScoreboard.getPlayersTeam(entityName);
+                    // 没有其他观察者时清理缓存
+                    if (!store.hasViewers(targetId)) {
+                        store.releaseName(targetId);
+                        originalFlags.remove(targetId);
+                    }
+                }
+            }
 
-        // 如果直接查找失败，尝试手动遍历（作为后备方案）
-        if (realTeam == null) {
-            for (PlayerTeam team : serverScoreboard.getPlayerTeams()) {
-                // 检查队伍成员，不区分大小写进行比较
-                for (String member : team.getPlayers()) {
-                    if (member.equalsIgnoreCase(entityName)) {
-                        realTeam = team;
-                        break;
+            // 移出发光队伍
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i] != null) {
+                    packets.add(ClientboundSetPlayerTeamPacket.createMultiplePlayerPacket(
+                            GlowPackets.team((byte) i), leaves[i],
+                            ClientboundSetPlayerTeamPacket.Action.REMOVE));
+                }
+            }
+
+            // 加入发光队伍，每个观察者的连接上只创建一次队伍
+            for (int i = 0; i < joins.length; i++) {
+                if (joins[i] != null) {
+                    PlayerTeam team = GlowPackets.team((byte) i);
+                    if (store.markTeamCreated(viewerId, (byte) i)) {
+                        packets.add(GlowPackets.createTeamPacket((byte) i));
                     }
+                    packets.add(ClientboundSetPlayerTeamPacket.createMultiplePlayerPacket(
+                            team, joins[i], ClientboundSetPlayerTeamPacket.Action.ADD));
                 }
-                if (realTeam != null) break;
             }
+
+            // 恢复到真实队伍：先发送队伍信息包（确保客户端有这个队伍的定义），再发送加入队伍的包
+            for (Map.Entry<PlayerTeam, List<String>> restore : restores.entrySet()) {
+                PlayerTeam realTeam = restore.getKey();
+                packets.add(teamIndex.infoPacket(realTeam));
+                packets.add(ClientboundSetPlayerTeamPacket.createMultiplePlayerPacket(
+                        realTeam, restore.getValue(), ClientboundSetPlayerTeamPacket.Action.ADD));
+            }
+
+            sendBatch(viewer, packets);
+        }
+    }
+
+    private static void addMember(List<String>[] members, byte color, String entityName) {
+        if (members[color] == null) {
+            members[color] = new ArrayList<>();
+        }
+        members[color].add(entityName);
+    }
+
+    /**
+     * 将一组包合并为捆绑包发送给观察者
+     * 发送期间标记为内部包，队伍包拦截 Mixin 会跳过这些包
+     */
+    private static void sendBatch(ServerPlayer viewer, List<Packet<? super ClientGamePacketListener>> packets) {
+        if (packets.isEmpty()) {
+            return;
         }
 
-        if (realTeam != null) {
-            // 设置标志，表示正在发送内部队伍恢复包
-            // 这样 Mixin 会跳过这些包的拦截
-            sendingInternalPacket.set(true);
-            try {
-                // 实体在真实队伍中，发送将其加入真实队伍的包
-                // 先发送队伍信息包（确保客户端有这个队伍的定义）
-                ClientboundSetPlayerTeamPacket teamInfoPacket = ClientboundSetPlayerTeamPacket.createAddOrModifyPacket(realTeam, false);
-                viewer.connection.send(teamInfoPacket);
-
-                // 再发送将实体加入队伍的包
-                ClientboundSetPlayerTeamPacket addPacket = ClientboundSetPlayerTeamPacket.createPlayerPacket(
-                        realTeam, entityName, ClientboundSetPlayerTeamPacket.Action.ADD
-                );
-                viewer.connection.send(addPacket);
-            } finally {
-                sendingInternalPacket.set(false);
+        DpeMetrics.packets(DpeMetrics.Source.GLOW, packets);
+        sendingInternalPacket.set(true);
+        try {
+            if (packets.size() == 1) {
+                viewer.connection.send(packets.get(0));
+                return;
+            }
+            // 单个捆绑包的子包数量有上限，超出时分批发送
+            for (int from = 0; from < packets.size(); from += MAX_BUNDLE_SIZE) {
+                int to = Math.min(from + MAX_BUNDLE_SIZE, packets.size());
+                ClientboundBundlePacket bundle = new ClientboundBundlePacket(packets.subList(from, to));
+                viewer.connection.send(bundle);
+                DpeMetrics.packet(DpeMetrics.Source.GLOW, bundle);
             }
+        } finally {
+            sendingInternalPacket.set(false);
+        }
+    }
+
+    /**
+     * 查找实体所在的真实队伍
+     * 对于玩家，直接使用 getPlayersTeam 方法；对于其他实体，使用 UUID 字符串
+     */
+    private static PlayerTeam findRealTeam(Scoreboard serverScoreboard, String entityName) {
+        PlayerTeam realTeam = serverScoreboard.getPlayersTeam(entityName);
+
+        // 如果直接查找失败，在成员索引中不区分大小写地查找（作为后备方案）
+        if (realTeam == null) {
+            realTeam = teamIndex.teamOf(entityName);
         }
+
+        return realTeam;
     }
 
     /**
@@ -428,6 +806,11 @@ public class GlowManager {
      * 玩家使用玩家名，其他实体使用UUID字符串
      */
     private static String getEntityTeamName(Entity entity) {
+        // 优先使用缓存，避免每次调用 UUID.toString()
+        String cached = store.nameOf(entity.getId());
+        if (cached != null) {
+            return cached;
+        }
         if (entity instanceof ServerPlayer player) {
             return player.getGameProfile().name();
         } else {
@@ -438,36 +821,73 @@ public class GlowManager {
     /**
      * 获取Entity的共享flags数据访问器
      */
-    @SuppressWarnings("unchecked")
     private static EntityDataAccessor<Byte> getSharedFlagsAccessor() {
-        // Entity.DATA_SHARED_FLAGS_ID 是 protected 的，这里通过反射或直接创建
-        // 在Minecraft中，这个访问器的ID是0，类型是Byte
-        return (EntityDataAccessor<Byte>) EntityDataSerializers.BYTE.createAccessor(0);
+        // 静态共享的访问器，不再每次调用都创建
+        return GlowPackets.SHARED_FLAGS;
     }
 
     /**
-     * 当玩家断开连接时清理数据
+     * 当玩家断开连接时清理内存中的数据，持久化的记录保留到重新连接后再绑定
      */
     public static void onPlayerDisconnect(ServerPlayer player) {
-        UUID playerId = player.getUUID();
-        playerGlowMap.remove(playerId);
-        playerTeamStateMap.remove(playerId);
+        GlowStateStore.ViewerState state = store.removeViewer(player.getUUID());
+        journal.removeViewer(player.getUUID());
+        dirtyPairs.removeViewer(player.getUUID());
+        teamDirtyPairs.removeViewer(player.getUUID());
+
+        // 只有该玩家观察的目标移出分片
+        if (state != null) {
+            Level level = player.level();
+            for (int entityId : state.glow.keySet()) {
+                Entity target = findTarget(level, entityId);
+                if (target != null) {
+                    releaseTarget(target);
+                }
+            }
+            pruneShard(state.shard);
+        }
     }
 
     /**
      * 当实体被移除时清理数据
+     * 区块卸载、切换维度时只清理按实体ID保存的状态；实体被杀死或清除时同时删除持久化的记录
+     * 玩家的UUID在重生后不变，不删除以玩家为目标的持久化记录
      */
     public static void onEntityRemoved(Entity entity) {
         int entityId = entity.getId();
         originalFlags.remove(entityId);
 
-        for (Map<Integer, GlowColor> glowMap : playerGlowMap.values()) {
-            glowMap.remove(entityId);
+        Entity.RemovalReason reason = entity.getRemovalReason();
+        if (reason != null && reason.shouldDestroy() && !(entity instanceof ServerPlayer)) {
+            persistence.removeTarget(entity.getUUID());
         }
 
-        for (Map<Integer, GlowColor> teamState : playerTeamStateMap.values()) {
-            teamState.remove(entityId);
+        // 只清理实体所在维度的分片
+        removeFromShard(entity);
+
+        // 通过反向索引只清理该实体的观察者
+        store.removeEntity(entityId);
+    }
+
+    /**
+     * 当实体不再被玩家追踪时调用（供 Mixin 调用）
+     * 该发光对不再参与每 tick 的刷新，直到重新建立追踪
+     */
+    public static void onStopTracking(ServerPlayer viewer, Entity target) {
+        UUID viewerId = viewer.getUUID();
+        int targetId = target.getId();
+
+        // 规则派生的记录只在追踪期间存在，重新追踪时再按需解析
+        if (store.isDerived(viewerId, targetId)) {
+            // 客户端上的实体已经移除，发光标志随之消失，日志中不需要再取消
+            store.unpair(viewerId, targetId);
+            store.remove(viewerId, targetId);
+            journal.record(viewerId, target);
+            releaseTarget(target);
+            return;
         }
+
+        store.unpair(viewerId, targetId);
     }
 
     /**
@@ -482,56 +902,257 @@ public class GlowManager {
     }
 
     /**
-     * 刷新所有玩家的所有发光效果（定期调用以确保持续）
+     * 当实体开始被玩家追踪时调用（供 Mixin 调用）
+     * 增量模式下只标记该发光对，在 tick 结束时统一重发
      */
-    public static void refreshAllGlow(net.minecraft.server.MinecraftServer server) {
-        for (Map.Entry<UUID, Map<Integer, GlowColor>> viewerEntry : playerGlowMap.entrySet()) {
-            UUID viewerId = viewerEntry.getKey();
-            ServerPlayer viewer = server.getPlayerList().getPlayer(viewerId);
-
-            if (viewer == null) continue;
-
-            ServerLevel level = viewer.level();
-            Map<Integer, GlowColor> glowMap = viewerEntry.getValue();
-
-            for (Map.Entry<Integer, GlowColor> glowEntry : glowMap.entrySet()) {
-                int entityId = glowEntry.getKey();
-                GlowColor color = glowEntry.getValue();
-
-                Entity target = level.getEntity(entityId);
-                if (target != null) {
-                    sendGlowingPacket(viewer, target, true);
-                    sendTeamColorPacket(viewer, target, color);
-                }
+    public static void onStartTracking(ServerPlayer viewer, Entity target) {
+        if (!store.contains(viewer.getUUID(), target.getId())) {
+            // 惰性绑定持久化的发光记录，没有时按规则解析
+            if (!bindPersistent(viewer, target) && !rules.isEmpty()) {
+                applyRule(viewer, target);
             }
+            return;
+        }
+
+        store.pair(viewer.getUUID(), target);
+        if (resyncMode == GlowResyncMode.INCREMENTAL) {
+            markDirty(viewer, target);
+        } else {
+            refreshGlow(viewer, target);
         }
     }
 
     /**
-     * 刷新所有观察者对某实体的发光效果（在实体数据同步后调用）
+     * 标记观察者对某实体的发光效果需要重新同步
      */
-    public static void refreshGlowForEntity(Entity target) {
+    public static void markDirty(ServerPlayer viewer, Entity target) {
+        UUID viewerId = viewer.getUUID();
         int targetId = target.getId();
+        if (store.contains(viewerId, targetId)) {
+            dirtyPairs.mark(viewerId, targetId);
+        }
+    }
 
-        if (!(target.level() instanceof ServerLevel serverLevel)) {
+    /**
+     * 观察者重生或切换维度后调用：将其状态迁移到当前所在维度的分片，并标记所有发光效果需要重新同步
+     */
+    public static void onViewerLevelChanged(ServerPlayer viewer) {
+        if (store.viewer(viewer.getUUID()) != null) {
+            placeViewer(viewer);
+        }
+        markViewerDirty(viewer);
+    }
+
+    /**
+     * 标记观察者的所有发光效果需要重新同步（重生、切换维度后）
+     */
+    public static void markViewerDirty(ServerPlayer viewer) {
+        UUID viewerId = viewer.getUUID();
+        GlowStateStore.ViewerState state = store.viewer(viewerId);
+        if (state != null && !state.paired.isEmpty()) {
+            dirtyPairs.markAll(viewerId, state.paired.keySet());
+        }
+    }
+
+    /**
+     * 当某实体的真实队伍发生变更时调用（在服务器主线程上，每次变更只调用一次）
+     * 发往观察者的真实队伍包已被拦截，标记客户端发光队伍中有该实体的观察者在 tick 结束时重新加入发光队伍
+     *
+     * @param entityName 实体在队伍系统中的名称（玩家名或UUID字符串）
+     */
+    private static void onRealTeamChanged(String entityName) {
+        if (!store.isGlowedName(entityName)) {
             return;
         }
+        int entityId = store.entityIdByName(entityName);
+        if (entityId == -1) {
+            return;
+        }
+
+        for (UUID viewerId : store.viewersOf(entityId)) {
+            if (store.getTeam(viewerId, entityId) != GlowStateStore.NO_COLOR) {
+                teamDirtyPairs.mark(viewerId, entityId);
+            }
+        }
+    }
+
+    /**
+     * 重发所有被标记的发光对（在 tick 结束时调用）
+     */
+    public static void flushDirty(MinecraftServer server) {
+        if (!teamDirtyPairs.isEmpty()) {
+            flushTeamDirty(server);
+        }
+        if (dirtyPairs.isEmpty()) {
+            return;
+        }
+
+        for (Object2ObjectMap.Entry<UUID, IntOpenHashSet> entry : dirtyPairs.drain().object2ObjectEntrySet()) {
+            UUID viewerId = entry.getKey();
+            ServerPlayer viewer = server.getPlayerList().getPlayer(viewerId);
+            if (viewer == null) continue;
 
-        for (Map.Entry<UUID, Map<Integer, GlowColor>> viewerEntry : playerGlowMap.entrySet()) {
-            UUID viewerId = viewerEntry.getKey();
-            Map<Integer, GlowColor> glowMap = viewerEntry.getValue();
+            for (int entityId : entry.getValue()) {
+                GlowColor color = GlowStateStore.fromOrdinal(store.get(viewerId, entityId));
+                if (color == null) continue;
 
-            GlowColor color = glowMap.get(targetId);
-            if (color != null) {
-                ServerPlayer viewer = serverLevel.getServer().getPlayerList().getPlayer(viewerId);
-                if (viewer != null) {
+                // 只重发客户端正在追踪的目标
+                Entity target = store.pairedTarget(viewerId, entityId);
+                if (target != null) {
                     sendGlowingPacket(viewer, target, true);
-                    // 队伍只需要在第一次设置，之后不需要重复发送
+                    sendTeamColorPacket(viewer, target, color);
                 }
             }
         }
     }
 
+    /**
+     * 将真实队伍发生变更的实体重新加入观察者客户端上的发光队伍
+     * 客户端上的队伍成员按名称保留，与是否追踪无关，因此不检查追踪状态，也不重发发光标志
+     */
+    private static void flushTeamDirty(MinecraftServer server) {
+        for (Object2ObjectMap.Entry<UUID, IntOpenHashSet> entry : teamDirtyPairs.drain().object2ObjectEntrySet()) {
+            UUID viewerId = entry.getKey();
+            ServerPlayer viewer = server.getPlayerList().getPlayer(viewerId);
+            if (viewer == null) continue;
+
+            for (int entityId : entry.getValue()) {
+                byte color = store.getTeam(viewerId, entityId);
+                String entityName = store.nameOf(entityId);
+                if (color == GlowStateStore.NO_COLOR || entityName == null) continue;
+
+                ClientboundSetPlayerTeamPacket joinPacket = ClientboundSetPlayerTeamPacket.createPlayerPacket(
+                        GlowPackets.team(color), entityName, ClientboundSetPlayerTeamPacket.Action.ADD);
+                viewer.connection.send(joinPacket);
+                DpeMetrics.packet(DpeMetrics.Source.GLOW, joinPacket);
+            }
+        }
+    }
+
+    public static GlowResyncMode getResyncMode() {
+        return resyncMode;
+    }
+
+    public static void setResyncMode(GlowResyncMode mode) {
+        resyncMode = mode;
+    }
+
+    /**
+     * 刷新所有玩家的所有发光效果（定期调用以确保持续）
+     * 只遍历观察者客户端正在追踪的目标，不需要通过实体ID查找实体
+     *
+     * 按维度分片遍历，每个分片只处理该维度中的观察者；构建发光标志包需要读取实体数据和名称缓存，
+     * 在服务器主线程上执行
+     */
+    public static void refreshAllGlow(MinecraftServer server) {
+        if (store.viewerIds().isEmpty()) {
+            return;
+        }
+
+        DpeEvents.Refresh event = new DpeEvents.Refresh();
+        event.begin();
+        int viewerCount = 0;
+        int packetCount = 0;
+
+        for (GlowLevelShard shard : shards.values()) {
+            if (shard.viewers.isEmpty()) continue;
+
+            for (ServerPlayer viewer : shard.level.players()) {
+                GlowStateStore.ViewerState state = shard.viewers.get(viewer.getUUID());
+                if (state == null || state.paired.isEmpty()) continue;
+
+                packetCount += refreshViewer(viewer, state);
+                viewerCount++;
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.pass = "glow";
+            event.viewerCount = viewerCount;
+            event.packetCount = packetCount;
+            event.commit();
+        }
+    }
+
+    /**
+     * 重发一个观察者客户端正在追踪的所有发光目标，队伍成员变更按颜色合并，所有包合并成一个捆绑包发送
+     *
+     * @return 发送的数据包数量
+     */
+    @SuppressWarnings("unchecked")
+    private static int refreshViewer(ServerPlayer viewer, GlowStateStore.ViewerState state) {
+        UUID viewerId = viewer.getUUID();
+        List<Packet<? super ClientGamePacketListener>> packets = new ArrayList<>();
+        // 颜色序号 -> 需要加入该发光队伍的成员名称
+        List<String>[] joins = new List[GlowColor.values().length];
+
+        for (Int2ObjectMap.Entry<Entity> pairedEntry : state.paired.int2ObjectEntrySet()) {
+            int targetId = pairedEntry.getIntKey();
+            byte color = state.glow.get(targetId);
+            if (color == GlowStateStore.NO_COLOR) continue;
+
+            Entity target = pairedEntry.getValue();
+            packets.add(createGlowingPacket(target, true));
+            store.setFlagged(viewerId, targetId, true);
+
+            // 已经在同一个队伍中，不需要重新发送
+            if (state.team.get(targetId) != color) {
+                String entityName = getEntityTeamName(target);
+                addMember(joins, color, entityName);
+                // 缓存实体名称供包拦截使用（必须在记录队伍状态之前）
+                store.cacheName(targetId, entityName);
+                store.putTeam(viewerId, targetId, color);
+            }
+        }
+
+        for (int i = 0; i < joins.length; i++) {
+            if (joins[i] == null) continue;
+
+            byte colorId = (byte) i;
+            // 每个观察者的连接上只创建一次队伍
+            if (store.markTeamCreated(viewerId, colorId)) {
+                packets.add(GlowPackets.createTeamPacket(colorId));
+            }
+            packets.add(ClientboundSetPlayerTeamPacket.createMultiplePlayerPacket(
+                    GlowPackets.team(colorId), joins[i], ClientboundSetPlayerTeamPacket.Action.ADD));
+        }
+
+        sendBatch(viewer, packets);
+        return packets.size();
+    }
+
+    /**
+     * 刷新所有观察者对某实体的发光效果（在实体数据同步后调用）
+     */
+    public static int refreshGlowForEntity(Entity target) {
+        int targetId = target.getId();
+
+        if (!(target.level() instanceof ServerLevel serverLevel)) {
+            return 0;
+        }
+
+        int sent = 0;
+        // 通过反向索引只遍历该实体的观察者，并跳过没有追踪该实体的观察者
+        for (UUID viewerId : store.viewersOf(targetId)) {
+            if (!store.isPaired(viewerId, targetId)) continue;
+
+            ServerPlayer viewer = serverLevel.getServer().getPlayerList().getPlayer(viewerId);
+            if (viewer != null) {
+                sendGlowingPacket(viewer, target, true);
+                sent++;
+                // 队伍只需要在第一次设置，之后不需要重复发送
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * 获取对某实体有发光记录的观察者数量
+     */
+    public static int getViewerCount(Entity target) {
+        return store.viewersOf(target.getId()).size();
+    }
+
     /**
      * 初始化发光队伍（在服务器启动时调用）
      * 清理旧版本可能创建的真实队伍，避免与虚拟队伍包冲突
@@ -552,57 +1173,391 @@ public class GlowManager {
 
         // 不再创建真实队伍，我们使用虚拟队伍包
         // 虚拟队伍只通过数据包发送给特定玩家，不会被服务器同步
+
+        // 之后由 GlowScoreboardMixin 增量维护
+        teamIndex.rebuild(scoreboard);
     }
 
     /**
-     * 修改实体数据包，确保发光标志被设置（供 Mixin 调用）
+     * 为观察者改写原版广播的实体数据包，将发光位并入 flags（供 Mixin 调用）
      *
-     * @param originalPacket 原始数据包
-     * @param viewer 观察者玩家
-     * @param target 目标实体
-     * @return 修改后的数据包
-     */
-    public static ClientboundSetEntityDataPacket modifyEntityDataPacket(
-            ClientboundSetEntityDataPacket originalPacket,
-            ServerPlayer viewer,
-            Entity target) {
-
-        List<SynchedEntityData.DataValue<?>> originalValues = originalPacket.packedItems();
-        List<SynchedEntityData.DataValue<?>> newValues = new ArrayList<>();
-        boolean foundFlags = false;
-
-        EntityDataAccessor<Byte> flagsAccessor = getSharedFlagsAccessor();
-
-        for (SynchedEntityData.DataValue<?> value : originalValues) {
-            if (value.id() == flagsAccessor.id()) {
-                // 找到了 flags 字段，添加发光标志
-                if (value.value() instanceof Byte flags) {
-                    byte newFlags = (byte) (flags | GLOWING_FLAG);
-                    newValues.add(SynchedEntityData.DataValue.create(flagsAccessor, newFlags));
-                    foundFlags = true;
-                } else {
-                    newValues.add(value);
+     * 只在服务器主线程上处理；观察者对该实体没有发光效果、包中没有 flags 字段
+     * 或 flags 已包含发光位时，直接返回原始数据包，不产生任何分配
+     *
+     * @param packet 原版的实体数据包
+     * @param viewer 接收该包的玩家
+     * @return 改写后的数据包
+     */
+    public static Packet<?> rewriteEntityDataPacket(ClientboundSetEntityDataPacket packet, ServerPlayer viewer) {
+        if (!viewer.level().getServer().isSameThread() || !store.contains(viewer.getUUID(), packet.id())) {
+            return packet;
+        }
+
+        List<SynchedEntityData.DataValue<?>> values = packet.packedItems();
+        for (int i = 0; i < values.size(); i++) {
+            SynchedEntityData.DataValue<?> value = values.get(i);
+            if (value.id() == SHARED_FLAGS_INDEX && value.value() instanceof Byte flags) {
+                if ((flags & GLOWING_FLAG) != 0) {
+                    return packet;
                 }
-            } else {
-                newValues.add(value);
+                List<SynchedEntityData.DataValue<?>> newValues = new ArrayList<>(values);
+                newValues.set(i, SynchedEntityData.DataValue.create(getSharedFlagsAccessor(), (byte) (flags | GLOWING_FLAG)));
+                return new ClientboundSetEntityDataPacket(packet.id(), newValues);
             }
         }
 
-        // 如果原始包中没有 flags 字段，添加一个
-        if (!foundFlags) {
-            byte currentFlags = target.getEntityData().get(flagsAccessor);
-            byte newFlags = (byte) (currentFlags | GLOWING_FLAG);
-            newValues.add(SynchedEntityData.DataValue.create(flagsAccessor, newFlags));
+        // 包中没有 flags 字段，客户端上的发光位不会被覆盖
+        return packet;
+    }
+
+    public static boolean isEntityDataRewriteEnabled() {
+        return entityDataRewrite;
+    }
+
+    public static void setEntityDataRewrite(boolean enabled) {
+        entityDataRewrite = enabled;
+    }
+
+    // ==================== 到期 ====================
+
+    /**
+     * 处理本 tick 到期的发光效果（在 tick 结束时、发送操作日志之前调用）
+     * 到期的移除记入操作日志，与本 tick 的其他变更合并成每个观察者一个捆绑包
+     */
+    public static void tickExpirations(MinecraftServer server) {
+        expirations.advance(entry -> expireGlow(server, entry));
+    }
+
+    private static void expireGlow(MinecraftServer server, GlowTimingWheel.Entry entry) {
+        UUID viewerId = entry.viewerId;
+        Entity target = entry.target;
+        int targetId = target.getId();
+
+        // 记录已被移除、覆盖或续期时，时间轮中的条目已经失效
+        if (store.getExpiry(viewerId, targetId) != entry.deadline) {
+            return;
+        }
+
+        store.remove(viewerId, targetId);
+        journal.record(viewerId, target);
+
+        ServerPlayer viewer = server.getPlayerList().getPlayer(viewerId);
+        if (viewer != null) {
+            fallBackToRule(viewer, target);
         }
+        releaseTarget(target);
+    }
+
+    // ==================== 动画 ====================
 
-        return new ClientboundSetEntityDataPacket(originalPacket.id(), newValues);
+    /**
+     * 推进动画时钟并切换需要切换的动画发光颜色（在 tick 结束时、发送操作日志之前调用）
+     * 颜色变更记入操作日志，同一观察者同一颜色的所有成员合并为一个多成员的队伍包
+     */
+    public static void tickAnimations() {
+        animator.advance(GlowManager::stepAnimation);
+    }
+
+    private static boolean stepAnimation(UUID viewerId, Entity target, GlowAnimation animation, byte color) {
+        int targetId = target.getId();
+
+        // 已被移除、覆盖或换成其他动画的成员从组中移除
+        if (target.isRemoved() || store.getAnimation(viewerId, targetId) != animation) {
+            return false;
+        }
+
+        // 没有追踪的目标只更新记录，重新追踪时按当前颜色发送
+        if (store.recolor(viewerId, targetId, color) != color && store.isPaired(viewerId, targetId)) {
+            journal.record(viewerId, target);
+        }
+        return true;
+    }
+
+    // ==================== 持久化 ====================
+
+    /**
+     * 将持久化的发光记录绑定到当前的实体ID
+     *
+     * @return 是否存在持久化的记录
+     */
+    private static boolean bindPersistent(ServerPlayer viewer, Entity target) {
+        if (persistence.isEmpty()) {
+            return false;
+        }
+
+        UUID viewerId = viewer.getUUID();
+        byte color = persistence.get(target.getUUID(), viewerId);
+        if (color == GlowStateStore.NO_COLOR) {
+            return false;
+        }
+
+        prepareTarget(target);
+        placeViewer(viewer);
+        store.put(viewerId, target.getId(), color);
+        store.pair(viewerId, target);
+        journal.record(viewerId, target);
+        return true;
+    }
+
+    /**
+     * 读取持久化的发光记录（服务器启动时调用）
+     */
+    public static void loadPersistentGlow(MinecraftServer server) {
+        persistenceFile = server.getWorldPath(LevelResource.ROOT).resolve("data").resolve(PERSISTENCE_FILE_NAME);
+        persistence.load(persistenceFile);
+    }
+
+    /**
+     * 有修改时在 IO 线程上保存持久化的发光记录
+     */
+    public static void savePersistentGlow() {
+        if (persistenceFile != null && persistence.isDirty()) {
+            persistence.saveAsync(persistenceFile);
+        }
+    }
+
+    /**
+     * 保存并等待写入完成（服务器关闭时调用）
+     */
+    public static void closePersistentGlow() {
+        if (persistenceFile != null) {
+            persistence.close(persistenceFile);
+            persistenceFile = null;
+        }
+    }
+
+    // ==================== 声明式规则 ====================
+
+    /**
+     * 添加或替换发光规则，并对所有在线观察者重新求值
+     */
+    public static void addRule(MinecraftServer server, GlowRule rule) {
+        rules.put(rule);
+        reevaluateAll(server);
+    }
+
+    /**
+     * 移除发光规则，并对所有在线观察者重新求值
+     *
+     * @return 是否存在该规则
+     */
+    public static boolean removeRule(MinecraftServer server, String name) {
+        if (rules.remove(name) == null) {
+            return false;
+        }
+        reevaluateAll(server);
+        return true;
+    }
+
+    public static void clearRules(MinecraftServer server) {
+        if (rules.isEmpty()) {
+            return;
+        }
+        rules.clear();
+        reevaluateAll(server);
+    }
+
+    public static Collection<GlowRule> getRules() {
+        return rules.rules();
+    }
+
+    /**
+     * 玩家加入时绑定或按规则解析自己对自己的发光效果（其他目标在建立追踪时处理）
+     */
+    public static void onPlayerJoin(ServerPlayer player) {
+        if (!bindPersistent(player, player) && !rules.isEmpty()) {
+            applyRule(player, player);
+        }
+    }
+
+    /**
+     * 实体的标签发生变化时调用（供 Mixin 调用）
+     */
+    public static void onTagChanged(Entity entity) {
+        onMembershipChanged(entity, GlowRule.Kind.TAG);
+    }
+
+    /**
+     * 成员加入记分板队伍时调用（供 Mixin 调用）
+     */
+    public static void onPlayerAddedToTeam(MinecraftServer server, String entityName, PlayerTeam team) {
+        teamIndex.add(entityName, team);
+        onRealTeamChanged(entityName);
+        onTeamMembershipChanged(server, entityName);
+    }
+
+    /**
+     * 成员移出记分板队伍时调用（供 Mixin 调用）
+     */
+    public static void onPlayerRemovedFromTeam(MinecraftServer server, String entityName, PlayerTeam team) {
+        teamIndex.remove(entityName, team);
+        onRealTeamChanged(entityName);
+        onTeamMembershipChanged(server, entityName);
+    }
+
+    /**
+     * 记分板队伍被删除时调用（供 Mixin 调用），成员直接从记分板移除，不会经过 removePlayerFromTeam
+     */
+    public static void onTeamRemoved(MinecraftServer server, PlayerTeam team) {
+        teamIndex.removeTeam(team);
+        for (String entityName : team.getPlayers()) {
+            onRealTeamChanged(entityName);
+            onTeamMembershipChanged(server, entityName);
+        }
+    }
+
+    /**
+     * 记分板队伍属性发生变化时调用（供 Mixin 调用）
+     */
+    public static void onTeamChanged(PlayerTeam team) {
+        teamIndex.invalidate(team);
+    }
+
+    /**
+     * 记分板队伍成员发生变化时调用
+     *
+     * @param entityName 实体在队伍系统中的名称（玩家名或UUID字符串）
+     */
+    public static void onTeamMembershipChanged(MinecraftServer server, String entityName) {
+        if (rules.isEmpty() || (!rules.viewerUses(GlowRule.Kind.TEAM) && !rules.targetUses(GlowRule.Kind.TEAM))) {
+            return;
+        }
+
+        // 玩家使用玩家名，其他实体使用UUID字符串
+        Entity entity = server.getPlayerList().getPlayerByName(entityName);
+        if (entity == null) {
+            entity = findEntityByUuid(server, entityName);
+        }
+        if (entity != null) {
+            onMembershipChanged(entity, GlowRule.Kind.TEAM);
+        }
+    }
+
+    /**
+     * 增量重新求值：只处理正在追踪该实体的观察者，以及该实体作为观察者时追踪的目标
+     */
+    private static void onMembershipChanged(Entity entity, GlowRule.Kind kind) {
+        if (rules.isEmpty()) {
+            return;
+        }
+        if (rules.targetUses(kind)) {
+            reevaluateTarget(entity);
+        }
+        if (entity instanceof ServerPlayer player && rules.viewerUses(kind)) {
+            reevaluateViewer(player);
+        }
+    }
+
+    private static void reevaluateAll(MinecraftServer server) {
+        for (ServerPlayer viewer : server.getPlayerList().getPlayers()) {
+            reevaluateViewer(viewer);
+        }
+    }
+
+    /**
+     * 重新求值观察者对其客户端正在追踪的所有目标的规则颜色
+     */
+    private static void reevaluateViewer(ServerPlayer viewer) {
+        applyRule(viewer, viewer);
+        EntityTracking.forEachTrackedBy(viewer, target -> applyRule(viewer, target));
+    }
+
+    /**
+     * 重新求值所有正在追踪该目标的观察者的规则颜色
+     */
+    private static void reevaluateTarget(Entity target) {
+        if (target instanceof ServerPlayer self) {
+            applyRule(self, target);
+        }
+        for (ServerPlayerConnection connection : new ArrayList<>(EntityTracking.getSeenBy(target))) {
+            applyRule(connection.getPlayer(), target);
+        }
+    }
+
+    /**
+     * 显式移除发光效果后，如果观察者的客户端仍在追踪该目标，回退到规则颜色
+     */
+    private static void fallBackToRule(ServerPlayer viewer, Entity target) {
+        if (!rules.isEmpty() && (target == viewer || EntityTracking.isTrackedBy(target, viewer))) {
+            applyRule(viewer, target);
+        }
+    }
+
+    /**
+     * 按规则更新（观察者, 目标）的派生记录，颜色变化时记入操作日志
+     * 调用前观察者的客户端必须正在追踪该目标；显式设置的发光效果不受影响
+     */
+    private static void applyRule(ServerPlayer viewer, Entity target) {
+        UUID viewerId = viewer.getUUID();
+        int targetId = target.getId();
+
+        if (store.contains(viewerId, targetId) && !store.isDerived(viewerId, targetId)) {
+            return;
+        }
+
+        byte color = rules.resolve(viewer, target);
+        if (color == store.get(viewerId, targetId)) {
+            return;
+        }
+
+        if (color == GlowStateStore.NO_COLOR) {
+            store.remove(viewerId, targetId);
+            releaseTarget(target);
+        } else {
+            prepareTarget(target);
+            placeViewer(viewer);
+            store.putDerived(viewerId, targetId, color);
+            store.pair(viewerId, target);
+        }
+        journal.record(viewerId, target);
+    }
+
+    /**
+     * 在所有维度中按UUID字符串查找实体
+     */
+    private static Entity findEntityByUuid(MinecraftServer server, String entityName) {
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(entityName);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return findEntityByUuid(server, uuid);
+    }
+
+    private static Entity findEntityByUuid(MinecraftServer server, UUID uuid) {
+        for (ServerLevel level : server.getAllLevels()) {
+            Entity entity = level.getEntity(uuid);
+            if (entity != null) {
+                return entity;
+            }
+        }
+        return null;
     }
 
     /**
      * 检查某个玩家对某实体是否有发光效果（供 Mixin 调用）
      */
     public static boolean hasGlowForViewer(UUID viewerId, int entityId) {
-        Map<Integer, GlowColor> glowMap = playerGlowMap.get(viewerId);
-        return glowMap != null && glowMap.containsKey(entityId);
+        return store.contains(viewerId, entityId);
+    }
+
+    // ==================== 指标 ====================
+
+    /**
+     * 注册发光状态大小指标，回调只在读取指标时于服务器主线程上调用
+     */
+    public static void registerMetrics() {
+        DpeMetrics.gauge("dpe_glow_viewers", "Viewers with glow state", () -> store.viewerIds().size());
+        DpeMetrics.gauge("dpe_glow_targets", "Entities glowing for at least one viewer", store::targetCount);
+        DpeMetrics.gauge("dpe_glow_entries", "Glow (viewer, target) entries", store::glowCount);
+        DpeMetrics.gauge("dpe_glow_paired_entries", "Glow entries whose target is tracked by the viewer", store::pairedCount);
+        DpeMetrics.gauge("dpe_glow_persistent_entries", "Persistent glow entries keyed by UUID", persistence::size);
+        DpeMetrics.gauge("dpe_glow_rules", "Declarative glow rules", rules::size);
+        DpeMetrics.gauge("dpe_glow_expiry_entries", "Entries in the glow expiry timing wheel", expirations::size);
+        DpeMetrics.gauge("dpe_glow_animation_groups", "Distinct glow animations in use", animator::groupCount);
+        DpeMetrics.gauge("dpe_glow_original_flags", "Cached original entity flags", originalFlags::size);
+        DpeMetrics.gauge("dpe_glow_level_shards", "Dimensions with glow targets or viewers", shards::size);
+        DpeMetrics.gauge("dpe_glow_team_index_entries", "Indexed scoreboard team members", teamIndex::size);
     }
 }
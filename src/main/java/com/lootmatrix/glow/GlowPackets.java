@@ -0,0 +1,115 @@
+package com.lootmatrix.glow;
+
+import net.minecraft.network.protocol.game.ClientboundSetEntityDataPacket;
+import net.minecraft.network.protocol.game.ClientboundSetPlayerTeamPacket;
+import net.minecraft.network.syncher.EntityDataAccessor;
+import net.minecraft.network.syncher.EntityDataSerializers;
+import net.minecraft.network.syncher.SynchedEntityData;
+import net.minecraft.world.scores.PlayerTeam;
+import net.minecraft.world.scores.Scoreboard;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 预先构建的发光数据包组件
+ *
+ * 数据包和其中的数据都是不可变的，可以在多个连接之间复用：
+ * 1. 共享flags数据访问器只创建一次
+ * 2. 每种颜色的发光队伍模板和创建队伍的包只构建一次
+ * 3. flags 只有 256 种取值，每种取值的数据列表只构建一次
+ * 另外包含对真实队伍成员变更包的过滤判断，供队伍包拦截和基准测试共用
+ *
+ * 稳定状态下刷新发光效果时，每个包只需分配数据包对象本身
+ */
+final class GlowPackets {
+
+    private GlowPackets() {}
+
+    // Entity.DATA_SHARED_FLAGS_ID 是 protected 的，这里直接创建
+    // 在Minecraft中，这个访问器的ID是0，类型是Byte
+    @SuppressWarnings("unchecked")
+    static final EntityDataAccessor<Byte> SHARED_FLAGS =
+            (EntityDataAccessor<Byte>) EntityDataSerializers.BYTE.createAccessor(0);
+
+    private static final GlowColor[] COLORS = GlowColor.values();
+
+    // 只用于构建数据包的记分板，不会被添加到服务器
+    private static final Scoreboard TEMPLATE_SCOREBOARD = new Scoreboard();
+
+    // 颜色序号 -> 发光队伍模板（没有成员）
+    private static final PlayerTeam[] TEAMS = new PlayerTeam[COLORS.length];
+
+    // 颜色序号 -> 创建发光队伍的包
+    private static final ClientboundSetPlayerTeamPacket[] CREATE_PACKETS = new ClientboundSetPlayerTeamPacket[COLORS.length];
+
+    // flags 取值（按无符号下标）-> 只包含该 flags 的数据列表
+    private static final List<?>[] FLAGS_VALUES = new List<?>[256];
+
+    // 所有发光队伍的名称
+    private static final Set<String> GLOW_TEAM_NAMES = new HashSet<>();
+
+    static {
+        for (GlowColor color : COLORS) {
+            PlayerTeam team = new PlayerTeam(TEMPLATE_SCOREBOARD, color.getTeamName());
+            team.setColor(color.getColor());
+            TEAMS[color.ordinal()] = team;
+            CREATE_PACKETS[color.ordinal()] = ClientboundSetPlayerTeamPacket.createAddOrModifyPacket(team, true);
+            GLOW_TEAM_NAMES.add(color.getTeamName());
+        }
+        for (int i = 0; i < FLAGS_VALUES.length; i++) {
+            FLAGS_VALUES[i] = List.of(SynchedEntityData.DataValue.create(SHARED_FLAGS, (byte) i));
+        }
+    }
+
+    /**
+     * 获取发光队伍模板，只能用于构建数据包，不能修改
+     */
+    static PlayerTeam team(byte color) {
+        return TEAMS[color];
+    }
+
+    static PlayerTeam team(GlowColor color) {
+        return TEAMS[color.ordinal()];
+    }
+
+    /**
+     * 获取创建发光队伍的包（包含颜色信息）
+     */
+    static ClientboundSetPlayerTeamPacket createTeamPacket(byte color) {
+        return CREATE_PACKETS[color];
+    }
+
+    /**
+     * 创建只设置 flags 的实体数据包，数据列表复用预先构建的实例
+     */
+    @SuppressWarnings("unchecked")
+    static ClientboundSetEntityDataPacket flagsPacket(int entityId, byte flags) {
+        return new ClientboundSetEntityDataPacket(entityId,
+                (List<SynchedEntityData.DataValue<?>>) FLAGS_VALUES[flags & 0xFF]);
+    }
+
+    /**
+     * 检查队伍成员变更包中有多少成员当前在客户端的发光队伍中（任意线程可调用）
+     * 发光队伍自己的包和没有成员的包（创建、修改、删除队伍）不受影响，返回 0
+     *
+     * @param store    发光状态存储，只读取引用计数的名称索引
+     * @param teamName 队伍包的队伍名称
+     * @param players  队伍包的成员名称
+     * @return 在发光队伍中的成员数量，大于 0 时应取消该包
+     */
+    static int filterTeamMembers(GlowStateStore store, String teamName, Collection<String> players) {
+        if (players.isEmpty() || GLOW_TEAM_NAMES.contains(teamName)) {
+            return 0;
+        }
+        int glowing = 0;
+        for (String playerName : players) {
+            if (store.isGlowedName(playerName)) {
+                glowing++;
+            }
+        }
+        return glowing;
+    }
+}
@@ -0,0 +1,358 @@
+package com.lootmatrix.glow;
+
+import com.lootmatrix.DatapackExtension;
+import it.unimi.dsi.fastutil.objects.Object2ByteMap;
+import it.unimi.dsi.fastutil.objects.Object2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 持久化的发光记录：目标UUID -> (观察者UUID -> 颜色序号)
+ *
+ * 与按实体ID保存的 GlowStateStore 不同，这里的记录在区块卸载、玩家重连和服务器重启后仍然保留，
+ * 实体加载后在与观察者建立追踪时再惰性地绑定到当前的实体ID
+ *
+ * 文件格式（大端序）：
+ * int 魔数 'DPEG'、byte 版本、varint 观察者数量、观察者UUID表（每个 16 字节）、
+ * varint 目标数量，之后每个目标为 16 字节UUID、varint 记录数量、每条记录为 varint 观察者序号 + byte 颜色
+ *
+ * 编码在服务器主线程上完成（只复制字节），写入文件在单独的 IO 线程上进行
+ * 非线程安全，除 IO 线程写文件外所有方法只应在服务器主线程调用
+ */
+final class GlowPersistence {
+
+    private static final int MAGIC = 0x44504547; // "DPEG"
+    private static final byte VERSION = 1;
+
+    // 目标UUID -> (观察者UUID -> 颜色序号)
+    private final Object2ObjectOpenHashMap<UUID, Object2ByteOpenHashMap<UUID>> byTarget = new Object2ObjectOpenHashMap<>();
+
+    // 观察者UUID -> 目标UUID集合（反向索引），清除某个观察者的记录时不需要遍历全部目标
+    private final Object2ObjectOpenHashMap<UUID, ObjectOpenHashSet<UUID>> byViewer = new Object2ObjectOpenHashMap<>();
+
+    // 自上次保存以来是否有修改
+    private boolean dirty;
+
+    // 串行执行所有写入，保证后提交的快照覆盖先提交的快照
+    private ExecutorService ioExecutor;
+
+    // ==================== 记录 ====================
+
+    void put(UUID targetId, UUID viewerId, byte color) {
+        Object2ByteOpenHashMap<UUID> viewers = byTarget.get(targetId);
+        if (viewers == null) {
+            viewers = new Object2ByteOpenHashMap<>(4);
+            viewers.defaultReturnValue(GlowStateStore.NO_COLOR);
+            byTarget.put(targetId, viewers);
+        }
+        if (viewers.put(viewerId, color) == color) {
+            return;
+        }
+        byViewer.computeIfAbsent(viewerId, k -> new ObjectOpenHashSet<>()).add(targetId);
+        dirty = true;
+    }
+
+    /**
+     * @return 是否存在该记录
+     */
+    boolean remove(UUID targetId, UUID viewerId) {
+        Object2ByteOpenHashMap<UUID> viewers = byTarget.get(targetId);
+        if (viewers == null || viewers.removeByte(viewerId) == GlowStateStore.NO_COLOR) {
+            return false;
+        }
+        if (viewers.isEmpty()) {
+            byTarget.remove(targetId);
+        }
+        ObjectOpenHashSet<UUID> targets = byViewer.get(viewerId);
+        if (targets != null && targets.remove(targetId) && targets.isEmpty()) {
+            byViewer.remove(viewerId);
+        }
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * 移除某目标的全部记录（目标被永久移除时）
+     */
+    void removeTarget(UUID targetId) {
+        Object2ByteOpenHashMap<UUID> viewers = byTarget.remove(targetId);
+        if (viewers == null) {
+            return;
+        }
+        for (UUID viewerId : viewers.keySet()) {
+            ObjectOpenHashSet<UUID> targets = byViewer.get(viewerId);
+            if (targets != null && targets.remove(targetId) && targets.isEmpty()) {
+                byViewer.remove(viewerId);
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * 移除某观察者的全部记录
+     */
+    void removeViewer(UUID viewerId) {
+        ObjectOpenHashSet<UUID> targets = byViewer.remove(viewerId);
+        if (targets == null) {
+            return;
+        }
+        for (UUID targetId : targets) {
+            Object2ByteOpenHashMap<UUID> viewers = byTarget.get(targetId);
+            if (viewers != null) {
+                viewers.removeByte(viewerId);
+                if (viewers.isEmpty()) {
+                    byTarget.remove(targetId);
+                }
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * @return 颜色序号，没有记录时返回 NO_COLOR
+     */
+    byte get(UUID targetId, UUID viewerId) {
+        Object2ByteOpenHashMap<UUID> viewers = byTarget.get(targetId);
+        return viewers == null ? GlowStateStore.NO_COLOR : viewers.getByte(viewerId);
+    }
+
+    boolean isEmpty() {
+        return byTarget.isEmpty();
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    int size() {
+        int size = 0;
+        for (Object2ByteOpenHashMap<UUID> viewers : byTarget.values()) {
+            size += viewers.size();
+        }
+        return size;
+    }
+
+    // ==================== 读写 ====================
+
+    /**
+     * 从文件读取记录，替换当前内存中的全部记录（服务器启动时调用）
+     *
+     * 先解码到单独的实例，完整读取成功后才替换当前记录；无法读取的文件保留为 .corrupt，
+     * 之后的保存不会覆盖原始数据
+     */
+    void load(Path file) {
+        byTarget.clear();
+        byViewer.clear();
+        dirty = false;
+
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        GlowPersistence loaded = new GlowPersistence();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (in.readInt() != MAGIC) {
+                DatapackExtension.LOGGER.warn("Ignoring glow data with unknown format: {}", file);
+                keepCorrupt(file);
+                return;
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                DatapackExtension.LOGGER.warn("Ignoring glow data with unsupported version {}: {}", version, file);
+                keepCorrupt(file);
+                return;
+            }
+
+            // 数量不能超过剩余字节能容纳的条目数（每个观察者 16 字节，每个目标至少 17 字节，每条记录至少 2 字节）
+            int viewerCount = readCount(in, 16);
+            UUID[] viewerTable = new UUID[viewerCount];
+            for (int i = 0; i < viewerCount; i++) {
+                viewerTable[i] = new UUID(in.readLong(), in.readLong());
+            }
+
+            int targetCount = readCount(in, 17);
+            for (int i = 0; i < targetCount; i++) {
+                UUID targetId = new UUID(in.readLong(), in.readLong());
+                int entryCount = readCount(in, 2);
+                for (int j = 0; j < entryCount; j++) {
+                    int viewerIndex = readVarInt(in);
+                    if (viewerIndex < 0 || viewerIndex >= viewerCount) {
+                        throw new IOException("Viewer index " + viewerIndex + " out of range");
+                    }
+                    byte color = in.readByte();
+                    if (color >= 0 && color < GlowColor.values().length) {
+                        loaded.put(targetId, viewerTable[viewerIndex], color);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            DatapackExtension.LOGGER.error("Failed to load glow data from {}", file, e);
+            keepCorrupt(file);
+            return;
+        }
+
+        byTarget.putAll(loaded.byTarget);
+        byViewer.putAll(loaded.byViewer);
+        DatapackExtension.LOGGER.info("Loaded {} persistent glow entries", size());
+    }
+
+    /**
+     * 读取数量并检查剩余字节是否足够
+     *
+     * @param minBytes 每个条目至少占用的字节数
+     */
+    private static int readCount(DataInputStream in, int minBytes) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.available() / minBytes) {
+            throw new IOException("Invalid count " + count + " with " + in.available() + " bytes remaining");
+        }
+        return count;
+    }
+
+    /**
+     * 将无法读取的文件移到一边，避免下一次保存覆盖它
+     */
+    private static void keepCorrupt(Path file) {
+        Path corrupt = file.resolveSibling(file.getFileName() + ".corrupt");
+        try {
+            Files.move(file, corrupt, StandardCopyOption.REPLACE_EXISTING);
+            DatapackExtension.LOGGER.warn("Moved unreadable glow data to {}", corrupt);
+        } catch (IOException e) {
+            DatapackExtension.LOGGER.error("Failed to move unreadable glow data {}", file, e);
+        }
+    }
+
+    /**
+     * 在当前线程编码快照，并提交到 IO 线程写入文件
+     */
+    void saveAsync(Path file) {
+        byte[] data = encode();
+        dirty = false;
+        executor().execute(() -> write(file, data));
+    }
+
+    /**
+     * 写入最终快照并等待所有写入完成（服务器关闭时调用）
+     */
+    void close(Path file) {
+        if (dirty) {
+            saveAsync(file);
+        }
+        if (ioExecutor == null) {
+            return;
+        }
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                DatapackExtension.LOGGER.warn("Timed out waiting for glow data to be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ioExecutor = null;
+    }
+
+    private ExecutorService executor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DPE-Glow-IO");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return ioExecutor;
+    }
+
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+
+            // 观察者UUID只写一次，记录中使用序号引用
+            Object2IntOpenHashMap<UUID> viewerIndex = new Object2IntOpenHashMap<>(byViewer.size());
+            List<UUID> viewerTable = new ArrayList<>(byViewer.keySet());
+            writeVarInt(out, viewerTable.size());
+            for (int i = 0; i < viewerTable.size(); i++) {
+                UUID viewerId = viewerTable.get(i);
+                viewerIndex.put(viewerId, i);
+                out.writeLong(viewerId.getMostSignificantBits());
+                out.writeLong(viewerId.getLeastSignificantBits());
+            }
+
+            writeVarInt(out, byTarget.size());
+            for (Object2ObjectMap.Entry<UUID, Object2ByteOpenHashMap<UUID>> target : byTarget.object2ObjectEntrySet()) {
+                UUID targetId = target.getKey();
+                out.writeLong(targetId.getMostSignificantBits());
+                out.writeLong(targetId.getLeastSignificantBits());
+                writeVarInt(out, target.getValue().size());
+                for (Object2ByteMap.Entry<UUID> entry : target.getValue().object2ByteEntrySet()) {
+                    writeVarInt(out, viewerIndex.getInt(entry.getKey()));
+                    out.writeByte(entry.getByteValue());
+                }
+            }
+        } catch (IOException e) {
+            // 写入内存不会失败
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(Path file, byte[] data) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                out.write(data);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            DatapackExtension.LOGGER.error("Failed to save glow data to {}", file, e);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new IOException("Unexpected end of glow data");
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+            if (shift > 35) {
+                throw new IOException("VarInt too long");
+            }
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
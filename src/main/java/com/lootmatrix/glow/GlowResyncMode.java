@@ -0,0 +1,24 @@
+package com.lootmatrix.glow;
+
+/**
+ * 发光效果重新同步模式
+ */
+public enum GlowResyncMode {
+    /**
+     * 每秒向所有观察者重发所有发光效果（旧行为）
+     */
+    FULL,
+    /**
+     * 只在客户端状态可能不一致时（重生、切换维度、重新追踪、真实队伍变更）
+     * 于 tick 结束时重发对应的（观察者, 目标）对，定期全量刷新仅作为可选的保险
+     */
+    INCREMENTAL;
+
+    public static GlowResyncMode fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.lootmatrix.glow;
+
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.resources.Identifier;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.scores.PlayerTeam;
+
+/**
+ * 声明式发光规则：满足观察者条件的玩家看到满足目标条件的实体以指定颜色发光
+ *
+ * 规则只保存条件本身，不为每个（观察者, 目标）对保存记录；
+ * 实体的队伍、标签变化时由 GlowManager 增量重新求值，建立追踪时按需解析
+ *
+ * @param name   规则名称，同名规则会被替换
+ * @param viewer 观察者条件（队伍或标签）
+ * @param target 目标条件（队伍、标签或实体类型）
+ * @param color  发光颜色
+ */
+public record GlowRule(String name, Selector viewer, Selector target, GlowColor color) {
+
+    /**
+     * 条件类型
+     */
+    public enum Kind {
+        TEAM,
+        TAG,
+        TYPE;
+
+        public static Kind fromName(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        int bit() {
+            return 1 << ordinal();
+        }
+    }
+
+    /**
+     * 单个条件
+     *
+     * @param kind  条件类型
+     * @param value 队伍名、标签或实体类型ID
+     * @param type  TYPE 条件解析后的实体类型，其他条件为 null
+     */
+    public record Selector(Kind kind, String value, EntityType<?> type) {
+
+        /**
+         * 解析条件，实体类型不存在时返回 null
+         */
+        public static Selector of(Kind kind, String value) {
+            if (kind != Kind.TYPE) {
+                return new Selector(kind, value, null);
+            }
+            // 省略命名空间时默认为 minecraft，ID 格式无效时 tryParse 返回 null
+            Identifier id = Identifier.tryParse(value);
+            if (id == null) {
+                return null;
+            }
+            return BuiltInRegistries.ENTITY_TYPE.getOptional(id)
+                    .map(type -> new Selector(kind, id.toString(), type))
+                    .orElse(null);
+        }
+
+        public boolean matches(Entity entity) {
+            return switch (kind) {
+                case TEAM -> {
+                    PlayerTeam team = entity.getTeam();
+                    yield team != null && team.getName().equals(value);
+                }
+                case TAG -> entity.getTags().contains(value);
+                case TYPE -> entity.getType() == type;
+            };
+        }
+
+        @Override
+        public String toString() {
+            return kind.name().toLowerCase() + "=" + value;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.lootmatrix.glow;
+
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 发光规则集合
+ *
+ * 规则按添加顺序保存，后添加的规则优先；解析时只遍历数组快照，不产生分配
+ * 同时记录观察者侧和目标侧用到的条件类型，成员变化与任何规则无关时可以直接跳过
+ * 非线程安全，只应在服务器主线程调用
+ */
+final class GlowRuleSet {
+
+    private static final GlowRule[] EMPTY = new GlowRule[0];
+
+    private final Map<String, GlowRule> rules = new LinkedHashMap<>();
+
+    // 按优先级从高到低排列的规则快照
+    private GlowRule[] snapshot = EMPTY;
+
+    // 观察者条件、目标条件中用到的条件类型（GlowRule.Kind 位掩码）
+    private int viewerKinds;
+    private int targetKinds;
+
+    /**
+     * 添加规则，同名规则会被替换并成为优先级最高的规则
+     */
+    void put(GlowRule rule) {
+        rules.remove(rule.name());
+        rules.put(rule.name(), rule);
+        rebuild();
+    }
+
+    GlowRule remove(String name) {
+        GlowRule removed = rules.remove(name);
+        if (removed != null) {
+            rebuild();
+        }
+        return removed;
+    }
+
+    void clear() {
+        rules.clear();
+        rebuild();
+    }
+
+    boolean isEmpty() {
+        return snapshot.length == 0;
+    }
+
+    int size() {
+        return snapshot.length;
+    }
+
+    Collection<GlowRule> rules() {
+        return Collections.unmodifiableCollection(new ArrayList<>(rules.values()));
+    }
+
+    /**
+     * 观察者侧是否有规则使用该条件类型
+     */
+    boolean viewerUses(GlowRule.Kind kind) {
+        return (viewerKinds & kind.bit()) != 0;
+    }
+
+    /**
+     * 目标侧是否有规则使用该条件类型
+     */
+    boolean targetUses(GlowRule.Kind kind) {
+        return (targetKinds & kind.bit()) != 0;
+    }
+
+    /**
+     * 解析观察者看到目标的发光颜色
+     *
+     * @return 颜色序号，没有规则匹配时返回 NO_COLOR
+     */
+    byte resolve(ServerPlayer viewer, Entity target) {
+        for (GlowRule rule : snapshot) {
+            if (rule.viewer().matches(viewer) && rule.target().matches(target)) {
+                return GlowStateStore.toOrdinal(rule.color());
+            }
+        }
+        return GlowStateStore.NO_COLOR;
+    }
+
+    private void rebuild() {
+        GlowRule[] ordered = rules.values().toArray(EMPTY);
+        int viewerMask = 0;
+        int targetMask = 0;
+        for (int i = 0, j = ordered.length - 1; i < j; i++, j--) {
+            GlowRule tmp = ordered[i];
+            ordered[i] = ordered[j];
+            ordered[j] = tmp;
+        }
+        for (GlowRule rule : ordered) {
+            viewerMask |= rule.viewer().kind().bit();
+            targetMask |= rule.target().kind().bit();
+        }
+        snapshot = ordered;
+        viewerKinds = viewerMask;
+        targetKinds = targetMask;
+    }
+}
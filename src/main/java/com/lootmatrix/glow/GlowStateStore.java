@@ -0,0 +1,579 @@
+package com.lootmatrix.glow;
+
+import it.unimi.dsi.fastutil.ints.Int2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import net.minecraft.world.entity.Entity;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 发光状态存储
+ *
+ * 数据结构：
+ * 1. 观察者UUID -> (目标实体ID -> 颜色序号)，使用开放寻址的 int->byte 表，不装箱
+ * 2. 观察者UUID -> (目标实体ID -> 客户端上所在的发光队伍颜色序号)
+ * 3. 目标实体ID -> 观察者UUID集合（反向索引），按实体操作只需遍历该实体的观察者
+ * 4. 实体ID <-> 实体在队伍系统中的名称（玩家名或UUID字符串）
+ * 5. 引用计数的"当前在客户端发光队伍中的实体名称"索引，供队伍包拦截一次哈希查找
+ * 6. 观察者UUID -> (目标实体ID -> 目标实体)，只包含当前正在被该观察者客户端追踪的发光目标
+ * 7. 观察者UUID -> 由发光规则派生的目标实体ID，只在追踪期间存在，显式设置的发光效果会覆盖它
+ * 8. 观察者UUID -> (目标实体ID -> 到期 tick)，只包含有持续时间的发光记录
+ * 9. 观察者UUID -> (目标实体ID -> 颜色动画)，只包含动画发光记录
+ * 10. 观察者UUID -> 已向客户端发送发光标志的目标实体ID；队伍成员按名称保存在客户端，追踪结束后仍然存在，
+ *     发光标志则随客户端上的实体一起消失，因此两者分别记录
+ *
+ * 1、2、6-10 是单个观察者的状态（ViewerState），归观察者所在维度的分片所有（见 GlowLevelShard.viewers），
+ * 这里只按UUID索引同一个状态对象；3-5 与观察者所在维度无关，全局保存
+ * 颜色以 GlowColor 序号保存，NO_COLOR 表示没有记录
+ * 非线程安全，所有方法只应在服务器主线程调用；只有 isGlowedName / hasGlowedNames 可以在任意线程调用
+ */
+final class GlowStateStore {
+
+    static final byte NO_COLOR = -1;
+    static final long NO_EXPIRY = -1L;
+
+    private static final GlowColor[] COLORS = GlowColor.values();
+
+    // 观察者UUID -> 观察者状态（按UUID查找的索引，状态对象同时保存在所属维度的分片中）
+    private final Object2ObjectOpenHashMap<UUID, ViewerState> viewers = new Object2ObjectOpenHashMap<>();
+
+    // 反向索引：目标实体ID -> 观察者UUID集合
+    private final Int2ObjectOpenHashMap<ObjectOpenHashSet<UUID>> viewersByEntity = new Int2ObjectOpenHashMap<>();
+
+    // 实体ID -> 实体在队伍系统中的名称
+    private final Int2ObjectOpenHashMap<String> entityTeamNames = new Int2ObjectOpenHashMap<>();
+
+    // 实体名称 -> 实体ID，用于队伍包拦截时的反向查找
+    private final Object2IntOpenHashMap<String> entityIdsByName = new Object2IntOpenHashMap<>();
+
+    // 实体ID -> 客户端上该实体在发光队伍中的观察者数量（引用计数）
+    private final Int2IntOpenHashMap teamRefs = new Int2IntOpenHashMap();
+
+    // 引用计数大于 0 的实体名称，可在发包线程上并发读取
+    private final Set<String> glowedNames = ConcurrentHashMap.newKeySet();
+
+    GlowStateStore() {
+        entityIdsByName.defaultReturnValue(-1);
+    }
+
+    /**
+     * 单个观察者的状态
+     */
+    static final class ViewerState {
+        // 目标实体ID -> 发光颜色序号
+        final Int2ByteOpenHashMap glow = newColorMap();
+        // 目标实体ID -> 客户端上所在的发光队伍颜色序号
+        final Int2ByteOpenHashMap team = newColorMap();
+        // 有发光记录且当前正被该观察者客户端追踪的目标实体
+        final Int2ObjectOpenHashMap<Entity> paired = new Int2ObjectOpenHashMap<>();
+        // 发光颜色来自规则而不是显式设置的目标实体
+        final IntOpenHashSet derived = new IntOpenHashSet();
+        // 有持续时间的目标实体ID -> 到期 tick
+        final Int2LongOpenHashMap expiry = newExpiryMap();
+        // 动画发光的目标实体ID -> 颜色动画
+        final Int2ObjectOpenHashMap<GlowAnimation> animation = new Int2ObjectOpenHashMap<>();
+        // 当前追踪期间已向该观察者客户端发送发光标志的目标实体，追踪结束时清除
+        final IntOpenHashSet flagged = new IntOpenHashSet();
+        // 已在该观察者客户端上创建的发光队伍（按颜色序号的位掩码）
+        int createdTeams;
+        // 状态所属的维度分片（观察者所在的维度），没有放入分片时为 null
+        GlowLevelShard shard;
+    }
+
+    static Int2ByteOpenHashMap newColorMap() {
+        Int2ByteOpenHashMap map = new Int2ByteOpenHashMap();
+        map.defaultReturnValue(NO_COLOR);
+        return map;
+    }
+
+    private static Int2LongOpenHashMap newExpiryMap() {
+        Int2LongOpenHashMap map = new Int2LongOpenHashMap();
+        map.defaultReturnValue(NO_EXPIRY);
+        return map;
+    }
+
+    static byte toOrdinal(GlowColor color) {
+        return color == null ? NO_COLOR : (byte) color.ordinal();
+    }
+
+    static GlowColor fromOrdinal(byte ordinal) {
+        return ordinal < 0 ? null : COLORS[ordinal];
+    }
+
+    // ==================== 观察者所在分片 ====================
+
+    /**
+     * 将观察者的状态放入其所在维度的分片，没有状态时创建；已在其他分片中时迁移过去
+     *
+     * @return 迁出的分片，没有迁移时返回 null
+     */
+    GlowLevelShard placeViewer(UUID viewerId, GlowLevelShard shard) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null) {
+            state = new ViewerState();
+            viewers.put(viewerId, state);
+        }
+        GlowLevelShard previous = state.shard;
+        if (previous == shard) {
+            return null;
+        }
+        if (previous != null) {
+            previous.viewers.remove(viewerId);
+        }
+        shard.viewers.put(viewerId, state);
+        state.shard = shard;
+        return previous;
+    }
+
+    // ==================== 发光记录 ====================
+
+    /**
+     * 记录观察者对目标的发光颜色
+     *
+     * @return 之前的颜色序号，没有则返回 NO_COLOR
+     */
+    byte put(UUID viewerId, int entityId, byte color) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null) {
+            state = new ViewerState();
+            viewers.put(viewerId, state);
+        }
+        state.derived.remove(entityId);
+        state.expiry.remove(entityId);
+        state.animation.remove(entityId);
+        return putColor(state, viewerId, entityId, color);
+    }
+
+    /**
+     * 记录由发光规则派生的颜色
+     *
+     * @return 之前的颜色序号，没有则返回 NO_COLOR
+     */
+    byte putDerived(UUID viewerId, int entityId, byte color) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null) {
+            state = new ViewerState();
+            viewers.put(viewerId, state);
+        }
+        state.derived.add(entityId);
+        return putColor(state, viewerId, entityId, color);
+    }
+
+    private byte putColor(ViewerState state, UUID viewerId, int entityId, byte color) {
+        byte previous = state.glow.put(entityId, color);
+        if (previous == NO_COLOR) {
+            ObjectOpenHashSet<UUID> set = viewersByEntity.get(entityId);
+            if (set == null) {
+                set = new ObjectOpenHashSet<>(4);
+                viewersByEntity.put(entityId, set);
+            }
+            set.add(viewerId);
+        }
+        return previous;
+    }
+
+    /**
+     * 移除观察者对目标的发光记录
+     *
+     * @return 被移除的颜色序号，没有则返回 NO_COLOR
+     */
+    byte remove(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null) {
+            return NO_COLOR;
+        }
+        byte previous = state.glow.remove(entityId);
+        if (previous != NO_COLOR) {
+            state.paired.remove(entityId);
+            state.derived.remove(entityId);
+            state.expiry.remove(entityId);
+            state.animation.remove(entityId);
+            unindex(entityId, viewerId);
+        }
+        return previous;
+    }
+
+    /**
+     * 设置发光记录的到期 tick，记录被覆盖或移除时自动清除
+     */
+    void setExpiry(UUID viewerId, int entityId, long deadline) {
+        ViewerState state = viewers.get(viewerId);
+        if (state != null && state.glow.containsKey(entityId)) {
+            state.expiry.put(entityId, deadline);
+        }
+    }
+
+    /**
+     * @return 到期 tick，没有持续时间时返回 NO_EXPIRY
+     */
+    long getExpiry(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state == null ? NO_EXPIRY : state.expiry.get(entityId);
+    }
+
+    /**
+     * 设置发光记录的颜色动画，记录被覆盖或移除时自动清除
+     */
+    void setAnimation(UUID viewerId, int entityId, GlowAnimation animation) {
+        ViewerState state = viewers.get(viewerId);
+        if (state != null && state.glow.containsKey(entityId)) {
+            state.animation.put(entityId, animation);
+        }
+    }
+
+    /**
+     * @return 颜色动画，不是动画发光时返回 null
+     */
+    GlowAnimation getAnimation(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state == null ? null : state.animation.get(entityId);
+    }
+
+    /**
+     * 只修改已有发光记录的颜色，保留持续时间和动画
+     *
+     * @return 之前的颜色序号，没有记录时返回 NO_COLOR 且不做任何修改
+     */
+    byte recolor(UUID viewerId, int entityId, byte color) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null || !state.glow.containsKey(entityId)) {
+            return NO_COLOR;
+        }
+        return state.glow.put(entityId, color);
+    }
+
+    /**
+     * 观察者对目标的发光记录是否由规则派生
+     */
+    boolean isDerived(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state != null && state.derived.contains(entityId);
+    }
+
+    byte get(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state == null ? NO_COLOR : state.glow.get(entityId);
+    }
+
+    boolean contains(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state != null && state.glow.containsKey(entityId);
+    }
+
+    /**
+     * 取出并清空观察者的所有发光记录（保留客户端队伍状态）
+     *
+     * @return 被清除的记录，没有则返回 null
+     */
+    Int2ByteOpenHashMap clearViewer(UUID viewerId) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null || state.glow.isEmpty()) {
+            return null;
+        }
+        Int2ByteOpenHashMap removed = new Int2ByteOpenHashMap(state.glow);
+        removed.defaultReturnValue(NO_COLOR);
+        state.glow.clear();
+        state.paired.clear();
+        state.derived.clear();
+        state.expiry.clear();
+        state.animation.clear();
+        for (int entityId : removed.keySet()) {
+            unindex(entityId, viewerId);
+        }
+        return removed;
+    }
+
+    /**
+     * 移除观察者的全部状态（玩家断开连接时），不再被任何观察者引用的目标同时清理名称缓存
+     * 状态同时从所属的分片中移除，分片本身由调用方在变空时清理
+     *
+     * @return 被移除的状态，没有则返回 null
+     */
+    ViewerState removeViewer(UUID viewerId) {
+        ViewerState state = viewers.remove(viewerId);
+        if (state != null) {
+            if (state.shard != null) {
+                state.shard.viewers.remove(viewerId);
+            }
+            for (int entityId : state.glow.keySet()) {
+                unindex(entityId, viewerId);
+            }
+            for (int entityId : state.team.keySet()) {
+                releaseTeamRef(entityId);
+            }
+            for (int entityId : state.glow.keySet()) {
+                releaseName(entityId);
+            }
+            for (int entityId : state.team.keySet()) {
+                releaseName(entityId);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * 获取对某实体有发光记录的观察者（只读视图）
+     */
+    Set<UUID> viewersOf(int entityId) {
+        ObjectOpenHashSet<UUID> set = viewersByEntity.get(entityId);
+        return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    boolean hasViewers(int entityId) {
+        return viewersByEntity.containsKey(entityId);
+    }
+
+    /**
+     * 移除某实体的全部记录（实体被移除时），只遍历该实体的观察者
+     */
+    void removeEntity(int entityId) {
+        ObjectOpenHashSet<UUID> set = viewersByEntity.remove(entityId);
+        if (set != null) {
+            for (UUID viewerId : set) {
+                ViewerState state = viewers.get(viewerId);
+                if (state != null) {
+                    state.glow.remove(entityId);
+                    state.team.remove(entityId);
+                    state.paired.remove(entityId);
+                    state.derived.remove(entityId);
+                    state.expiry.remove(entityId);
+                    state.animation.remove(entityId);
+                    state.flagged.remove(entityId);
+                }
+            }
+        }
+        teamRefs.remove(entityId);
+        String name = entityTeamNames.remove(entityId);
+        if (name != null) {
+            entityIdsByName.removeInt(name);
+            glowedNames.remove(name);
+        }
+    }
+
+    private void unindex(int entityId, UUID viewerId) {
+        ObjectOpenHashSet<UUID> set = viewersByEntity.get(entityId);
+        if (set != null && set.remove(viewerId) && set.isEmpty()) {
+            viewersByEntity.remove(entityId);
+        }
+    }
+
+    Collection<UUID> viewerIds() {
+        return viewers.keySet();
+    }
+
+    ViewerState viewer(UUID viewerId) {
+        return viewers.get(viewerId);
+    }
+
+    // ==================== 追踪状态 ====================
+
+    /**
+     * 记录有发光记录的目标开始被观察者客户端追踪
+     */
+    void pair(UUID viewerId, Entity target) {
+        ViewerState state = viewers.get(viewerId);
+        if (state != null && state.glow.containsKey(target.getId())) {
+            state.paired.put(target.getId(), target);
+        }
+    }
+
+    /**
+     * 记录目标不再被观察者客户端追踪，客户端上的实体连同发光标志一起被移除
+     */
+    void unpair(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        if (state != null) {
+            state.paired.remove(entityId);
+            state.flagged.remove(entityId);
+        }
+    }
+
+    /**
+     * 获取正被观察者客户端追踪的发光目标，没有则返回 null
+     */
+    Entity pairedTarget(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state == null ? null : state.paired.get(entityId);
+    }
+
+    boolean isPaired(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state != null && state.paired.containsKey(entityId);
+    }
+
+    // ==================== 客户端队伍状态 ====================
+
+    /**
+     * 记录是否已向观察者客户端发送了发光标志（false 表示已发送取消发光的标志）
+     */
+    void setFlagged(UUID viewerId, int entityId, boolean glowing) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null) {
+            return;
+        }
+        if (glowing) {
+            state.flagged.add(entityId);
+        } else {
+            state.flagged.remove(entityId);
+        }
+    }
+
+    boolean isFlagged(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state != null && state.flagged.contains(entityId);
+    }
+
+    byte getTeam(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        return state == null ? NO_COLOR : state.team.get(entityId);
+    }
+
+    void putTeam(UUID viewerId, int entityId, byte color) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null) {
+            state = new ViewerState();
+            viewers.put(viewerId, state);
+        }
+        if (state.team.put(entityId, color) == NO_COLOR) {
+            retainTeamRef(entityId);
+        }
+    }
+
+    void removeTeam(UUID viewerId, int entityId) {
+        ViewerState state = viewers.get(viewerId);
+        if (state != null && state.team.remove(entityId) != NO_COLOR) {
+            releaseTeamRef(entityId);
+        }
+    }
+
+    /**
+     * 增加实体的发光队伍引用计数，第一次引用时加入名称索引
+     * 调用前实体名称必须已缓存
+     */
+    private void retainTeamRef(int entityId) {
+        if (teamRefs.addTo(entityId, 1) == 0) {
+            String name = entityTeamNames.get(entityId);
+            if (name != null) {
+                glowedNames.add(name);
+            }
+        }
+    }
+
+    /**
+     * 减少实体的发光队伍引用计数，最后一个引用释放时移出名称索引
+     */
+    private void releaseTeamRef(int entityId) {
+        if (teamRefs.addTo(entityId, -1) <= 1) {
+            teamRefs.remove(entityId);
+            String name = entityTeamNames.get(entityId);
+            if (name != null) {
+                glowedNames.remove(name);
+            }
+        }
+    }
+
+    /**
+     * 标记发光队伍已在观察者客户端上创建
+     *
+     * @return 是否是第一次创建（需要发送创建队伍的包）
+     */
+    boolean markTeamCreated(UUID viewerId, byte color) {
+        ViewerState state = viewers.get(viewerId);
+        if (state == null) {
+            state = new ViewerState();
+            viewers.put(viewerId, state);
+        }
+        int bit = 1 << color;
+        if ((state.createdTeams & bit) != 0) {
+            return false;
+        }
+        state.createdTeams |= bit;
+        return true;
+    }
+
+    // ==================== 实体名称缓存 ====================
+
+    void cacheName(int entityId, String name) {
+        entityTeamNames.put(entityId, name);
+        entityIdsByName.put(name, entityId);
+    }
+
+    String nameOf(int entityId) {
+        return entityTeamNames.get(entityId);
+    }
+
+    /**
+     * 当实体既没有发光记录、也不在任何客户端的发光队伍中时，清理名称缓存
+     */
+    void releaseName(int entityId) {
+        if (viewersByEntity.containsKey(entityId) || teamRefs.containsKey(entityId)) {
+            return;
+        }
+        String name = entityTeamNames.remove(entityId);
+        if (name != null) {
+            entityIdsByName.removeInt(name);
+        }
+    }
+
+    /**
+     * 检查某实体名称当前是否在任何客户端的发光队伍中（任意线程可调用）
+     */
+    boolean isGlowedName(String name) {
+        return glowedNames.contains(name);
+    }
+
+    /**
+     * 是否有任何实体在客户端的发光队伍中（任意线程可调用）
+     */
+    boolean hasGlowedNames() {
+        return !glowedNames.isEmpty();
+    }
+
+    /**
+     * 根据实体名称查找实体ID，找不到返回 -1
+     */
+    int entityIdByName(String name) {
+        return entityIdsByName.getInt(name);
+    }
+
+    // ==================== 统计 ====================
+
+    /**
+     * 发光记录数量（遍历所有观察者，只在读取指标时调用）
+     */
+    int glowCount() {
+        int count = 0;
+        for (ViewerState state : viewers.values()) {
+            count += state.glow.size();
+        }
+        return count;
+    }
+
+    /**
+     * 客户端正在追踪的发光对数量（遍历所有观察者，只在读取指标时调用）
+     */
+    int pairedCount() {
+        int count = 0;
+        for (ViewerState state : viewers.values()) {
+            count += state.paired.size();
+        }
+        return count;
+    }
+
+    /**
+     * 有发光记录的目标实体数量
+     */
+    int targetCount() {
+        return viewersByEntity.size();
+    }
+}
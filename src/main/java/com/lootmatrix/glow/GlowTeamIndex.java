@@ -0,0 +1,111 @@
+package com.lootmatrix.glow;
+
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenCustomHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.network.protocol.game.ClientboundSetPlayerTeamPacket;
+import net.minecraft.world.scores.PlayerTeam;
+import net.minecraft.world.scores.Scoreboard;
+
+/**
+ * 记分板队伍成员索引：成员名称（不区分大小写）-> 真实队伍
+ *
+ * 移除发光效果时需要把实体恢复到它的真实队伍，记分板本身只能按名称精确查找，
+ * 大小写不同时原本需要遍历所有队伍的所有成员；这里由 GlowScoreboardMixin 在成员加入、移出和队伍删除时维护索引，
+ * 查找不区分大小写且不需要创建小写字符串
+ * 同时缓存每个真实队伍的队伍信息包（恢复时先发送该包，确保客户端有这个队伍的定义），队伍属性变化或队伍删除时失效
+ * 大小写不同的多个名称属于不同队伍时，索引保存最后加入的一个
+ * 只在服务器主线程访问
+ */
+final class GlowTeamIndex {
+
+    // 不区分大小写的字符串哈希策略，与 String.equalsIgnoreCase 一致
+    private static final Hash.Strategy<String> IGNORE_CASE = new Hash.Strategy<>() {
+        @Override
+        public int hashCode(String s) {
+            if (s == null) {
+                return 0;
+            }
+            int h = 0;
+            for (int i = 0; i < s.length(); i++) {
+                h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equals(String a, String b) {
+            return a == null ? b == null : a.equalsIgnoreCase(b);
+        }
+    };
+
+    // 成员名称 -> 真实队伍
+    private final Object2ObjectOpenCustomHashMap<String, PlayerTeam> teams = new Object2ObjectOpenCustomHashMap<>(IGNORE_CASE);
+
+    // 真实队伍 -> 缓存的队伍信息包
+    private final Reference2ObjectOpenHashMap<PlayerTeam, ClientboundSetPlayerTeamPacket> infoPackets = new Reference2ObjectOpenHashMap<>();
+
+    /**
+     * 根据记分板当前的队伍重建索引（服务器启动时调用）
+     */
+    void rebuild(Scoreboard scoreboard) {
+        teams.clear();
+        infoPackets.clear();
+        for (PlayerTeam team : scoreboard.getPlayerTeams()) {
+            for (String member : team.getPlayers()) {
+                teams.put(member, team);
+            }
+        }
+    }
+
+    void add(String name, PlayerTeam team) {
+        teams.put(name, team);
+    }
+
+    void remove(String name, PlayerTeam team) {
+        // 只移除指向该队伍的条目，大小写不同的其他名称可能属于另一个队伍
+        if (teams.get(name) == team) {
+            teams.remove(name);
+        }
+    }
+
+    /**
+     * 队伍被删除：移除所有成员和缓存的队伍信息包
+     */
+    void removeTeam(PlayerTeam team) {
+        for (String member : team.getPlayers()) {
+            remove(member, team);
+        }
+        infoPackets.remove(team);
+    }
+
+    /**
+     * 队伍属性（颜色、前缀等）变化，缓存的队伍信息包失效
+     */
+    void invalidate(PlayerTeam team) {
+        infoPackets.remove(team);
+    }
+
+    /**
+     * 不区分大小写地查找成员所在的真实队伍
+     */
+    PlayerTeam teamOf(String name) {
+        return teams.get(name);
+    }
+
+    /**
+     * 获取真实队伍的队伍信息包（修改队伍，不包含成员），只在队伍变化后重新创建
+     */
+    ClientboundSetPlayerTeamPacket infoPacket(PlayerTeam team) {
+        ClientboundSetPlayerTeamPacket packet = infoPackets.get(team);
+        if (packet == null) {
+            packet = ClientboundSetPlayerTeamPacket.createAddOrModifyPacket(team, false);
+            infoPackets.put(team, packet);
+        }
+        return packet;
+    }
+
+    int size() {
+        return teams.size();
+    }
+}
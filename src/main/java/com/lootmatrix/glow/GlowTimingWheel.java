@@ -0,0 +1,137 @@
+package com.lootmatrix.glow;
+
+import net.minecraft.world.entity.Entity;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * 发光效果到期时间的分层时间轮
+ *
+ * 4 层，每层 64 个槽：第 0 层每槽 1 tick，第 1 层每槽 64 tick，依此类推，可直接表示约 2^24 tick 内的到期时间，
+ * 更远的到期时间先放在最高层的最后一个槽，到时重新放置
+ * 每 tick 只处理当前槽中的条目；上层槽在下层转满一圈时整体下放一次，每个条目最多下放 3 次，
+ * 因此每 tick 的开销与到期（及下放）的条目数量成正比，不会扫描全部发光记录
+ *
+ * 条目被移除、覆盖或续期时不从时间轮中删除，到期时由调用方根据当前记录判断是否已经失效
+ * 非线程安全，只应在服务器主线程调用
+ */
+final class GlowTimingWheel {
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /**
+     * 时间轮中的一个条目（单向链表节点）
+     */
+    static final class Entry {
+        final UUID viewerId;
+        final Entity target;
+        final long deadline;
+        Entry next;
+
+        Entry(UUID viewerId, Entity target, long deadline) {
+            this.viewerId = viewerId;
+            this.target = target;
+            this.deadline = deadline;
+        }
+    }
+
+    private final Entry[][] slots = new Entry[LEVELS][SLOTS];
+
+    // 最后一个已处理（或正在处理）的 tick
+    private long currentTick;
+
+    // 时间轮中的条目数量（包括已经失效但尚未到期的条目）
+    private int size;
+
+    /**
+     * 下一个要处理的 tick
+     */
+    long nextTick() {
+        return currentTick + 1;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 添加一个在指定 tick 结束时到期的条目，已经过去的时间视为下一个 tick
+     */
+    void schedule(long deadline, UUID viewerId, Entity target) {
+        insert(new Entry(viewerId, target, Math.max(deadline, currentTick + 1)));
+        size++;
+    }
+
+    /**
+     * 处理下一个 tick，将到期的条目交给回调
+     */
+    void advance(Consumer<Entry> expired) {
+        long tick = ++currentTick;
+        if (size == 0) {
+            return;
+        }
+
+        // 下层转满一圈时从上层下放，先处理最高层，下放的条目可能继续落入本 tick 要下放的下层槽
+        // 第 L 层在 tick 为 64^L 的整数倍时下放
+        int highest = 0;
+        while (highest < LEVELS - 1 && (tick & ((1L << (SLOT_BITS * (highest + 1))) - 1)) == 0) {
+            highest++;
+        }
+        for (int level = highest; level >= 1; level--) {
+            int index = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Entry entry = slots[level][index];
+            slots[level][index] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                insert(entry);
+                entry = next;
+            }
+        }
+
+        int index = (int) (tick & SLOT_MASK);
+        Entry entry = slots[0][index];
+        slots[0][index] = null;
+        while (entry != null) {
+            Entry next = entry.next;
+            if (entry.deadline > tick) {
+                // 超出时间轮范围的条目提前下放到这里，重新放置
+                insert(entry);
+            } else {
+                size--;
+                expired.accept(entry);
+            }
+            entry = next;
+        }
+    }
+
+    /**
+     * 根据距离到期的时间选择层和槽
+     */
+    private void insert(Entry entry) {
+        long delta = entry.deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+
+        int index;
+        if (level == LEVELS) {
+            // 超出范围，放在最高层最后到达的槽
+            level = LEVELS - 1;
+            index = (int) (((currentTick >>> (SLOT_BITS * level)) + SLOT_MASK) & SLOT_MASK);
+        } else {
+            index = (int) ((entry.deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        }
+
+        entry.next = slots[level][index];
+        slots[level][index] = entry;
+    }
+}
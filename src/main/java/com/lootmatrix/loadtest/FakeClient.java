@@ -0,0 +1,141 @@
+package com.lootmatrix.loadtest;
+
+import com.mojang.authlib.GameProfile;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import net.minecraft.network.Connection;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.network.protocol.common.ClientboundKeepAlivePacket;
+import net.minecraft.network.protocol.common.ServerboundKeepAlivePacket;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.game.GameProtocols;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ClientInformation;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.CommonListenerCookie;
+
+import java.util.UUID;
+
+/**
+ * 负载测试用的假玩家
+ *
+ * 使用内存中的 EmbeddedChannel 代替网络连接：服务端的编码器照常把数据包编码为字节，
+ * 这里在编码前统计数据包数量（捆绑包按其中的子包计数），每 tick 结束时读出并释放编码后的字节并统计字节数；
+ * 连接加入服务器的连接列表，由服务器照常 tick 玩家；收到保活包后在下一次 drain 时回应，避免超时断开
+ * 连接没有启用压缩，字节数为未压缩的大小
+ * 只应在服务器主线程使用
+ */
+final class FakeClient {
+
+    final ServerPlayer player;
+    final EmbeddedChannel channel;
+
+    // 已发送给该玩家的数据包数量和字节数
+    long packets;
+    long bytes;
+
+    // 待回应的保活包ID
+    private long keepAliveId;
+    private boolean keepAlivePending;
+
+    private FakeClient(ServerPlayer player, EmbeddedChannel channel) {
+        this.player = player;
+        this.channel = channel;
+    }
+
+    /**
+     * 创建假玩家并让其加入服务器
+     */
+    static FakeClient connect(MinecraftServer server, String name) {
+        Connection connection = new Connection(PacketFlow.SERVERBOUND);
+        FakeClient[] holder = new FakeClient[1];
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                Connection.configureSerialization(ch.pipeline(), PacketFlow.SERVERBOUND, false, null);
+                ch.pipeline().addLast("packet_handler", connection);
+                // 最后添加的处理器最先看到出站的数据包对象
+                ch.pipeline().addLast("dpe_load_counter", new ChannelOutboundHandlerAdapter() {
+                    @Override
+                    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                        if (msg instanceof Packet<?> packet && holder[0] != null) {
+                            holder[0].onPacket(packet);
+                        }
+                        super.write(ctx, msg, promise);
+                    }
+                });
+            }
+        });
+
+        UUID uuid = UUID.nameUUIDFromBytes(("dpe_load:" + name).getBytes());
+        GameProfile profile = new GameProfile(uuid, name);
+        ServerPlayer player = new ServerPlayer(server, server.overworld(), profile, ClientInformation.createDefault());
+        FakeClient client = new FakeClient(player, channel);
+        holder[0] = client;
+
+        // 与配置阶段结束时相同：切换到游戏协议后加入玩家列表
+        connection.setupOutboundProtocol(GameProtocols.CLIENTBOUND_TEMPLATE.bind(
+                RegistryFriendlyByteBuf.decorator(server.registryAccess())));
+        server.getConnection().getConnections().add(connection);
+        server.getPlayerList().placeNewPlayer(connection, player, CommonListenerCookie.createInitial(profile, false));
+        return client;
+    }
+
+    private void onPacket(Packet<?> packet) {
+        if (packet instanceof ClientboundBundlePacket bundle) {
+            for (Packet<?> subPacket : bundle.subPackets()) {
+                onPacket(subPacket);
+            }
+            return;
+        }
+        packets++;
+        if (packet instanceof ClientboundKeepAlivePacket keepAlive) {
+            keepAliveId = keepAlive.getId();
+            keepAlivePending = true;
+        }
+    }
+
+    /**
+     * 读出并释放编码后的字节，回应保活包（每 tick 结束时调用）
+     */
+    void drain() {
+        channel.flush();
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            if (msg instanceof ByteBuf buf) {
+                bytes += buf.readableBytes();
+            }
+            ReferenceCountUtil.release(msg);
+        }
+
+        if (keepAlivePending && player.connection != null) {
+            keepAlivePending = false;
+            player.connection.handleKeepAlive(new ServerboundKeepAlivePacket(keepAliveId));
+        }
+    }
+
+    /**
+     * 重置统计（预热结束时调用）
+     */
+    void resetCounters() {
+        packets = 0;
+        bytes = 0;
+    }
+
+    void disconnect() {
+        if (player.connection != null) {
+            player.connection.disconnect(Component.literal("Load test finished"));
+        }
+        drain();
+    }
+}
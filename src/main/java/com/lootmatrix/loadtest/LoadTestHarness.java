@@ -0,0 +1,374 @@
+package com.lootmatrix.loadtest;
+
+import com.lootmatrix.DatapackExtension;
+import com.lootmatrix.glow.GlowColor;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * 无客户端的负载测试
+ *
+ * 在当前服务器中连接 N 个假玩家（见 FakeClient），生成 M 个带发光效果和可见性限制的文本展示实体，
+ * 然后每 tick 随机执行 /dpe_glow、/dpe_display、/dpe_cansee 命令并移动玩家，
+ * 统计 MSPT、每个玩家每 tick 收到的数据包数和字节数以及堆内存，用于评估服务器规模和比较管理器的各种模式
+ *
+ * 阶段：连接玩家并强制加载区块 -> 生成展示实体并设置发光和可见性 -> 预热 -> 测量 -> 报告并清理
+ * 通过 /dpe_loadtest 在运行中的服务器上启动，或通过 JVM 参数 -Ddpe.loadtest=玩家数,展示实体数,测量tick数
+ * 在专用服务器启动后自动运行，报告后关闭服务器（见 build.gradle 中的 loadTest 运行配置）
+ * 只在开发环境或设置了 dpe.loadtest 时注册（见 isEnabled），正式服务器上不会出现 /dpe_loadtest
+ * 只应在服务器主线程调用
+ */
+public final class LoadTestHarness {
+
+    /**
+     * 负载测试参数
+     *
+     * @param players       假玩家数量
+     * @param displays      展示实体数量
+     * @param ticks         测量的 tick 数
+     * @param setupCommands 开始前执行的命令（例如切换发光重新同步模式），不带斜杠
+     */
+    public record Config(int players, int displays, int ticks, List<String> setupCommands) {
+
+        /**
+         * 从系统属性读取：dpe.loadtest=玩家数,展示实体数,测量tick数；
+         * dpe.loadtest.setup=以分号分隔的命令
+         *
+         * @return 没有设置属性时返回 null
+         */
+        public static Config fromSystemProperties() {
+            String spec = System.getProperty("dpe.loadtest");
+            if (spec == null || spec.isBlank()) {
+                return null;
+            }
+            String[] parts = spec.split(",");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("dpe.loadtest must be <players>,<displays>,<ticks>: " + spec);
+            }
+            String setup = System.getProperty("dpe.loadtest.setup", "");
+            List<String> commands = Arrays.stream(setup.split(";"))
+                    .map(String::trim)
+                    .filter(s -> !s.isEmpty())
+                    .toList();
+            return new Config(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                    Integer.parseInt(parts[2].trim()), commands);
+        }
+    }
+
+    private enum Phase {
+        CONNECT,
+        SPAWN,
+        WARMUP,
+        MEASURE
+    }
+
+    // 展示实体和玩家分布的范围（方块），强制加载的区块覆盖该范围
+    private static final int AREA_RADIUS = 48;
+    private static final int AREA_Y = 100;
+    private static final String TAG = "dpe_load";
+    private static final String NAME_PREFIX = "dpeload_";
+
+    // 连接玩家后等待区块加载的 tick 数
+    private static final int CONNECT_TICKS = 20;
+    // 生成展示实体后的预热 tick 数
+    private static final int WARMUP_TICKS = 100;
+    // 每隔多少 tick 移动一部分玩家
+    private static final int MOVE_INTERVAL = 20;
+
+    private static Run current;
+
+    private LoadTestHarness() {
+    }
+
+    /**
+     * 是否启用负载测试：开发环境中或设置了 -Ddpe.loadtest 时启用
+     */
+    public static boolean isEnabled() {
+        return System.getProperty("dpe.loadtest") != null || FabricLoader.getInstance().isDevelopmentEnvironment();
+    }
+
+    public static void register() {
+        ServerTickEvents.START_SERVER_TICK.register(server -> {
+            if (current != null) {
+                current.onTickStart(server);
+            }
+        });
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            if (current != null) {
+                current.onTickEnd(server);
+            }
+        });
+
+        // 专用服务器上通过系统属性自动运行，报告后关闭服务器
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            Config config = Config.fromSystemProperties();
+            if (config != null && server.isDedicatedServer()) {
+                start(server, config, DatapackExtension.LOGGER::info, true);
+            }
+        });
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            if (current != null) {
+                current.cleanup(server);
+                current = null;
+            }
+        });
+    }
+
+    public static boolean isRunning() {
+        return current != null;
+    }
+
+    /**
+     * 开始负载测试
+     *
+     * @param report     接收进度和报告的回调
+     * @param haltOnDone 报告后是否关闭服务器
+     * @return 是否已开始（已有测试在运行时返回 false）
+     */
+    public static boolean start(MinecraftServer server, Config config, Consumer<String> report, boolean haltOnDone) {
+        if (current != null) {
+            return false;
+        }
+        current = new Run(config, report, haltOnDone);
+        current.connect(server);
+        return true;
+    }
+
+    /**
+     * 中止负载测试并清理
+     */
+    public static boolean stop(MinecraftServer server) {
+        if (current == null) {
+            return false;
+        }
+        current.report.accept("Load test aborted");
+        current.cleanup(server);
+        current = null;
+        return true;
+    }
+
+    /**
+     * 一次负载测试的状态
+     */
+    private static final class Run {
+        final Config config;
+        final Consumer<String> report;
+        final boolean haltOnDone;
+        final SplittableRandom random = new SplittableRandom(42);
+        final List<FakeClient> clients = new ArrayList<>();
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        Phase phase = Phase.CONNECT;
+        int phaseTicks;
+        long tickStart;
+
+        // 测量阶段每 tick 的耗时（纳秒）
+        long[] tickNanos;
+        long commands;
+        long peakHeap;
+
+        // connect 中强制加载的方块范围，清理时只取消这一范围，不影响服务器上其他强制加载的区块
+        String forceloadRange;
+
+        Run(Config config, Consumer<String> report, boolean haltOnDone) {
+            this.config = config;
+            this.report = report;
+            this.haltOnDone = haltOnDone;
+        }
+
+        void connect(MinecraftServer server) {
+            int chunkRadius = (AREA_RADIUS >> 4) + 1;
+            forceloadRange = String.format(Locale.ROOT, "%d %d %d %d",
+                    -chunkRadius * 16, -chunkRadius * 16, chunkRadius * 16 - 1, chunkRadius * 16 - 1);
+            run(server, "forceload add " + forceloadRange);
+            for (String command : config.setupCommands()) {
+                run(server, command);
+            }
+
+            for (int i = 0; i < config.players(); i++) {
+                String name = NAME_PREFIX + i;
+                clients.add(FakeClient.connect(server, name));
+                run(server, "gamemode spectator " + name);
+                run(server, "tag " + name + " add " + TAG + "_viewer");
+                movePlayer(server, name);
+            }
+            report.accept(String.format(Locale.ROOT, "Load test: connected %d fake players", clients.size()));
+        }
+
+        void spawn(MinecraftServer server) {
+            for (int i = 0; i < config.displays(); i++) {
+                run(server, String.format(Locale.ROOT, "summon minecraft:text_display %d %d %d {Tags:[\"%s\"]}",
+                        random.nextInt(-AREA_RADIUS, AREA_RADIUS), AREA_Y + random.nextInt(-8, 8),
+                        random.nextInt(-AREA_RADIUS, AREA_RADIUS), TAG));
+            }
+
+            // 所有展示实体对所有玩家发光，每个展示实体只对一半的玩家可见
+            run(server, "dpe_glow add @e[tag=" + TAG + "] " + randomColor() + " @a[tag=" + TAG + "_viewer]");
+            int visibleTo = Math.max(1, config.players() / 2);
+            for (int i = 0; i < config.displays(); i++) {
+                run(server, "dpe_display show @e[tag=" + TAG + ",limit=1,sort=random] @a[tag=" + TAG
+                        + "_viewer,limit=" + visibleTo + ",sort=random]");
+            }
+            report.accept(String.format(Locale.ROOT, "Load test: spawned %d displays, warming up for %d ticks",
+                    config.displays(), WARMUP_TICKS));
+        }
+
+        /**
+         * 在 tick 开始时执行随机命令，使测量的 tick 耗时包含命令本身的开销
+         */
+        void onTickStart(MinecraftServer server) {
+            tickStart = System.nanoTime();
+            if (phase == Phase.SPAWN || phase == Phase.MEASURE) {
+                workload(server);
+            }
+        }
+
+        void onTickEnd(MinecraftServer server) {
+            long elapsed = System.nanoTime() - tickStart;
+            for (FakeClient client : clients) {
+                client.drain();
+            }
+            phaseTicks++;
+
+            switch (phase) {
+                case CONNECT -> {
+                    if (phaseTicks >= CONNECT_TICKS) {
+                        spawn(server);
+                        next(Phase.SPAWN);
+                    }
+                }
+                case SPAWN -> {
+                    if (phaseTicks >= WARMUP_TICKS) {
+                        for (FakeClient client : clients) {
+                            client.resetCounters();
+                        }
+                        tickNanos = new long[config.ticks()];
+                        commands = 0;
+                        peakHeap = 0;
+                        next(Phase.MEASURE);
+                    }
+                }
+                case MEASURE -> {
+                    tickNanos[phaseTicks - 1] = elapsed;
+                    peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+                    if (phaseTicks >= config.ticks()) {
+                        finish(server);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        void next(Phase phase) {
+            this.phase = phase;
+            this.phaseTicks = 0;
+        }
+
+        /**
+         * 每 tick 随机执行的命令：每 4 个玩家一条，至少一条
+         */
+        void workload(MinecraftServer server) {
+            int operations = Math.max(1, clients.size() / 4);
+            for (int i = 0; i < operations; i++) {
+                String name = NAME_PREFIX + random.nextInt(clients.size());
+                String command = switch (random.nextInt(5)) {
+                    case 0 -> "dpe_glow add @e[tag=" + TAG + ",limit=16,sort=random] " + randomColor() + " " + name;
+                    case 1 -> "dpe_glow remove @e[tag=" + TAG + ",limit=16,sort=random] " + name;
+                    case 2 -> "dpe_display add @e[tag=" + TAG + ",limit=1,sort=random] " + name;
+                    case 3 -> "dpe_display remove @e[tag=" + TAG + ",limit=1,sort=random] " + name;
+                    default -> "dpe_cansee " + name + " @e[tag=" + TAG + ",limit=8,sort=nearest]";
+                };
+                run(server, command);
+                commands++;
+            }
+
+            if (phaseTicks % MOVE_INTERVAL == 0) {
+                for (int i = 0; i < Math.max(1, clients.size() / 8); i++) {
+                    movePlayer(server, NAME_PREFIX + random.nextInt(clients.size()));
+                }
+            }
+        }
+
+        void finish(MinecraftServer server) {
+            long[] sorted = tickNanos.clone();
+            Arrays.sort(sorted);
+            double mean = Arrays.stream(sorted).average().orElse(0) / 1_000_000.0;
+            double p99 = sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.99) - 1)] / 1_000_000.0;
+            double max = sorted[sorted.length - 1] / 1_000_000.0;
+
+            long packets = 0;
+            long bytes = 0;
+            for (FakeClient client : clients) {
+                packets += client.packets;
+                bytes += client.bytes;
+            }
+            double perPlayerTick = (double) clients.size() * config.ticks();
+
+            report.accept(String.format(Locale.ROOT,
+                    "Load test finished: %d players, %d displays, %d ticks, %d commands",
+                    clients.size(), config.displays(), config.ticks(), commands));
+            report.accept(String.format(Locale.ROOT, "  MSPT: mean %.2f, p99 %.2f, max %.2f", mean, p99, max));
+            report.accept(String.format(Locale.ROOT, "  Per player per tick: %.2f packets, %.1f bytes (uncompressed)",
+                    packets / perPlayerTick, bytes / perPlayerTick));
+            report.accept(String.format(Locale.ROOT, "  Heap: peak %d MiB, max %d MiB",
+                    peakHeap >> 20, memory.getHeapMemoryUsage().getMax() >> 20));
+
+            cleanup(server);
+            current = null;
+            if (haltOnDone) {
+                server.halt(false);
+            }
+        }
+
+        void cleanup(MinecraftServer server) {
+            for (FakeClient client : clients) {
+                client.disconnect();
+            }
+            clients.clear();
+            run(server, "kill @e[tag=" + TAG + "]");
+            if (forceloadRange != null) {
+                run(server, "forceload remove " + forceloadRange);
+                forceloadRange = null;
+            }
+        }
+
+        void movePlayer(MinecraftServer server, String name) {
+            run(server, String.format(Locale.ROOT, "tp %s %d %d %d", name,
+                    random.nextInt(-AREA_RADIUS, AREA_RADIUS), AREA_Y, random.nextInt(-AREA_RADIUS, AREA_RADIUS)));
+        }
+
+        String randomColor() {
+            GlowColor[] colors = GlowColor.values();
+            return colors[random.nextInt(colors.length)].name().toLowerCase(Locale.ROOT);
+        }
+
+        void run(MinecraftServer server, String command) {
+            CommandSourceStack source = server.createCommandSourceStack().withSuppressedOutput();
+            server.getCommands().performPrefixedCommand(source, command);
+        }
+    }
+
+    /**
+     * 将报告发送给命令来源
+     */
+    public static Consumer<String> feedback(CommandSourceStack source) {
+        return line -> {
+            DatapackExtension.LOGGER.info(line);
+            source.sendSuccess(() -> Component.literal(line), false);
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package com.lootmatrix.mixin;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import net.minecraft.server.level.ChunkMap;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * 访问区块管理器中的实体追踪表
+ * 值的类型是非公开的 ChunkMap.TrackedEntity，使用时转换为 TrackedEntityAccessor
+ */
+@Mixin(ChunkMap.class)
+public interface ChunkMapAccessor {
+
+    @Accessor("entityMap")
+    Int2ObjectMap<Object> getEntityMap();
+}
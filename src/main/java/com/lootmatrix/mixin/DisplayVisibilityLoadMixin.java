@@ -0,0 +1,25 @@
+package com.lootmatrix.mixin;
+
+import com.lootmatrix.display.DisplayVisibilityManager;
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.world.entity.Entity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * 实体开始被追踪前，从随实体保存的附加数据恢复可见性规则
+ *
+ * Fabric 的 ENTITY_LOAD 事件在区块管理器建立追踪之后才触发，那时附近玩家已经经过了 addPairing，
+ * 因此在 ChunkMap.addEntity 的开头恢复，第一次 addPairing 时可见性检查已经能查到规则
+ * 这是纯服务端的 Mixin，不需要客户端安装
+ */
+@Mixin(ChunkMap.class)
+public abstract class DisplayVisibilityLoadMixin {
+
+    @Inject(method = "addEntity", at = @At("HEAD"))
+    private void onAddEntity(Entity entity, CallbackInfo ci) {
+        DisplayVisibilityManager.onEntityLoad(entity);
+    }
+}
@@ -1,9 +1,11 @@
 package com.lootmatrix.mixin;
 
 import com.lootmatrix.display.DisplayVisibilityManager;
+import com.lootmatrix.display.VisibilityFlag;
+import com.lootmatrix.util.DpeEvents;
+import com.lootmatrix.util.DpeMetrics;
 import net.minecraft.server.level.ServerEntity;
 import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.world.entity.Display;
 import net.minecraft.world.entity.Entity;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
@@ -13,7 +15,8 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 /**
- * 拦截展示实体的追踪，阻止向未授权玩家发送实体数据
+ * 拦截实体的追踪，阻止向未授权玩家发送实体数据，并记录受限实体在各玩家客户端上是否存在
+ * 没有限制的实体只检查一个标记位，不增加正常追踪的开销
  *
  * 这是纯服务端的 Mixin，不需要客户端安装
  */
@@ -26,15 +29,39 @@ public abstract class DisplayVisibilityMixin {
 
     /**
      * 拦截实体开始被玩家追踪
-     * 如果是受限的展示实体且玩家无权查看，阻止追踪
+     * 如果是受限的实体且玩家无权查看，阻止追踪
      */
     @Inject(method = "addPairing", at = @At("HEAD"), cancellable = true)
     private void onAddPairing(ServerPlayer player, CallbackInfo ci) {
-        if (this.entity instanceof Display display) {
-            if (!DisplayVisibilityManager.canPlayerSee(display, player)) {
+        if (((VisibilityFlag) this.entity).dpe$isVisibilityRestricted()) {
+            DpeEvents.DisplayPairing event = new DpeEvents.DisplayPairing();
+            event.begin();
+            long start = DpeMetrics.start();
+            boolean blocked = !DisplayVisibilityManager.canPlayerSee(this.entity, player);
+            if (blocked) {
                 // 阻止向该玩家发送实体数据
                 ci.cancel();
             }
+            // 记录该玩家的客户端上是否存在该实体
+            DisplayVisibilityManager.onPairingChanged(this.entity, player, !blocked);
+            DpeMetrics.record(DpeMetrics.Timer.DISPLAY_PAIRING_HOOK, start);
+
+            if (event.shouldCommit()) {
+                event.entityId = this.entity.getId();
+                event.viewerEntityId = player.getId();
+                event.blocked = blocked;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * 实体不再被玩家追踪时，原版已向该玩家发送移除实体的包
+     */
+    @Inject(method = "removePairing", at = @At("TAIL"))
+    private void onRemovePairing(ServerPlayer player, CallbackInfo ci) {
+        if (((VisibilityFlag) this.entity).dpe$isVisibilityRestricted()) {
+            DisplayVisibilityManager.onPairingChanged(this.entity, player, false);
         }
     }
 
@@ -43,7 +70,7 @@ public abstract class DisplayVisibilityMixin {
      */
     @Inject(method = "sendDirtyEntityData", at = @At("TAIL"))
     private void afterSendDirtyEntityData(CallbackInfo ci) {
-        // 对于展示实体，我们需要确保只有授权玩家能看到
+        // 对于受限实体，我们需要确保只有授权玩家能看到
         // 这里不需要额外处理，因为 addPairing 已经阻止了未授权玩家的追踪
     }
 }
@@ -0,0 +1,29 @@
+package com.lootmatrix.mixin;
+
+import com.lootmatrix.display.DisplayVisibilityManager;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.server.network.ServerCommonPacketListenerImpl;
+import net.minecraft.server.network.ServerGamePacketListenerImpl;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * 批量执行可见性状态转换时，收集 addPairing/removePairing 发往该玩家的包，由管理器合并为捆绑包发送
+ * 没有在收集时只检查一个静态字段
+ *
+ * 这是纯服务端的 Mixin，不需要客户端安装
+ */
+@Mixin(ServerCommonPacketListenerImpl.class)
+public abstract class DisplayVisibilityPacketMixin {
+
+    @Inject(method = "send(Lnet/minecraft/network/protocol/Packet;)V", at = @At("HEAD"), cancellable = true)
+    private void onSend(Packet<?> packet, CallbackInfo ci) {
+        if (DisplayVisibilityManager.isCapturingPackets()
+                && (Object) this instanceof ServerGamePacketListenerImpl gameListener
+                && DisplayVisibilityManager.capturePacket(gameListener.player, packet)) {
+            ci.cancel();
+        }
+    }
+}
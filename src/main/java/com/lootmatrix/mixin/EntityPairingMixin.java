@@ -0,0 +1,36 @@
+package com.lootmatrix.mixin;
+
+import com.lootmatrix.util.PairedEntities;
+import net.minecraft.server.level.ServerEntity;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * 在追踪建立和取消后维护玩家的已追踪实体集合（见 PairedEntities）
+ * 被 DisplayVisibilityMixin 取消的 addPairing 不会执行到 TAIL，不会加入集合
+ *
+ * 这是纯服务端的 Mixin，不需要客户端安装
+ */
+@Mixin(ServerEntity.class)
+public abstract class EntityPairingMixin {
+
+    @Shadow
+    @Final
+    private Entity entity;
+
+    @Inject(method = "addPairing", at = @At("TAIL"))
+    private void onAddPairing(ServerPlayer player, CallbackInfo ci) {
+        ((PairedEntities) player).dpe$pairedEntities().add(this.entity);
+    }
+
+    @Inject(method = "removePairing", at = @At("TAIL"))
+    private void onRemovePairing(ServerPlayer player, CallbackInfo ci) {
+        ((PairedEntities) player).dpe$pairedEntities().remove(this.entity);
+    }
+}
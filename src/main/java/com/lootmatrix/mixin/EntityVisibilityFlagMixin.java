@@ -0,0 +1,27 @@
+package com.lootmatrix.mixin;
+
+import com.lootmatrix.display.VisibilityFlag;
+import net.minecraft.world.entity.Entity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+
+/**
+ * 为所有实体添加可见性限制标记位，实体追踪时只需检查该标记位即可跳过没有限制的实体
+ * 这是纯服务端的 Mixin，不需要客户端安装
+ */
+@Mixin(Entity.class)
+public abstract class EntityVisibilityFlagMixin implements VisibilityFlag {
+
+    @Unique
+    private boolean dpe$visibilityRestricted;
+
+    @Override
+    public boolean dpe$isVisibilityRestricted() {
+        return this.dpe$visibilityRestricted;
+    }
+
+    @Override
+    public void dpe$setVisibilityRestricted(boolean restricted) {
+        this.dpe$visibilityRestricted = restricted;
+    }
+}
@@ -0,0 +1,36 @@
+package com.lootmatrix.mixin;
+
+import com.lootmatrix.glow.GlowManager;
+import com.lootmatrix.util.DpeMetrics;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientboundSetEntityDataPacket;
+import net.minecraft.server.network.ServerCommonPacketListenerImpl;
+import net.minecraft.server.network.ServerGamePacketListenerImpl;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.ModifyVariable;
+
+/**
+ * 在原版广播实体数据包时，为有发光效果的观察者改写包中的发光标志
+ * 这是纯服务端的 Mixin，不需要客户端安装
+ *
+ * 原版通过 ServerEntity 向每个追踪玩家的连接分别发送同一个实体数据包，
+ * 这里在每个连接上检查该玩家是否对该实体有发光效果，有则将发光位并入 flags，
+ * 不需要在原版的包之后再补发一个发光包，也避免了两个包先后到达造成的闪烁
+ */
+@Mixin(ServerCommonPacketListenerImpl.class)
+public abstract class GlowEntityDataMixin {
+
+    @ModifyVariable(method = "send(Lnet/minecraft/network/protocol/Packet;)V", at = @At("HEAD"), argsOnly = true)
+    private Packet<?> rewriteEntityData(Packet<?> packet) {
+        if (packet instanceof ClientboundSetEntityDataPacket dataPacket
+                && GlowManager.isEntityDataRewriteEnabled()
+                && (Object) this instanceof ServerGamePacketListenerImpl gameListener) {
+            long start = DpeMetrics.start();
+            Packet<?> rewritten = GlowManager.rewriteEntityDataPacket(dataPacket, gameListener.player);
+            DpeMetrics.record(DpeMetrics.Timer.GLOW_ENTITY_DATA_HOOK, start);
+            return rewritten;
+        }
+        return packet;
+    }
+}
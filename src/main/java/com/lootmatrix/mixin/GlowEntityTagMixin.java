@@ -0,0 +1,38 @@
+package com.lootmatrix.mixin;
+
+import com.lootmatrix.display.DisplayVisibilityManager;
+import com.lootmatrix.glow.GlowManager;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * 监听实体标签变化，对引用标签的发光规则增量重新求值，并更新绑定到标签的展示实体观察者组
+ * 这是纯服务端的 Mixin，不需要客户端安装
+ */
+@Mixin(Entity.class)
+public abstract class GlowEntityTagMixin {
+
+    @Inject(method = "addTag", at = @At("RETURN"))
+    private void onAddTag(String tag, CallbackInfoReturnable<Boolean> cir) {
+        onTagChanged(cir);
+    }
+
+    @Inject(method = "removeTag", at = @At("RETURN"))
+    private void onRemoveTag(String tag, CallbackInfoReturnable<Boolean> cir) {
+        onTagChanged(cir);
+    }
+
+    @Unique
+    private void onTagChanged(CallbackInfoReturnable<Boolean> cir) {
+        Entity self = (Entity) (Object) this;
+        if (cir.getReturnValueZ() && self.level() instanceof ServerLevel) {
+            GlowManager.onTagChanged(self);
+            DisplayVisibilityManager.onTagChanged(self);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.lootmatrix.mixin;
 
 import com.lootmatrix.glow.GlowManager;
+import com.lootmatrix.util.DpeEvents;
+import com.lootmatrix.util.DpeMetrics;
 import net.minecraft.server.level.ServerEntity;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.Entity;
@@ -12,7 +14,7 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 /**
- * 当实体进入玩家视野时，刷新发光效果
+ * 当实体进入玩家视野时，刷新发光效果；离开视野时停止对该发光对的每 tick 处理
  * 这是纯服务端的 Mixin，不需要客户端安装
  */
 @Mixin(ServerEntity.class)
@@ -27,7 +29,29 @@ public abstract class GlowEntityTrackerMixin {
      */
     @Inject(method = "addPairing", at = @At("TAIL"))
     private void onStartTracking(ServerPlayer player, CallbackInfo ci) {
-        // 实体进入玩家视野后，刷新发光效果
-        GlowManager.refreshGlow(player, this.entity);
+        // 实体进入玩家视野后，刷新发光效果（增量模式下在 tick 结束时重发）
+        DpeEvents.GlowStartTracking event = new DpeEvents.GlowStartTracking();
+        event.begin();
+        long start = DpeMetrics.start();
+        GlowManager.onStartTracking(player, this.entity);
+        DpeMetrics.record(DpeMetrics.Timer.GLOW_START_TRACKING_HOOK, start);
+
+        if (event.shouldCommit()) {
+            event.entityId = this.entity.getId();
+            event.viewerEntityId = player.getId();
+            event.viewerCount = GlowManager.getViewerCount(this.entity);
+            event.glowing = GlowManager.hasGlowForViewer(player.getUUID(), this.entity.getId());
+            event.commit();
+        }
+    }
+
+    /**
+     * 当实体不再被玩家追踪时（离开视野），该发光对不再参与每 tick 的刷新
+     */
+    @Inject(method = "removePairing", at = @At("TAIL"))
+    private void onStopTracking(ServerPlayer player, CallbackInfo ci) {
+        long start = DpeMetrics.start();
+        GlowManager.onStopTracking(player, this.entity);
+        DpeMetrics.record(DpeMetrics.Timer.GLOW_STOP_TRACKING_HOOK, start);
     }
 }
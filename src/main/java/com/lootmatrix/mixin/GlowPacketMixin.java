@@ -1,6 +1,8 @@
 package com.lootmatrix.mixin;
 
 import com.lootmatrix.glow.GlowManager;
+import com.lootmatrix.util.DpeEvents;
+import com.lootmatrix.util.DpeMetrics;
 import net.minecraft.server.level.ServerEntity;
 import net.minecraft.world.entity.Entity;
 import org.spongepowered.asm.mixin.Final;
@@ -27,8 +29,24 @@ public abstract class GlowPacketMixin {
      */
     @Inject(method = "sendDirtyEntityData", at = @At("TAIL"))
     private void afterSendDirtyEntityData(CallbackInfo ci) {
+        // 启用实体数据包改写时，发光位已在原版的包中并入，不需要补发
+        if (GlowManager.isEntityDataRewriteEnabled()) {
+            return;
+        }
+
         // 获取追踪这个实体的所有玩家，对有发光效果的重新发送发光数据包
         // 这个方法在实体数据被标记为脏并发送后调用
-        GlowManager.refreshGlowForEntity(this.entity);
+        DpeEvents.GlowDirtyData event = new DpeEvents.GlowDirtyData();
+        event.begin();
+        long start = DpeMetrics.start();
+        int sent = GlowManager.refreshGlowForEntity(this.entity);
+        DpeMetrics.record(DpeMetrics.Timer.GLOW_DIRTY_DATA_HOOK, start);
+
+        if (event.shouldCommit()) {
+            event.entityId = this.entity.getId();
+            event.viewerCount = GlowManager.getViewerCount(this.entity);
+            event.packetCount = sent;
+            event.commit();
+        }
     }
 }
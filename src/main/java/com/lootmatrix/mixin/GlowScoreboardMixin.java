@@ -0,0 +1,60 @@
+package com.lootmatrix.mixin;
+
+import com.lootmatrix.display.DisplayVisibilityManager;
+import com.lootmatrix.glow.GlowManager;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.ServerScoreboard;
+import net.minecraft.world.scores.PlayerTeam;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * 监听记分板队伍成员变化，维护发光管理器的成员 -> 真实队伍索引，并对引用队伍的发光规则增量重新求值；
+ * 同时更新绑定到队伍的展示实体观察者组
+ * 这是纯服务端的 Mixin，不需要客户端安装
+ */
+@Mixin(ServerScoreboard.class)
+public abstract class GlowScoreboardMixin {
+
+    @Shadow
+    @Final
+    private MinecraftServer server;
+
+    @Inject(method = "addPlayerToTeam", at = @At("RETURN"))
+    private void onAddPlayerToTeam(String playerName, PlayerTeam team, CallbackInfoReturnable<Boolean> cir) {
+        if (cir.getReturnValueZ()) {
+            GlowManager.onPlayerAddedToTeam(this.server, playerName, team);
+            DisplayVisibilityManager.onTeamMembershipChanged(this.server, playerName);
+        }
+    }
+
+    @Inject(method = "removePlayerFromTeam(Ljava/lang/String;Lnet/minecraft/world/scores/PlayerTeam;)V", at = @At("TAIL"))
+    private void onRemovePlayerFromTeam(String playerName, PlayerTeam team, CallbackInfo ci) {
+        GlowManager.onPlayerRemovedFromTeam(this.server, playerName, team);
+        DisplayVisibilityManager.onTeamMembershipChanged(this.server, playerName);
+    }
+
+    /**
+     * 队伍被删除时成员直接从记分板移除，不会经过 removePlayerFromTeam
+     */
+    @Inject(method = "onTeamRemoved", at = @At("TAIL"))
+    private void onTeamRemoved(PlayerTeam team, CallbackInfo ci) {
+        GlowManager.onTeamRemoved(this.server, team);
+        for (String playerName : team.getPlayers()) {
+            DisplayVisibilityManager.onTeamMembershipChanged(this.server, playerName);
+        }
+    }
+
+    /**
+     * 队伍颜色、前缀等属性变化时，缓存的队伍信息包失效
+     */
+    @Inject(method = "onTeamChanged", at = @At("TAIL"))
+    private void onTeamChanged(PlayerTeam team, CallbackInfo ci) {
+        GlowManager.onTeamChanged(team);
+    }
+}
@@ -1,19 +1,17 @@
 package com.lootmatrix.mixin;
 
-import com.lootmatrix.glow.GlowColor;
 import com.lootmatrix.glow.GlowManager;
+import com.lootmatrix.util.DpeEvents;
+import com.lootmatrix.util.DpeMetrics;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientboundSetPlayerTeamPacket;
 import net.minecraft.server.network.ServerCommonPacketListenerImpl;
 import org.spongepowered.asm.mixin.Mixin;
-import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * 拦截服务端发送的队伍包，防止与虚拟发光队伍冲突
@@ -32,24 +30,6 @@ import java.util.Set;
 @Mixin(ServerCommonPacketListenerImpl.class)
 public abstract class GlowTeamPacketMixin {
 
-    // 缓存所有发光队伍名称 - 懒加载
-    @Unique
-    private static Set<String> glowTeamNames;
-
-    /**
-     * 获取发光队伍名称集合（懒加载）
-     */
-    @Unique
-    private static Set<String> getGlowTeamNames() {
-        if (glowTeamNames == null) {
-            glowTeamNames = new HashSet<>();
-            for (GlowColor color : GlowColor.values()) {
-                glowTeamNames.add(color.getTeamName());
-            }
-        }
-        return glowTeamNames;
-    }
-
     /**
      * 拦截发送给玩家的所有数据包
      * 过滤掉可能导致队伍状态冲突的包
@@ -60,32 +40,42 @@ public abstract class GlowTeamPacketMixin {
             return;
         }
 
-        // 如果是内部发送的恢复包，不要拦截
-        if (GlowManager.isSendingInternalPacket()) {
+        // 没有任何实体在客户端的发光队伍中时，任何队伍包都不会受影响
+        if (!GlowManager.hasAnyGlowedEntity()) {
             return;
         }
 
-        String teamName = teamPacket.getName();
-        Collection<String> players = teamPacket.getPlayers();
-
-        // 如果是发光队伍的包，不要拦截（这是我们自己发送的）
-        if (getGlowTeamNames().contains(teamName)) {
+        // 如果是内部发送的恢复包，不要拦截
+        if (GlowManager.isSendingInternalPacket()) {
             return;
         }
 
-        // 只处理有成员变更的包（players 非空意味着是 ADD 或 REMOVE 操作）
-        if (players.isEmpty()) {
-            return;
-        }
+        DpeEvents.GlowTeamPacket event = new DpeEvents.GlowTeamPacket();
+        event.begin();
+        long start = DpeMetrics.start();
+        try {
+            String teamName = teamPacket.getName();
+            Collection<String> players = teamPacket.getPlayers();
+
+            // 发光队伍自己的包和没有成员的包不受影响；其余包中每个成员一次哈希查找
+            // 这里只做过滤，真实队伍变更后的重新同步由 GlowScoreboardMixin 在主线程上标记
+            int glowing = GlowManager.filterTeamPacket(teamName, players);
 
-        // 当包含玩家列表时，检查是否有发光效果的实体
-        // 这些包是 ADD_PLAYERS 或 REMOVE_PLAYERS 操作
-        for (String playerName : players) {
-            if (GlowManager.hasGlowForAnyViewer(playerName)) {
+            if (glowing > 0) {
                 // 取消这个包，因为客户端上这些实体可能在虚拟发光队伍中
                 ci.cancel();
-                return;
+                DpeMetrics.increment(DpeMetrics.Counter.TEAM_PACKETS_CANCELLED);
+            }
+
+            if (event.shouldCommit()) {
+                event.team = teamName;
+                event.memberCount = players.size();
+                event.glowingMemberCount = glowing;
+                event.cancelled = glowing > 0;
+                event.commit();
             }
+        } finally {
+            DpeMetrics.record(DpeMetrics.Timer.GLOW_TEAM_PACKET_HOOK, start);
         }
     }
 }
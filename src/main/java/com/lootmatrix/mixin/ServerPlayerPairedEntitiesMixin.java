@@ -0,0 +1,26 @@
+package com.lootmatrix.mixin;
+
+import com.lootmatrix.util.PairedEntities;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+
+import java.util.Set;
+
+/**
+ * 为玩家添加其客户端上当前存在的实体集合
+ * 这是纯服务端的 Mixin，不需要客户端安装
+ */
+@Mixin(ServerPlayer.class)
+public abstract class ServerPlayerPairedEntitiesMixin implements PairedEntities {
+
+    @Unique
+    private final Set<Entity> dpe$pairedEntities = new ReferenceOpenHashSet<>();
+
+    @Override
+    public Set<Entity> dpe$pairedEntities() {
+        return this.dpe$pairedEntities;
+    }
+}
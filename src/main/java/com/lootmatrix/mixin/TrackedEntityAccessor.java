@@ -0,0 +1,25 @@
+package com.lootmatrix.mixin;
+
+import net.minecraft.server.level.ServerEntity;
+import net.minecraft.server.network.ServerPlayerConnection;
+import net.minecraft.world.entity.Entity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import java.util.Set;
+
+/**
+ * 访问 ChunkMap.TrackedEntity 中被追踪的实体及正在追踪该实体的玩家连接
+ */
+@Mixin(targets = "net.minecraft.server.level.ChunkMap$TrackedEntity")
+public interface TrackedEntityAccessor {
+
+    @Accessor("seenBy")
+    Set<ServerPlayerConnection> getSeenBy();
+
+    @Accessor("entity")
+    Entity getEntity();
+
+    @Accessor("serverEntity")
+    ServerEntity getServerEntity();
+}
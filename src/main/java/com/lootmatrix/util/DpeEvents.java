@@ -0,0 +1,130 @@
+package com.lootmatrix.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 模组的 Java Flight Recorder 事件
+ *
+ * 用法与 JDK 自带事件相同：创建事件并 begin()，工作完成后只在 shouldCommit() 为 true 时填写字段并提交；
+ * 没有录制或事件被禁用时 begin()/shouldCommit() 只是一次启用检查，事件对象可被逃逸分析消除，
+ * 字段所需的统计（观察者数量、数据包数量）也只在需要提交时才计算
+ * 所有事件都不记录调用栈，在 JMC 中位于 "Datapack Extension" 分类下
+ */
+public final class DpeEvents {
+
+	private static final String CATEGORY = "Datapack Extension";
+
+	private DpeEvents() {
+	}
+
+	@Name("com.lootmatrix.GlowDirtyData")
+	@Label("Glow Dirty Entity Data")
+	@Description("GlowPacketMixin.afterSendDirtyEntityData re-sending glow flags after vanilla entity data")
+	@Category({CATEGORY, "Glow"})
+	@StackTrace(false)
+	public static final class GlowDirtyData extends Event {
+		@Label("Entity ID")
+		public int entityId;
+
+		@Label("Viewer Count")
+		public int viewerCount;
+
+		@Label("Packet Count")
+		public int packetCount;
+	}
+
+	@Name("com.lootmatrix.GlowStartTracking")
+	@Label("Glow Start Tracking")
+	@Description("GlowEntityTrackerMixin.onStartTracking binding glow state when an entity enters a player's view")
+	@Category({CATEGORY, "Glow"})
+	@StackTrace(false)
+	public static final class GlowStartTracking extends Event {
+		@Label("Entity ID")
+		public int entityId;
+
+		@Label("Viewer Entity ID")
+		public int viewerEntityId;
+
+		@Label("Viewer Count")
+		@Description("Players with glow state for the entity after the hook")
+		public int viewerCount;
+
+		@Label("Glowing")
+		public boolean glowing;
+	}
+
+	@Name("com.lootmatrix.GlowTeamPacket")
+	@Label("Glow Team Packet Filter")
+	@Description("GlowTeamPacketMixin.onSend decision for a real team packet with members")
+	@Category({CATEGORY, "Glow"})
+	@StackTrace(false)
+	public static final class GlowTeamPacket extends Event {
+		@Label("Team")
+		public String team;
+
+		@Label("Member Count")
+		public int memberCount;
+
+		@Label("Glowing Member Count")
+		public int glowingMemberCount;
+
+		@Label("Cancelled")
+		public boolean cancelled;
+	}
+
+	@Name("com.lootmatrix.DisplayPairing")
+	@Label("Display Visibility Pairing")
+	@Description("DisplayVisibilityMixin.onAddPairing visibility check for a display entity")
+	@Category({CATEGORY, "Display"})
+	@StackTrace(false)
+	public static final class DisplayPairing extends Event {
+		@Label("Entity ID")
+		public int entityId;
+
+		@Label("Viewer Entity ID")
+		public int viewerEntityId;
+
+		@Label("Blocked")
+		public boolean blocked;
+	}
+
+	@Name("com.lootmatrix.Refresh")
+	@Label("Refresh Pass")
+	@Description("A full refreshAllGlow or refreshAllVisibility pass")
+	@Category({CATEGORY, "Refresh"})
+	@StackTrace(false)
+	public static final class Refresh extends Event {
+		@Label("Pass")
+		public String pass;
+
+		@Label("Viewer Count")
+		public int viewerCount;
+
+		@Label("Packet Count")
+		public int packetCount;
+	}
+
+	@Name("com.lootmatrix.CanSee")
+	@Label("Can See Evaluation")
+	@Description("A single dpe_cansee viewer/target evaluation")
+	@Category({CATEGORY, "Command"})
+	@StackTrace(false)
+	public static final class CanSee extends Event {
+		@Label("Viewer Entity ID")
+		public int viewerEntityId;
+
+		@Label("Target Entity ID")
+		public int targetEntityId;
+
+		@Label("Strict")
+		public boolean strict;
+
+		@Label("Visible")
+		public boolean visible;
+	}
+}
@@ -0,0 +1,340 @@
+package com.lootmatrix.util;
+
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientboundAddEntityPacket;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.game.ClientboundRemoveEntitiesPacket;
+import net.minecraft.network.protocol.game.ClientboundSetEntityDataPacket;
+import net.minecraft.network.protocol.game.ClientboundSetPlayerTeamPacket;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 模组内置的指标：计数器、耗时直方图和状态大小
+ *
+ * 记录端只对 LongAdder 做自增（内部按线程分段，无锁），热路径上的开销是一次或两次 System.nanoTime 和几次自增；
+ * 读取端（/dpe_stats 和 Prometheus 文本导出）汇总各分段，只在服务器主线程上调用，
+ * 状态大小在读取时才通过回调计算，不在热路径上维护
+ */
+public final class DpeMetrics {
+
+	/**
+	 * 发送数据包的子系统
+	 */
+	public enum Source {
+		GLOW,
+		DISPLAY
+	}
+
+	/**
+	 * 数据包类型
+	 */
+	public enum PacketKind {
+		SET_ENTITY_DATA,
+		SET_PLAYER_TEAM,
+		ADD_ENTITY,
+		REMOVE_ENTITIES,
+		BUNDLE,
+		OTHER;
+
+		static PacketKind of(Packet<?> packet) {
+			if (packet instanceof ClientboundSetEntityDataPacket) return SET_ENTITY_DATA;
+			if (packet instanceof ClientboundSetPlayerTeamPacket) return SET_PLAYER_TEAM;
+			if (packet instanceof ClientboundAddEntityPacket) return ADD_ENTITY;
+			if (packet instanceof ClientboundRemoveEntitiesPacket) return REMOVE_ENTITIES;
+			if (packet instanceof ClientboundBundlePacket) return BUNDLE;
+			return OTHER;
+		}
+	}
+
+	/**
+	 * 计数器
+	 */
+	public enum Counter {
+		TEAM_PACKETS_CANCELLED("dpe_team_packets_cancelled_total", "Team packets cancelled by the glow team packet filter"),
+		CANSEE_EVALUATIONS("dpe_cansee_evaluations_total", "Targets evaluated by dpe_cansee"),
+		CANSEE_RAYCASTS("dpe_cansee_raycasts_total", "Block raycasts performed by dpe_cansee"),
+		DISPLAY_SHOWN("dpe_display_shown_total", "Restricted displays paired with a player through the entity tracker"),
+		DISPLAY_HIDDEN("dpe_display_hidden_total", "Restricted displays unpaired from a player through the entity tracker");
+
+		final String metricName;
+		final String help;
+		final LongAdder adder = new LongAdder();
+
+		Counter(String metricName, String help) {
+			this.metricName = metricName;
+			this.help = help;
+		}
+	}
+
+	/**
+	 * 耗时直方图
+	 */
+	public enum Timer {
+		GLOW_DIRTY_DATA_HOOK("glow_dirty_data_hook"),
+		GLOW_ENTITY_DATA_HOOK("glow_entity_data_hook"),
+		GLOW_START_TRACKING_HOOK("glow_start_tracking_hook"),
+		GLOW_STOP_TRACKING_HOOK("glow_stop_tracking_hook"),
+		GLOW_TEAM_PACKET_HOOK("glow_team_packet_hook"),
+		DISPLAY_PAIRING_HOOK("display_pairing_hook"),
+		GLOW_EXPIRATIONS("glow_expirations"),
+		GLOW_ANIMATIONS("glow_animations"),
+		GLOW_FLUSH_JOURNAL("glow_flush_journal"),
+		GLOW_FLUSH_DIRTY("glow_flush_dirty"),
+		GLOW_REFRESH("glow_refresh"),
+		DISPLAY_REFRESH("display_refresh"),
+		DISPLAY_VIEW_RANGE("display_view_range"),
+		CANSEE("cansee");
+
+		final String label;
+		final Histogram histogram = new Histogram();
+
+		Timer(String label) {
+			this.label = label;
+		}
+	}
+
+	/**
+	 * 以 2 的幂微秒为桶边界的直方图：第 i 个桶记录不超过 2^i 微秒的耗时，最后一个桶记录更长的耗时
+	 */
+	static final class Histogram {
+		static final int BUCKETS = 22;
+
+		final LongAdder count = new LongAdder();
+		final LongAdder sumNanos = new LongAdder();
+		final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos) {
+			long micros = Math.max(0, nanos) / 1000;
+			int index = micros == 0 ? 0 : Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(micros - 1));
+			buckets[index].increment();
+			count.increment();
+			sumNanos.add(nanos);
+		}
+
+		void reset() {
+			count.reset();
+			sumNanos.reset();
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+		}
+
+		/**
+		 * 估算分位数（返回所在桶的上界，单位微秒），没有记录时返回 0
+		 */
+		long percentileMicros(double quantile) {
+			long total = count.sum();
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(total * quantile);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets[i].sum();
+				if (seen >= rank) {
+					return 1L << i;
+				}
+			}
+			return 1L << BUCKETS;
+		}
+	}
+
+	private record Gauge(String help, LongSupplier supplier) {
+	}
+
+	// 子系统 × 数据包类型
+	private static final LongAdder[][] PACKETS = new LongAdder[Source.values().length][PacketKind.values().length];
+
+	// 状态大小：指标名 -> 读取时计算的回调
+	private static final Map<String, Gauge> GAUGES = new LinkedHashMap<>();
+
+	static {
+		for (LongAdder[] row : PACKETS) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = new LongAdder();
+			}
+		}
+	}
+
+	private DpeMetrics() {
+	}
+
+	// ==================== 记录 ====================
+
+	/**
+	 * 记录一个发送的数据包，捆绑包按捆绑包本身计数，其中的子包应在组装时通过 packets 计数
+	 */
+	public static void packet(Source source, Packet<?> packet) {
+		PACKETS[source.ordinal()][PacketKind.of(packet).ordinal()].increment();
+	}
+
+	/**
+	 * 记录一组发送的数据包
+	 */
+	public static void packets(Source source, List<? extends Packet<?>> packets) {
+		LongAdder[] row = PACKETS[source.ordinal()];
+		for (Packet<?> packet : packets) {
+			row[PacketKind.of(packet).ordinal()].increment();
+		}
+	}
+
+	public static void increment(Counter counter) {
+		counter.adder.increment();
+	}
+
+	public static void add(Counter counter, long amount) {
+		counter.adder.add(amount);
+	}
+
+	/**
+	 * 开始计时，返回值传给 record
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	public static void record(Timer timer, long startNanos) {
+		timer.histogram.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * 注册一个状态大小指标，回调只在读取指标时于服务器主线程上调用
+	 */
+	public static synchronized void gauge(String metricName, String help, LongSupplier supplier) {
+		GAUGES.put(metricName, new Gauge(help, supplier));
+	}
+
+	/**
+	 * 清零所有计数器和直方图（状态大小不受影响）
+	 */
+	public static void reset() {
+		for (LongAdder[] row : PACKETS) {
+			for (LongAdder adder : row) {
+				adder.reset();
+			}
+		}
+		for (Counter counter : Counter.values()) {
+			counter.adder.reset();
+		}
+		for (Timer timer : Timer.values()) {
+			timer.histogram.reset();
+		}
+	}
+
+	// ==================== 读取 ====================
+
+	/**
+	 * 生成供 /dpe_stats 显示的文本行，只显示有记录的项目
+	 */
+	public static List<String> describe() {
+		List<String> lines = new ArrayList<>();
+
+		for (Source source : Source.values()) {
+			StringBuilder line = new StringBuilder();
+			LongAdder[] row = PACKETS[source.ordinal()];
+			for (PacketKind kind : PacketKind.values()) {
+				long sent = row[kind.ordinal()].sum();
+				if (sent > 0) {
+					line.append(line.isEmpty() ? "" : ", ").append(name(kind)).append('=').append(sent);
+				}
+			}
+			if (!line.isEmpty()) {
+				lines.add("packets[" + name(source) + "] " + line);
+			}
+		}
+
+		for (Counter counter : Counter.values()) {
+			long value = counter.adder.sum();
+			if (value > 0) {
+				lines.add(counter.metricName + " = " + value);
+			}
+		}
+
+		for (Timer timer : Timer.values()) {
+			Histogram histogram = timer.histogram;
+			long count = histogram.count.sum();
+			if (count == 0) continue;
+			lines.add(String.format(Locale.ROOT, "%s: n=%d avg=%.1fµs p50≤%dµs p99≤%dµs",
+					timer.label, count, histogram.sumNanos.sum() / 1000.0 / count,
+					histogram.percentileMicros(0.5), histogram.percentileMicros(0.99)));
+		}
+
+		for (Map.Entry<String, Gauge> gauge : gauges()) {
+			lines.add(gauge.getKey() + " = " + gauge.getValue().supplier().getAsLong());
+		}
+
+		return lines;
+	}
+
+	/**
+	 * 生成 Prometheus 文本格式的全部指标
+	 */
+	public static String prometheus() {
+		StringBuilder out = new StringBuilder(4096);
+
+		out.append("# HELP dpe_packets_sent_total Packets sent by the glow and display visibility managers\n");
+		out.append("# TYPE dpe_packets_sent_total counter\n");
+		for (Source source : Source.values()) {
+			LongAdder[] row = PACKETS[source.ordinal()];
+			for (PacketKind kind : PacketKind.values()) {
+				out.append("dpe_packets_sent_total{source=\"").append(name(source))
+						.append("\",type=\"").append(name(kind)).append("\"} ")
+						.append(row[kind.ordinal()].sum()).append('\n');
+			}
+		}
+
+		for (Counter counter : Counter.values()) {
+			out.append("# HELP ").append(counter.metricName).append(' ').append(counter.help).append('\n');
+			out.append("# TYPE ").append(counter.metricName).append(" counter\n");
+			out.append(counter.metricName).append(' ').append(counter.adder.sum()).append('\n');
+		}
+
+		out.append("# HELP dpe_duration_seconds Time spent in mixin hooks, refresh passes and commands\n");
+		out.append("# TYPE dpe_duration_seconds histogram\n");
+		for (Timer timer : Timer.values()) {
+			Histogram histogram = timer.histogram;
+			long cumulative = 0;
+			for (int i = 0; i < Histogram.BUCKETS; i++) {
+				cumulative += histogram.buckets[i].sum();
+				out.append("dpe_duration_seconds_bucket{pass=\"").append(timer.label).append("\",le=\"")
+						.append((1L << i) / 1_000_000.0).append("\"} ").append(cumulative).append('\n');
+			}
+			cumulative += histogram.buckets[Histogram.BUCKETS].sum();
+			out.append("dpe_duration_seconds_bucket{pass=\"").append(timer.label).append("\",le=\"+Inf\"} ")
+					.append(cumulative).append('\n');
+			out.append("dpe_duration_seconds_sum{pass=\"").append(timer.label).append("\"} ")
+					.append(histogram.sumNanos.sum() / 1_000_000_000.0).append('\n');
+			out.append("dpe_duration_seconds_count{pass=\"").append(timer.label).append("\"} ")
+					.append(cumulative).append('\n');
+		}
+
+		for (Map.Entry<String, Gauge> gauge : gauges()) {
+			out.append("# HELP ").append(gauge.getKey()).append(' ').append(gauge.getValue().help()).append('\n');
+			out.append("# TYPE ").append(gauge.getKey()).append(" gauge\n");
+			out.append(gauge.getKey()).append(' ').append(gauge.getValue().supplier().getAsLong()).append('\n');
+		}
+
+		return out.toString();
+	}
+
+	private static synchronized List<Map.Entry<String, Gauge>> gauges() {
+		return new ArrayList<>(GAUGES.entrySet());
+	}
+
+	private static String name(Enum<?> value) {
+		return value.name().toLowerCase(Locale.ROOT);
+	}
+}
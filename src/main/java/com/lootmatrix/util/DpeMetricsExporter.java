@@ -0,0 +1,103 @@
+package com.lootmatrix.util;
+
+import com.lootmatrix.DatapackExtension;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.server.MinecraftServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 定期将指标以 Prometheus 文本格式写入服务器目录，供 node_exporter 的 textfile collector 等读取
+ *
+ * 默认关闭，可通过 JVM 参数 -Ddpe.metrics.prometheus=true 或 /dpe_stats export on 开启
+ * 文本在服务器主线程上生成（需要读取状态大小），写入文件在单独的 IO 线程上进行
+ */
+public final class DpeMetricsExporter {
+
+	public static final String FILE_NAME = "dpe_metrics.prom";
+
+	// 导出间隔（tick）- 每10秒导出一次
+	private static final int EXPORT_INTERVAL = 200;
+
+	private static volatile boolean enabled = Boolean.getBoolean("dpe.metrics.prometheus");
+	private static int tickCounter = 0;
+
+	private static ExecutorService ioExecutor;
+
+	private DpeMetricsExporter() {
+	}
+
+	public static void register() {
+		ServerTickEvents.END_SERVER_TICK.register(DpeMetricsExporter::onServerTick);
+		ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+			if (enabled) {
+				export(server);
+			}
+			if (ioExecutor != null) {
+				ioExecutor.shutdown();
+				ioExecutor = null;
+			}
+		});
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean value) {
+		enabled = value;
+	}
+
+	public static Path file(MinecraftServer server) {
+		return server.getServerDirectory().resolve(FILE_NAME);
+	}
+
+	private static void onServerTick(MinecraftServer server) {
+		if (!enabled) {
+			return;
+		}
+		tickCounter++;
+		if (tickCounter >= EXPORT_INTERVAL) {
+			tickCounter = 0;
+			export(server);
+		}
+	}
+
+	/**
+	 * 生成当前指标并提交到 IO 线程写入文件
+	 */
+	public static void export(MinecraftServer server) {
+		byte[] data = DpeMetrics.prometheus().getBytes(StandardCharsets.UTF_8);
+		Path file = file(server);
+		executor().execute(() -> write(file, data));
+	}
+
+	private static ExecutorService executor() {
+		if (ioExecutor == null) {
+			ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "DPE-Metrics-IO");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return ioExecutor;
+	}
+
+	private static void write(Path file, byte[] data) {
+		try {
+			// 先写临时文件再原子替换，读取方不会看到写了一半的文件
+			Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(temp, data);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			DatapackExtension.LOGGER.warn("Failed to write metrics to {}", file, e);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.lootmatrix.util;
+
+import com.lootmatrix.mixin.ChunkMapAccessor;
+import com.lootmatrix.mixin.TrackedEntityAccessor;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.ServerPlayerConnection;
+import net.minecraft.world.entity.Entity;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public final class EntityTracking {
+
+	private EntityTracking() {
+	}
+
+	/**
+	 * 获取实体在所在维度区块管理器中的追踪记录，实体未被追踪时返回 null
+	 */
+	public static TrackedEntityAccessor getTrackedEntity(Entity entity) {
+		if (!(entity.level() instanceof ServerLevel level)) {
+			return null;
+		}
+		Object tracked = ((ChunkMapAccessor) level.getChunkSource().chunkMap).getEntityMap().get(entity.getId());
+		return (TrackedEntityAccessor) tracked;
+	}
+
+	/**
+	 * 获取正在追踪该实体的玩家连接（只读使用），实体未被追踪时返回空集合
+	 */
+	public static Set<ServerPlayerConnection> getSeenBy(Entity entity) {
+		TrackedEntityAccessor tracked = getTrackedEntity(entity);
+		return tracked != null ? tracked.getSeenBy() : Collections.emptySet();
+	}
+
+	/**
+	 * 检查玩家的客户端当前是否正在追踪该实体（实体已发送给该玩家）
+	 */
+	public static boolean isTrackedBy(Entity entity, ServerPlayer player) {
+		TrackedEntityAccessor tracked = getTrackedEntity(entity);
+		return tracked != null && tracked.getSeenBy().contains(player.connection);
+	}
+
+	/**
+	 * 遍历玩家的客户端当前正在追踪的所有实体（不包括玩家自己）
+	 * 使用由追踪钩子维护的按玩家集合，开销与该玩家追踪的实体数量成正比；action 中不能建立或取消追踪
+	 */
+	public static void forEachTrackedBy(ServerPlayer player, Consumer<Entity> action) {
+		for (Entity entity : ((PairedEntities) player).dpe$pairedEntities()) {
+			action.accept(entity);
+		}
+	}
+}
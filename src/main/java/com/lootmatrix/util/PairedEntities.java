@@ -0,0 +1,17 @@
+package com.lootmatrix.util;
+
+import net.minecraft.world.entity.Entity;
+
+import java.util.Set;
+
+/**
+ * 玩家客户端上当前存在的实体（已建立追踪），由 ServerPlayerPairedEntitiesMixin 添加到玩家上
+ *
+ * 由 EntityPairingMixin 在 addPairing/removePairing 完成后维护，被可见性限制阻止的追踪不会加入；
+ * 按玩家遍历其追踪的实体时不需要扫描整个维度的追踪表
+ * 只在服务器主线程访问
+ */
+public interface PairedEntities {
+
+	Set<Entity> dpe$pairedEntities();
+}